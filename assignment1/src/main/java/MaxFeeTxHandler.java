@@ -1,18 +1,41 @@
-import java.util.HashSet;
-import java.util.Set;
-import java.util.List;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.PriorityQueue;
-import java.util.Queue;
+import java.util.Set;
 
-import java.util.stream.*;
+/**
+ * A {@link TxHandler} variant that accepts the mutually valid subset of an epoch with the highest
+ * total transaction fee, the fee of a transaction being the sum of its inputs minus the sum of its
+ * outputs.
+ *
+ * Every transaction is first checked against the pool extended with all outputs of the epoch.
+ * A transaction that passes can still be left out: two transactions spending the same output
+ * conflict, and a transaction spending an output of another one of the epoch needs that one in.
+ * Transactions tied together by conflicts or dependencies form a component; components are
+ * independent and solved one by one. A component of at most {@link #getExactLimit()} transactions
+ * is solved exactly by branch and bound. Larger ones are filled greedily, best package fee first,
+ * where the package of a transaction is the transaction with the ancestors it needs.
+ */
+public class MaxFeeTxHandler {
 
+    /** default size of the largest component solved exactly */
+    public static final int DEFAULT_EXACT_LIMIT = 24;
 
-public class MaxFeeTxHandler {
     public UTXOPool pool;
 
+    private int exactLimit = DEFAULT_EXACT_LIMIT;
+
+    private long collectedFee;
+    private long elapsedNanos;
+    private int exactComponents;
+    private int greedyComponents;
+
     /**
      * Creates a public ledger whose current UTXOPool (collection of unspent transaction outputs) is
      * {@code utxoPool}. This should make a copy of utxoPool by using the UTXOPool(UTXOPool uPool)
@@ -23,21 +46,60 @@ public class MaxFeeTxHandler {
         pool = new UTXOPool(utxoPool);
     }
 
-    private double sumOfOutputs(Transaction tx) {
-        double sum = 0.0;
+    public int getExactLimit() {
+        return exactLimit;
+    }
+
+    /**
+     * Solve components of up to {@code exactLimit} transactions exactly. The exact search is
+     * exponential in the worst case; 0 makes every component greedy.
+     */
+    public void setExactLimit(int exactLimit) {
+        if (exactLimit < 0)
+            throw new IllegalArgumentException("exactLimit must not be negative: " + exactLimit);
+        this.exactLimit = exactLimit;
+    }
+
+    /** @return the total fee of the transactions accepted by the last {@link #handleTxs} call */
+    public long getCollectedFeeUnits() {
+        return collectedFee;
+    }
+
+    /** @return the total fee of the last {@link #handleTxs} call in coins */
+    public double getCollectedFee() {
+        return Transaction.toCoins(collectedFee);
+    }
+
+    /** @return how long the last {@link #handleTxs} call took, in nanoseconds */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /** @return number of components the last {@link #handleTxs} call solved exactly */
+    public int getExactComponents() {
+        return exactComponents;
+    }
+
+    /** @return number of components the last {@link #handleTxs} call filled greedily */
+    public int getGreedyComponents() {
+        return greedyComponents;
+    }
+
+    private static long sumOfOutputs(Transaction tx) {
+        long sum = 0;
         for (Transaction.Output out: tx.getOutputs()) {
-            sum += out.value;
+            sum = Math.addExact(sum, out.getUnits());
         }
         return sum;
     }
 
-    private double sumOfInputs(Transaction tx) {
-        double sum = 0.0;
+    private static long sumOfInputs(Transaction tx, UTXOPool utxoPool) {
+        long sum = 0;
         for (Transaction.Input in: tx.getInputs()) {
             UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
-            Transaction.Output out = pool.getTxOutput(u);
+            Transaction.Output out = utxoPool.getTxOutput(u);
             if (out != null) {
-                sum += out.value;
+                sum = Math.addExact(sum, out.getUnits());
             }
         }
         return sum;
@@ -45,13 +107,25 @@ public class MaxFeeTxHandler {
     }
 
     public boolean isValidTx(Transaction tx) {
+        return isValidTx(tx, pool);
+    }
+
+    private static boolean isValidTx(Transaction tx, UTXOPool utxoPool) {
+        try {
+            return checkTx(tx, utxoPool);
+        } catch (ArithmeticException e) {
+            // an amount that is not a number or overflows a long
+            return false;
+        }
+    }
+
+    private static boolean checkTx(Transaction tx, UTXOPool utxoPool) {
         Set<UTXO> setUTXO = new HashSet<UTXO>();
-        double inputSum = 0;
-        double outputSum = 0;
+        long inputSum = 0;
+        long outputSum = 0;
 
         for (int i = 0; i < tx.numInputs(); i++) {
             Transaction.Input in = tx.getInput(i);
-            byte[] data = tx.getRawDataToSign(i);
 
             UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
 
@@ -60,7 +134,7 @@ public class MaxFeeTxHandler {
                 return false;
             }
 
-            Transaction.Output out = pool.getTxOutput(u);
+            Transaction.Output out = utxoPool.getTxOutput(u);
 
             // * (1) all outputs claimed by {@code tx} are in the current UTXO pool
             if (out == null) {
@@ -68,11 +142,11 @@ public class MaxFeeTxHandler {
             }
 
             // * (2) the signatures on each input of {@code tx} are valid,
-            if (!Crypto.verifySignature(out.address, data, in.signature)) {
+            if (!Crypto.verifySignature(out.address, tx.getRawDataToSign(i), in.signature)) {
                 return false;
             }
             //
-            inputSum += out.value;
+            inputSum = Math.addExact(inputSum, out.getUnitsDown());
         }
 
         for (Transaction.Output out: tx.getOutputs()) {
@@ -81,7 +155,7 @@ public class MaxFeeTxHandler {
             if (out.value < 0) {
                 return false;
             }
-            outputSum += out.value;
+            outputSum = Math.addExact(outputSum, out.getUnitsUp());
         }
         // * (5) the sum of {@code tx}s input values is greater than or equal to the sum of its output
         if (outputSum > inputSum) {
@@ -94,43 +168,128 @@ public class MaxFeeTxHandler {
 
     /**
      * Handles each epoch by receiving an unordered array of proposed transactions, checking each
-     * transaction for correctness, returning a mutually valid array of accepted transactions, and
-     * updating the current UTXO pool as appropriate.
+     * transaction for correctness, returning a mutually valid array of accepted transactions with
+     * the highest total fee, and updating the current UTXO pool as appropriate. Accepted
+     * transactions are returned parents first. The fee collected and the time taken are available
+     * afterwards from {@link #getCollectedFeeUnits()} and {@link #getElapsedNanos()}.
      */
     public Transaction[] handleTxs(Transaction[] possibleTxs) {
-        List<Transaction> txsList = new ArrayList<Transaction>(Arrays.asList(possibleTxs));
-
-        Queue<List<Transaction>> pq = new PriorityQueue<>((List<Transaction> txl1, List<Transaction> txl2) -> {
-                double s1 = txl1.stream().mapToDouble((Transaction tx) -> sumOfInputs(tx) - sumOfOutputs(tx)).sum();
-                double s2 = txl1.stream().mapToDouble((Transaction tx) -> sumOfInputs(tx) - sumOfOutputs(tx)).sum();
-                return -Double.compare(s1, s2);
-        });
-
-        Map<UTXO, Transaction> txm = new HashMap<>();
-        
-        for (Transactoin tx: possibleTxs) {
-            for (Transaction.Input in: tx.getInputs()) {
-                UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
+        long start = System.nanoTime();
+        exactComponents = 0;
+        greedyComponents = 0;
+        int n = possibleTxs.length;
+
+        // the first transaction with a given hash stands for it, duplicates only conflict with it
+        Map<ByteBuffer, Integer> positions = new HashMap<ByteBuffer, Integer>();
+        UTXOPool extended = new UTXOPool(pool);
+        for (int t = 0; t < n; t++) {
+            Transaction tx = possibleTxs[t];
+            if (tx.getHash() == null || positions.containsKey(ByteBuffer.wrap(tx.getHash())))
+                continue;
+            positions.put(ByteBuffer.wrap(tx.getHash()), t);
+            for (int i = 0; i < tx.numOutputs(); i++) {
+                UTXO u = new UTXO(tx.getHash(), i);
+                if (!pool.contains(u))
+                    extended.addUTXO(u, tx.getOutput(i));
+            }
+        }
 
-                Transaction.Output out = pool.getTxOutput(u);
-                if (out == null) {
-                    txm.add(u, tx);
+        // check every transaction on its own and link it to the epoch transactions it spends from
+        boolean[] valid = new boolean[n];
+        long[] fees = new long[n];
+        List<List<Integer>> parents = new ArrayList<List<Integer>>();
+        List<List<Integer>> children = new ArrayList<List<Integer>>();
+        for (int t = 0; t < n; t++) {
+            parents.add(new ArrayList<Integer>());
+            children.add(new ArrayList<Integer>());
+        }
+        for (int t = 0; t < n; t++) {
+            Transaction tx = possibleTxs[t];
+            valid[t] = tx.getHash() != null && isValidTx(tx, extended);
+            if (!valid[t])
+                continue;
+            fees[t] = sumOfInputs(tx, extended) - sumOfOutputs(tx);
+            for (Transaction.Input in : tx.getInputs()) {
+                Integer parent = positions.get(ByteBuffer.wrap(in.prevTxHash));
+                if (parent != null && !pool.contains(new UTXO(in.prevTxHash, in.outputIndex))
+                        && !parents.get(t).contains(parent)) {
+                    parents.get(t).add(parent);
+                    children.get(parent).add(t);
                 }
             }
         }
 
-        for (Transactoin tx: possibleTxs) {
-
+        // valid transactions whose parents can all get in, parents first
+        List<Integer> order = new ArrayList<Integer>();
+        int[] waiting = new int[n];
+        PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+        for (int t = 0; t < n; t++) {
+            waiting[t] = parents.get(t).size();
+            if (valid[t] && waiting[t] == 0)
+                ready.add(t);
+        }
+        while (!ready.isEmpty()) {
+            int t = ready.poll();
+            order.add(t);
+            for (int c : children.get(t)) {
+                if (--waiting[c] == 0 && valid[c])
+                    ready.add(c);
+            }
         }
 
+        // components: transactions joined by a shared input or a dependency
+        int[] component = new int[n];
+        for (int t = 0; t < n; t++)
+            component[t] = t;
+        Map<UTXO, List<Integer>> spenders = new HashMap<UTXO, List<Integer>>();
+        for (int t : order) {
+            for (Transaction.Input in : possibleTxs[t].getInputs()) {
+                UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
+                List<Integer> list = spenders.get(u);
+                if (list == null) {
+                    list = new ArrayList<Integer>();
+                    spenders.put(u, list);
+                }
+                if (!list.isEmpty())
+                    union(component, list.get(0), t);
+                list.add(t);
+            }
+            for (int p : parents.get(t))
+                union(component, p, t);
+        }
 
-        Set<Transaction> txs = new HashSet<Transaction>();
+        Map<Integer, List<Integer>> components = new HashMap<Integer, List<Integer>>();
+        for (int t : order) {
+            int root = find(component, t);
+            List<Integer> members = components.get(root);
+            if (members == null) {
+                members = new ArrayList<Integer>();
+                components.put(root, members);
+            }
+            members.add(t);
+        }
 
-        for (Transaction tx: txsList) {
-            if (!isValidTx(tx)) {
-                continue;
+        boolean[] chosen = new boolean[n];
+        for (List<Integer> members : components.values()) {
+            Component c = new Component(members, possibleTxs, fees, parents, spenders);
+            boolean[] picked;
+            if (members.size() <= exactLimit) {
+                picked = c.solveExactly();
+                exactComponents++;
+            } else {
+                picked = c.solveGreedily();
+                greedyComponents++;
             }
+            for (int i = 0; i < picked.length; i++)
+                chosen[members.get(i)] = picked[i];
+        }
 
+        List<Transaction> txs = new ArrayList<Transaction>();
+        collectedFee = 0;
+        for (int t : order) {
+            if (!chosen[t])
+                continue;
+            Transaction tx = possibleTxs[t];
             for (int i = 0; i < tx.numInputs(); i++) {
                 Transaction.Input in = tx.getInput(i);
                 UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
@@ -144,10 +303,163 @@ public class MaxFeeTxHandler {
             }
 
             txs.add(tx);
+            collectedFee += fees[t];
         }
 
-
+        elapsedNanos = System.nanoTime() - start;
         return txs.toArray(new Transaction[txs.size()]);
     }
 
+    private static int find(int[] component, int t) {
+        while (component[t] != t) {
+            component[t] = component[component[t]];
+            t = component[t];
+        }
+        return t;
+    }
+
+    private static void union(int[] component, int a, int b) {
+        component[find(component, a)] = find(component, b);
+    }
+
+    /**
+     * One component, its transactions renumbered in dependency order. Both solvers return which of
+     * them to accept.
+     */
+    private static class Component {
+        private final int size;
+        private final long[] fees;
+        private final int[][] parents;
+        private final int[][] conflicts;
+
+        private boolean[] chosen;
+        private boolean[] best;
+        private long bestFee;
+
+        Component(List<Integer> members, Transaction[] txs, long[] allFees, List<List<Integer>> allParents,
+                Map<UTXO, List<Integer>> spenders) {
+            size = members.size();
+            Map<Integer, Integer> local = new HashMap<Integer, Integer>();
+            for (int i = 0; i < size; i++)
+                local.put(members.get(i), i);
+
+            fees = new long[size];
+            parents = new int[size][];
+            conflicts = new int[size][];
+            for (int i = 0; i < size; i++) {
+                int t = members.get(i);
+                fees[i] = allFees[t];
+                parents[i] = new int[allParents.get(t).size()];
+                for (int p = 0; p < parents[i].length; p++)
+                    parents[i][p] = local.get(allParents.get(t).get(p));
+
+                Set<Integer> others = new HashSet<Integer>();
+                for (Transaction.Input in : txs[t].getInputs()) {
+                    for (int s : spenders.get(new UTXO(in.prevTxHash, in.outputIndex))) {
+                        if (s != t)
+                            others.add(local.get(s));
+                    }
+                }
+                conflicts[i] = new int[others.size()];
+                int c = 0;
+                for (int o : others)
+                    conflicts[i][c++] = o;
+            }
+        }
+
+        private boolean canAccept(int i) {
+            for (int p : parents[i]) {
+                if (!chosen[p])
+                    return false;
+            }
+            for (int c : conflicts[i]) {
+                if (chosen[c])
+                    return false;
+            }
+            return true;
+        }
+
+        /** Branch and bound over accepting each transaction or not, trying to accept first */
+        boolean[] solveExactly() {
+            chosen = new boolean[size];
+            best = null;
+            bestFee = -1;
+            long remaining = 0;
+            for (long fee : fees)
+                remaining += fee;
+            search(0, 0, remaining);
+            return best;
+        }
+
+        private void search(int i, long fee, long remaining) {
+            if (fee + remaining <= bestFee)
+                return;
+            if (i == size) {
+                bestFee = fee;
+                best = chosen.clone();
+                return;
+            }
+            if (canAccept(i)) {
+                chosen[i] = true;
+                search(i + 1, fee + fees[i], remaining - fees[i]);
+                chosen[i] = false;
+            }
+            search(i + 1, fee, remaining - fees[i]);
+        }
+
+        /**
+         * Accepts packages in order of their fee: a transaction together with its ancestors not
+         * accepted yet, as long as none of them conflicts with what is already accepted.
+         */
+        boolean[] solveGreedily() {
+            chosen = new boolean[size];
+            boolean[] excluded = new boolean[size];
+
+            // sums over the ancestors, counting shared ones more than once, which is good enough to rank them
+            final long[] packageFees = new long[size];
+            for (int i = 0; i < size; i++) {
+                packageFees[i] = fees[i];
+                for (int p : parents[i])
+                    packageFees[i] += packageFees[p];
+            }
+            Integer[] ranked = new Integer[size];
+            for (int i = 0; i < size; i++)
+                ranked[i] = i;
+            Arrays.sort(ranked, Comparator.comparingLong((Integer i) -> -packageFees[i]).thenComparingInt(i -> i));
+
+            for (int i : ranked) {
+                if (chosen[i] || excluded[i])
+                    continue;
+                List<Integer> pkg = new ArrayList<Integer>();
+                if (!collectPackage(i, excluded, pkg, new boolean[size]))
+                    continue;
+                for (int a : pkg) {
+                    chosen[a] = true;
+                    for (int c : conflicts[a])
+                        excluded[c] = true;
+                }
+            }
+            return chosen;
+        }
+
+        /** Adds {@code i} and its ancestors not accepted yet to {@code pkg}, false if one is excluded */
+        private boolean collectPackage(int i, boolean[] excluded, List<Integer> pkg, boolean[] seen) {
+            if (chosen[i] || seen[i])
+                return true;
+            if (excluded[i])
+                return false;
+            seen[i] = true;
+            for (int p : parents[i]) {
+                if (!collectPackage(p, excluded, pkg, seen))
+                    return false;
+            }
+            // two ancestors of the package may spend the same output
+            for (int c : conflicts[i]) {
+                if (seen[c])
+                    return false;
+            }
+            pkg.add(i);
+            return true;
+        }
+    }
 }
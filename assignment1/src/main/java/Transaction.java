@@ -2,7 +2,6 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 
 public class Transaction {
@@ -37,16 +36,106 @@ public class Transaction {
         /** the address or public key of the recipient */
         public PublicKey address;
 
+        /** {@code address.getEncoded()}, redone only when the address changes */
+        private AddressEncoding encoding;
+
         public Output(double v, PublicKey addr) {
             value = v;
             address = addr;
         }
+
+        /** @return {@link #value} in whole units, see {@link Transaction#toUnits} */
+        public long getUnits() {
+            return toUnits(value);
+        }
+
+        /** @return what spending this output is worth, see {@link Transaction#toUnitsDown} */
+        public long getUnitsDown() {
+            return toUnitsDown(value);
+        }
+
+        /** @return what creating this output costs, see {@link Transaction#toUnitsUp} */
+        public long getUnitsUp() {
+            return toUnitsUp(value);
+        }
+
+        /**
+         * @return the address as serialized in {@link Transaction#getRawTx}. The array is shared
+         *         and must not be modified.
+         */
+        byte[] getEncodedAddress() {
+            AddressEncoding e = encoding;
+            if (e == null || e.address != address) {
+                e = new AddressEncoding(address);
+                encoding = e;
+            }
+            return e.bytes;
+        }
+    }
+
+    /** Immutable encoding of one public key, safe to share between threads */
+    private static final class AddressEncoding {
+        final PublicKey address;
+        final byte[] bytes;
+
+        AddressEncoding(PublicKey address) {
+            this.address = address;
+            bytes = address.getEncoded();
+        }
+    }
+
+    /**
+     * The serialized outputs section shared by {@link #getRawTx} and every
+     * {@link #getRawDataToSign}, together with the values and addresses it was built from
+     */
+    private static final class RawOutputs {
+        final Output[] outputs;
+        final double[] values;
+        final PublicKey[] addresses;
+        final byte[] bytes;
+
+        RawOutputs(ArrayList<Output> list) {
+            int n = list.size();
+            outputs = list.toArray(new Output[n]);
+            values = new double[n];
+            addresses = new PublicKey[n];
+            int length = 0;
+            for (int i = 0; i < n; i++) {
+                values[i] = outputs[i].value;
+                addresses[i] = outputs[i].address;
+                length += Double.BYTES + outputs[i].getEncodedAddress().length;
+            }
+            ByteBuffer b = ByteBuffer.allocate(length);
+            for (int i = 0; i < n; i++) {
+                b.putDouble(values[i]);
+                b.put(outputs[i].getEncodedAddress());
+            }
+            bytes = b.array();
+        }
+
+        /** @return true if {@code list} still holds the same outputs with the same contents */
+        boolean isCurrent(ArrayList<Output> list) {
+            if (list.size() != outputs.length)
+                return false;
+            for (int i = 0; i < outputs.length; i++) {
+                Output op = list.get(i);
+                if (op != outputs[i] || op.address != addresses[i]
+                        || Double.doubleToRawLongBits(op.value) != Double.doubleToRawLongBits(values[i]))
+                    return false;
+            }
+            return true;
+        }
     }
 
+    /** smallest indivisible amount, like a satoshi: one coin is this many units */
+    public static final long UNITS_PER_COIN = 100000000L;
+
     /** hash of the transaction, its unique id */
     private byte[] hash;
     private ArrayList<Input> inputs;
     private ArrayList<Output> outputs;
+    /** cached outputs section, see {@link #getRawOutputs} */
+    private RawOutputs rawOutputs;
 
     public Transaction() {
         inputs = new ArrayList<Input>();
@@ -69,6 +158,50 @@ public class Transaction {
         outputs.add(op);
     }
 
+    /** Adds an output of exactly {@code units} units, see {@link #toUnits} */
+    public void addOutputUnits(long units, PublicKey address) {
+        addOutput(toCoins(units), address);
+    }
+
+    /**
+     * @return {@code coins} rounded to the nearest whole unit. Output values are still stored,
+     *         serialized and hashed as doubles; validation converts them with {@link #toUnitsDown}
+     *         and {@link #toUnitsUp} and does all its arithmetic on exact longs. Any amount below
+     *         2^53 units survives the round trip through {@link #toCoins}.
+     * @throws ArithmeticException if {@code coins} is not a number or does not fit in a long
+     */
+    public static long toUnits(double coins) {
+        double units = Math.rint(coins * UNITS_PER_COIN);
+        if (Double.isNaN(units) || units >= 0x1p63 || units < -0x1p63)
+            throw new ArithmeticException("not a valid amount: " + coins);
+        return (long) units;
+    }
+
+    /**
+     * @return {@code coins} in whole units, rounded down unless it already is a whole number of
+     *         units. Validation values spent outputs with this and new outputs with
+     *         {@link #toUnitsUp}, so rounding never lets a transaction pay out more than it spends.
+     * @throws ArithmeticException as {@link #toUnits}
+     */
+    public static long toUnitsDown(double coins) {
+        long units = toUnits(coins);
+        return toCoins(units) > coins ? Math.subtractExact(units, 1) : units;
+    }
+
+    /**
+     * @return {@code coins} in whole units, rounded up unless it already is a whole number of units
+     * @throws ArithmeticException as {@link #toUnits}
+     */
+    public static long toUnitsUp(double coins) {
+        long units = toUnits(coins);
+        return toCoins(units) < coins ? Math.addExact(units, 1) : units;
+    }
+
+    /** @return {@code units} as a coin value for {@link Output#value} */
+    public static double toCoins(long units) {
+        return (double) units / UNITS_PER_COIN;
+    }
+
     public void removeInput(int index) {
         inputs.remove(index);
     }
@@ -86,35 +219,16 @@ public class Transaction {
 
     public byte[] getRawDataToSign(int index) {
         // ith input and all outputs
-        ArrayList<Byte> sigData = new ArrayList<Byte>();
         if (index > inputs.size())
             return null;
         Input in = inputs.get(index);
-        byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
-        if (prevTxHash != null)
-            for (int i = 0; i < prevTxHash.length; i++)
-                sigData.add(prevTxHash[i]);
-        for (int i = 0; i < outputIndex.length; i++)
-            sigData.add(outputIndex[i]);
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressBytes = op.address.getEncoded();
-            for (int i = 0; i < value.length; i++)
-                sigData.add(value[i]);
-
-            for (int i = 0; i < addressBytes.length; i++)
-                sigData.add(addressBytes[i]);
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData)
-            sigD[i++] = sb;
-        return sigD;
+        byte[] outputs = getRawOutputs();
+        ByteBuffer sigData = ByteBuffer.allocate(
+                lengthOf(in.prevTxHash) + Integer.BYTES + outputs.length);
+        putBytes(sigData, in.prevTxHash);
+        sigData.putInt(in.outputIndex);
+        sigData.put(outputs);
+        return sigData.array();
     }
 
     public void addSignature(byte[] signature, int index) {
@@ -122,50 +236,68 @@ public class Transaction {
     }
 
     public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<Byte>();
+        byte[] outputs = getRawOutputs();
+        int length = outputs.length;
+        for (Input in : inputs)
+            length += lengthOf(in.prevTxHash) + Integer.BYTES + lengthOf(in.signature);
+
+        ByteBuffer rawTx = ByteBuffer.allocate(length);
         for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null)
-                for (int i = 0; i < prevTxHash.length; i++)
-                    rawTx.add(prevTxHash[i]);
-            for (int i = 0; i < outputIndex.length; i++)
-                rawTx.add(outputIndex[i]);
-            if (signature != null)
-                for (int i = 0; i < signature.length; i++)
-                    rawTx.add(signature[i]);
-        }
-        for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressBytes = op.address.getEncoded();
-            for (int i = 0; i < value.length; i++) {
-                rawTx.add(value[i]);
-            }
-            for (int i = 0; i < addressBytes.length; i++) {
-                rawTx.add(addressBytes[i]);
-            }
+            putBytes(rawTx, in.prevTxHash);
+            rawTx.putInt(in.outputIndex);
+            putBytes(rawTx, in.signature);
+        }
+        rawTx.put(outputs);
+        return rawTx.array();
+    }
 
+    /**
+     * @return the serialized outputs, the part of {@link #getRawTx} that is also signed by every
+     *         input. It is built once and reused for as long as the outputs do not change. The
+     *         array is shared and must not be modified.
+     */
+    private byte[] getRawOutputs() {
+        RawOutputs raw = rawOutputs;
+        if (raw == null || !raw.isCurrent(outputs)) {
+            raw = new RawOutputs(outputs);
+            rawOutputs = raw;
         }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx)
-            tx[i++] = b;
-        return tx;
+        return raw.bytes;
+    }
+
+    private static int lengthOf(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer b, byte[] bytes) {
+        if (bytes != null)
+            b.put(bytes);
     }
 
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawTx());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
+        MessageDigest md = Crypto.sha256();
+        updateDigest(md);
+        hash = md.digest();
+    }
+
+    /**
+     * Feeds {@link #getRawTx} into {@code md} field by field, without building the whole
+     * serialized transaction first
+     */
+    void updateDigest(MessageDigest md) {
+        byte[] outputIndex = new byte[Integer.BYTES];
+        for (Input in : inputs) {
+            if (in.prevTxHash != null)
+                md.update(in.prevTxHash);
+            outputIndex[0] = (byte) (in.outputIndex >>> 24);
+            outputIndex[1] = (byte) (in.outputIndex >>> 16);
+            outputIndex[2] = (byte) (in.outputIndex >>> 8);
+            outputIndex[3] = (byte) in.outputIndex;
+            md.update(outputIndex);
+            if (in.signature != null)
+                md.update(in.signature);
         }
+        md.update(getRawOutputs());
     }
 
     public void setHash(byte[] h) {
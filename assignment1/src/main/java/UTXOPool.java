@@ -42,6 +42,18 @@ public class UTXOPool {
         return H.containsKey(utxo);
     }
 
+    /**
+     * @return the exact sum of all outputs in the pool, in {@link Transaction#UNITS_PER_COIN}
+     *         units
+     * @throws ArithmeticException if an output value is not a number or the sum overflows
+     */
+    public long getTotalUnits() {
+        long total = 0;
+        for (Transaction.Output out : H.values())
+            total = Math.addExact(total, out.getUnits());
+        return total;
+    }
+
     /** Returns an {@code ArrayList} of all UTXOs in the pool */
     public ArrayList<UTXO> getAllUTXO() {
         Set<UTXO> setUTXO = H.keySet();
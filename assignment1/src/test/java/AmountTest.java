@@ -0,0 +1,109 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for the fixed-point amounts used by {@link TxHandler#isValidTx(Transaction)}
+ * <p>
+ * Test Strategy:
+ * Test 1: coin values convert to whole units and back
+ * Test 2: outputs summing exactly to the inputs are valid despite double rounding
+ * Test 3: outputs that are not a number are invalid
+ * Test 4: amounts between two units never round in favour of the outputs
+ */
+public class AmountTest {
+
+	private static KeyPair scrooge;
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		scrooge = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+	}
+
+	private static void sign(Transaction tx, PrivateKey key, int input) throws Exception {
+		Signature sig = Signature.getInstance("SHA256withRSA");
+		sig.initSign(key);
+		sig.update(tx.getRawDataToSign(input));
+		tx.addSignature(sig.sign(), input);
+	}
+
+	/** @return a handler whose pool holds one output worth {@code value} and the tx spending it */
+	private static TxHandler handlerSpending(double value, Transaction spend) throws Exception {
+		Transaction root = new Transaction();
+		root.addOutput(value, scrooge.getPublic());
+		root.finalize();
+		UTXOPool pool = new UTXOPool();
+		pool.addUTXO(new UTXO(root.getHash(), 0), root.getOutput(0));
+
+		spend.addInput(root.getHash(), 0);
+		sign(spend, scrooge.getPrivate(), 0);
+		spend.finalize();
+		return new TxHandler(pool);
+	}
+
+	// Test 1: coin values convert to whole units and back
+	@Test
+	public void testUnitConversion() {
+		assertEquals(10000000L, Transaction.toUnits(0.1));
+		assertEquals(2500000000L, Transaction.toUnits(25));
+		assertEquals(-1L, Transaction.toUnits(-0.00000001));
+		assertEquals(0.3, Transaction.toCoins(Transaction.toUnits(0.3)), 0);
+		try {
+			Transaction.toUnits(Double.NaN);
+			throw new AssertionError("NaN converted");
+		} catch (ArithmeticException expected) {
+		}
+	}
+
+	// Test 2: outputs summing exactly to the inputs are valid despite double rounding
+	@Test
+	public void testExactSums() throws Exception {
+		// 0.1 + 0.2 > 0.3 in doubles
+		Transaction spend = new Transaction();
+		spend.addOutput(0.1, scrooge.getPublic());
+		spend.addOutput(0.2, scrooge.getPublic());
+		assertTrue(handlerSpending(0.3, spend).isValidTx(spend));
+
+		spend = new Transaction();
+		spend.addOutputUnits(30000001L, scrooge.getPublic());
+		assertFalse(handlerSpending(0.3, spend).isValidTx(spend));
+	}
+
+	// Test 3: outputs that are not a number are invalid
+	@Test
+	public void testNaNOutputIsInvalid() throws Exception {
+		Transaction spend = new Transaction();
+		spend.addOutput(Double.NaN, scrooge.getPublic());
+		assertFalse(handlerSpending(10, spend).isValidTx(spend));
+	}
+
+	// Test 4: amounts between two units never round in favour of the outputs
+	@Test
+	public void testFractionalUnitsRoundAgainstOutputs() throws Exception {
+		assertEquals(33333333L, Transaction.toUnitsDown(0.333333334));
+		assertEquals(33333334L, Transaction.toUnitsUp(0.333333334));
+		assertEquals(10000000L, Transaction.toUnitsUp(0.1));
+
+		// 1.000000002 in total
+		Transaction spend = new Transaction();
+		for (int i = 0; i < 3; i++)
+			spend.addOutput(0.333333334, scrooge.getPublic());
+		assertFalse(handlerSpending(1.0, spend).isValidTx(spend));
+
+		spend = new Transaction();
+		spend.addOutput(1.000000004, scrooge.getPublic());
+		assertFalse(handlerSpending(1.0, spend).isValidTx(spend));
+
+		spend = new Transaction();
+		spend.addOutput(0.999999996, scrooge.getPublic());
+		assertTrue(handlerSpending(1.0, spend).isValidTx(spend));
+	}
+}
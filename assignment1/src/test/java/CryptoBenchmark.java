@@ -0,0 +1,68 @@
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+
+/**
+ * Verifications per second of {@link Crypto#verifySignature} with its per-thread verifier cache,
+ * compared with looking up and initializing a new {@code Signature} for every call. Not a unit
+ * test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes CryptoBenchmark [keys] [seconds]
+ * </pre>
+ */
+public class CryptoBenchmark {
+
+	private interface Verifier {
+		boolean verify(PublicKey pubKey, byte[] message, byte[] signature) throws Exception;
+	}
+
+	private static boolean verifyUncached(PublicKey pubKey, byte[] message, byte[] signature) throws Exception {
+		Signature sig = Signature.getInstance("SHA256withRSA");
+		sig.initVerify(pubKey);
+		sig.update(message);
+		return sig.verify(signature);
+	}
+
+	private static double run(Verifier verifier, PublicKey[] keys, byte[][] messages, byte[][] signatures,
+			double seconds) throws Exception {
+		long deadline = System.nanoTime() + (long) (seconds * 1e9);
+		long start = System.nanoTime();
+		long n = 0;
+		while (System.nanoTime() < deadline) {
+			int i = (int) (n % keys.length);
+			if (!verifier.verify(keys[i], messages[i], signatures[i]))
+				throw new AssertionError("signature " + i + " did not verify");
+			n++;
+		}
+		return n / ((System.nanoTime() - start) / 1e9);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int keyNumber = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		double seconds = args.length > 1 ? Double.parseDouble(args[1]) : 3;
+
+		PublicKey[] keys = new PublicKey[keyNumber];
+		byte[][] messages = new byte[keyNumber][];
+		byte[][] signatures = new byte[keyNumber][];
+		for (int i = 0; i < keyNumber; i++) {
+			KeyPair kp = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+			keys[i] = kp.getPublic();
+			messages[i] = ("message " + i).getBytes("UTF-8");
+			Signature sig = Signature.getInstance("SHA256withRSA");
+			sig.initSign(kp.getPrivate());
+			sig.update(messages[i]);
+			signatures[i] = sig.sign();
+		}
+
+		// warm up both paths before measuring
+		run(CryptoBenchmark::verifyUncached, keys, messages, signatures, seconds);
+		run(Crypto::verifySignature, keys, messages, signatures, seconds);
+
+		System.out.printf("uncached Signature: %10.0f verifications/s%n",
+				run(CryptoBenchmark::verifyUncached, keys, messages, signatures, seconds));
+		System.out.printf("cached Signature:   %10.0f verifications/s%n",
+				run(Crypto::verifySignature, keys, messages, signatures, seconds));
+	}
+}
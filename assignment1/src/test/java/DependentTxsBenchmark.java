@@ -0,0 +1,73 @@
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Cost of {@link TxHandler#handleTxs(Transaction[])} on chains of dependent transactions proposed in
+ * random order, compared with the old workaround: a single pass in the proposed order, repeated
+ * until nothing more is accepted. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes DependentTxsBenchmark [chains] [chain length]
+ * </pre>
+ */
+public class DependentTxsBenchmark {
+
+	/** The handler's former single pass over {@code txs} in the order given */
+	private static List<Transaction> singlePass(TxHandler handler, List<Transaction> txs) {
+		List<Transaction> accepted = new ArrayList<Transaction>();
+		for (Transaction tx : txs) {
+			if (!handler.isValidTx(tx))
+				continue;
+			for (Transaction.Input in : tx.getInputs())
+				handler.pool.removeUTXO(new UTXO(in.prevTxHash, in.outputIndex));
+			for (int i = 0; i < tx.numOutputs(); i++)
+				handler.pool.addUTXO(new UTXO(tx.getHash(), i), tx.getOutput(i));
+			accepted.add(tx);
+		}
+		return accepted;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int chains = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int length = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+
+		KeyPair owner = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		UTXOPool pool = new UTXOPool();
+		List<Transaction> all = new ArrayList<Transaction>();
+		for (int c = 0; c < chains; c++)
+			all.addAll(HandleTxsTest.chain(owner, pool, length));
+		Collections.shuffle(all, new Random(42));
+		Transaction[] txs = all.toArray(new Transaction[all.size()]);
+
+		for (int warmup = 0; warmup < 2; warmup++) {
+			long start = System.nanoTime();
+			int accepted = new TxHandler(pool, 1).handleTxs(txs).length;
+			long dagNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			TxHandler handler = new TxHandler(pool, 1);
+			List<Transaction> remaining = new ArrayList<Transaction>(all);
+			int calls = 0;
+			int repeatedAccepted = 0;
+			for (int n = -1; n != 0; calls++) {
+				List<Transaction> done = singlePass(handler, remaining);
+				n = done.size();
+				repeatedAccepted += n;
+				remaining.removeAll(new HashSet<Transaction>(done));
+			}
+			long repeatedNanos = System.nanoTime() - start;
+
+			if (warmup == 1) {
+				System.out.printf("%d shuffled transactions in %d chains%n", txs.length, chains);
+				System.out.printf("dependency order %10.1f ms, %d accepted%n", dagNanos / 1e6, accepted);
+				System.out.printf("repeated passes  %10.1f ms, %d accepted in %d passes%n", repeatedNanos / 1e6,
+						repeatedAccepted, calls);
+			}
+		}
+	}
+}
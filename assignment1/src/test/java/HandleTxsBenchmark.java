@@ -0,0 +1,48 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Throughput of {@link TxHandler#handleTxs(Transaction[])} with sequential and parallel signature
+ * verification. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes HandleTxsBenchmark [txs] [rounds]
+ * </pre>
+ */
+public class HandleTxsBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int txNumber = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		final UtxoTestSet utxoTestSet = UtxoTestSet.builder()
+				.setPeopleSize(20)
+				.setUtxoTxNumber(2 * txNumber)
+				.setMaxUtxoTxOutput(10)
+				.setMaxValue(200)
+				.setTxPerTest(txNumber)
+				.setMaxInput(10)
+				.setMaxOutput(10)
+				.setCorruptedPercentage(0)
+				.build();
+		List<Transaction> list = utxoTestSet.getValidationLists().allElements();
+		Transaction[] txs = list.toArray(new Transaction[list.size()]);
+		int inputs = 0;
+		for (Transaction tx : txs)
+			inputs += tx.numInputs();
+
+		int cores = Runtime.getRuntime().availableProcessors();
+		for (int parallelism : new TreeSet<>(Arrays.asList(1, 2, 4, cores))) {
+			long best = Long.MAX_VALUE;
+			for (int r = 0; r < rounds; r++) {
+				TxHandler handler = new TxHandler(utxoTestSet.getUtxoPool(), parallelism);
+				long start = System.nanoTime();
+				handler.handleTxs(txs);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			System.out.printf("parallelism %2d: %8.1f ms, %10.0f signatures/s%n", parallelism,
+					best / 1e6, inputs / (best / 1e9));
+		}
+	}
+}
@@ -0,0 +1,187 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.security.InvalidKeyException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link TxHandler#handleTxs(Transaction[])}
+ * <p>
+ * Test Strategy:
+ * Test 1: parallel signature verification accepts exactly what the sequential handler accepts
+ * Test 2: parallel and sequential handlers leave the same UTXO pool behind
+ * Test 3: a chain of transactions proposed children first is accepted completely, parents first
+ * Test 4: of two transactions spending the same output, the one proposed first wins
+ * Test 5: a handler verifies signatures on the calling thread unless given a parallelism
+ * Test 6: a transaction waiting for a parent of the epoch loses a shared output to a later one that is ready
+ */
+public class HandleTxsTest {
+
+	private static UtxoTestSet corruptedTestSet()
+			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		return UtxoTestSet.builder()
+				.setPeopleSize(10)
+				.setUtxoTxNumber(30)
+				.setMaxUtxoTxOutput(10)
+				.setMaxValue(200)
+				.setTxPerTest(20)
+				.setMaxInput(10)
+				.setMaxOutput(10)
+				.setForceCorruptedSignature(true)
+				.setInvalidPrivateKeys(true)
+				.setClaimingOutputsNotInPool(true)
+				.setCorruptedPercentage(.20)
+				.build();
+	}
+
+	private static Transaction[] allTransactions(UtxoTestSet utxoTestSet) {
+		List<Transaction> txs = utxoTestSet.getValidationLists().allElements();
+		return txs.toArray(new Transaction[txs.size()]);
+	}
+
+	// Test 1: parallel signature verification accepts exactly what the sequential handler accepts
+	@Test
+	public void testParallelMatchesSequential()
+			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		final UtxoTestSet utxoTestSet = corruptedTestSet();
+		final Transaction[] txs = allTransactions(utxoTestSet);
+
+		final TxHandler sequential = new TxHandler(utxoTestSet.getUtxoPool(), 1);
+		final TxHandler parallel = new TxHandler(utxoTestSet.getUtxoPool(), 4);
+
+		assertEquals(new HashSet<>(Arrays.asList(sequential.handleTxs(txs))),
+				new HashSet<>(Arrays.asList(parallel.handleTxs(txs))));
+	}
+
+	// Test 2: parallel and sequential handlers leave the same UTXO pool behind
+	@Test
+	public void testParallelLeavesSamePool()
+			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		final UtxoTestSet utxoTestSet = corruptedTestSet();
+		final Transaction[] txs = allTransactions(utxoTestSet);
+
+		final TxHandler sequential = new TxHandler(utxoTestSet.getUtxoPool(), 1);
+		final TxHandler parallel = new TxHandler(utxoTestSet.getUtxoPool(), 4);
+		sequential.handleTxs(txs);
+		parallel.handleTxs(txs);
+
+		assertEquals(new HashSet<>(sequential.pool.getAllUTXO()),
+				new HashSet<>(parallel.pool.getAllUTXO()));
+	}
+
+	static Transaction signedTx(KeyPair owner, byte[] prevTxHash, int outputIndex, double value)
+			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		Transaction tx = new Transaction();
+		tx.addInput(prevTxHash, outputIndex);
+		tx.addOutput(value, owner.getPublic());
+		Signature sig = Signature.getInstance("SHA256withRSA");
+		sig.initSign(owner.getPrivate());
+		sig.update(tx.getRawDataToSign(0));
+		tx.addSignature(sig.sign(), 0);
+		tx.finalize();
+		return tx;
+	}
+
+	/**
+	 * @return {@code length} transactions, each spending the only output of the one before, the
+	 *         first one spending an output added to {@code pool}
+	 */
+	static List<Transaction> chain(KeyPair owner, UTXOPool pool, int length)
+			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		Transaction funding = new Transaction();
+		funding.addOutput(100, owner.getPublic());
+		// an input that is never checked, to give the funding of every chain its own hash
+		funding.addInput(new byte[] { (byte) pool.getAllUTXO().size() }, 0);
+		funding.finalize();
+		pool.addUTXO(new UTXO(funding.getHash(), 0), funding.getOutput(0));
+
+		List<Transaction> chain = new ArrayList<Transaction>();
+		byte[] prevTxHash = funding.getHash();
+		for (int i = 0; i < length; i++) {
+			Transaction tx = signedTx(owner, prevTxHash, 0, 100);
+			chain.add(tx);
+			prevTxHash = tx.getHash();
+		}
+		return chain;
+	}
+
+	// Test 3: a chain of transactions proposed children first is accepted completely, parents first
+	@Test
+	public void testChildrenBeforeParents() throws Exception {
+		final KeyPair owner = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		final UTXOPool pool = new UTXOPool();
+		final List<Transaction> chain = chain(owner, pool, 10);
+		final List<Transaction> reversed = new ArrayList<Transaction>(chain);
+		Collections.reverse(reversed);
+
+		for (int parallelism : new int[] { 1, 4 }) {
+			final TxHandler handler = new TxHandler(pool, parallelism);
+			assertArrayEquals(chain.toArray(), handler.handleTxs(reversed.toArray(new Transaction[0])));
+			assertEquals(1, handler.pool.getAllUTXO().size());
+		}
+	}
+
+	// Test 4: of two transactions spending the same output, the one proposed first wins
+	@Test
+	public void testFirstProposedDoubleSpendWins() throws Exception {
+		final KeyPair owner = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		final UTXOPool pool = new UTXOPool();
+		final Transaction parent = chain(owner, pool, 1).get(0);
+		final Transaction first = signedTx(owner, parent.getHash(), 0, 60);
+		final Transaction second = signedTx(owner, parent.getHash(), 0, 40);
+
+		final Transaction[] accepted = new TxHandler(pool).handleTxs(new Transaction[] { first, second, parent });
+		assertArrayEquals(new Transaction[] { parent, first }, accepted);
+
+		final Transaction[] swapped = new TxHandler(pool).handleTxs(new Transaction[] { second, parent, first });
+		assertArrayEquals(new Transaction[] { parent, second }, swapped);
+	}
+
+	// Test 5: a handler verifies signatures on the calling thread unless given a parallelism
+	@Test
+	public void testSequentialByDefault() {
+		assertEquals(1, new TxHandler(new UTXOPool()).getParallelism());
+		assertEquals(4, new TxHandler(new UTXOPool(), 4).getParallelism());
+	}
+
+	// Test 6: a transaction waiting for a parent of the epoch loses a shared output to a later one that is ready
+	@Test
+	public void testReadyDoubleSpendWins() throws Exception {
+		final KeyPair owner = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		final UTXOPool pool = new UTXOPool();
+		final Transaction coin = chain(owner, pool, 1).get(0);
+		pool.addUTXO(new UTXO(coin.getHash(), 0), coin.getOutput(0));
+		final Transaction parent = chain(owner, pool, 1).get(0);
+
+		// spends the coin and the parent's output, so it waits for the parent
+		final Transaction waiting = new Transaction();
+		waiting.addInput(coin.getHash(), 0);
+		waiting.addInput(parent.getHash(), 0);
+		waiting.addOutput(150, owner.getPublic());
+		for (int i = 0; i < 2; i++) {
+			Signature sig = Signature.getInstance("SHA256withRSA");
+			sig.initSign(owner.getPrivate());
+			sig.update(waiting.getRawDataToSign(i));
+			waiting.addSignature(sig.sign(), i);
+		}
+		waiting.finalize();
+		final Transaction ready = signedTx(owner, coin.getHash(), 0, 50);
+
+		for (int parallelism : new int[] { 1, 4 }) {
+			final Transaction[] accepted = new TxHandler(pool, parallelism)
+					.handleTxs(new Transaction[] { waiting, ready, parent });
+			assertArrayEquals(new Transaction[] { ready, parent }, accepted);
+		}
+	}
+}
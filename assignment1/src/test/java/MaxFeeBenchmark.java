@@ -0,0 +1,87 @@
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fee collected and time taken by {@link MaxFeeTxHandler#handleTxs(Transaction[])} with exact and
+ * greedy component solving, next to the plain {@link TxHandler}, on an epoch full of double spends:
+ * every transaction spends one to three outputs picked at random from a pool of
+ * {@code utxos per tx} times as many outputs. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes MaxFeeBenchmark [txs] [utxos per tx]
+ * </pre>
+ */
+public class MaxFeeBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int txNumber = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int utxosPerTx = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+		Random random = new Random(42);
+		KeyPair owner = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		Transaction funding = new Transaction();
+		for (int i = 0; i < txNumber * utxosPerTx; i++)
+			funding.addOutputUnits(1 + random.nextInt(100 * (int) Transaction.UNITS_PER_COIN), owner.getPublic());
+		funding.finalize();
+		UTXOPool pool = new UTXOPool();
+		for (int i = 0; i < funding.numOutputs(); i++)
+			pool.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+
+		Signature sig = Signature.getInstance("SHA256withRSA");
+		Transaction[] txs = new Transaction[txNumber];
+		for (int t = 0; t < txNumber; t++) {
+			List<Integer> indexes = new ArrayList<Integer>();
+			for (int i = 0; i < funding.numOutputs(); i++)
+				indexes.add(i);
+			Transaction tx = new Transaction();
+			long in = 0;
+			int inputs = 1 + random.nextInt(3);
+			for (int i = 0; i < inputs; i++) {
+				int index = indexes.remove(random.nextInt(indexes.size()));
+				tx.addInput(funding.getHash(), index);
+				in += funding.getOutput(index).getUnits();
+			}
+			tx.addOutputUnits(in - in * random.nextInt(20) / 100, owner.getPublic());
+			for (int i = 0; i < tx.numInputs(); i++) {
+				sig.initSign(owner.getPrivate());
+				sig.update(tx.getRawDataToSign(i));
+				tx.addSignature(sig.sign(), i);
+			}
+			tx.finalize();
+			txs[t] = tx;
+		}
+		List<Transaction> shuffled = new ArrayList<Transaction>(Arrays.asList(txs));
+		Collections.shuffle(shuffled, random);
+		txs = shuffled.toArray(txs);
+
+		for (int warmup = 0; warmup < 2; warmup++) {
+			long start = System.nanoTime();
+			TxHandler plain = new TxHandler(pool, 1);
+			int plainAccepted = plain.handleTxs(txs).length;
+			long plainNanos = System.nanoTime() - start;
+			long plainFee = pool.getTotalUnits() - plain.pool.getTotalUnits();
+
+			if (warmup == 1) {
+				System.out.printf("%d transactions on %d outputs%n", txs.length, funding.numOutputs());
+				System.out.printf("%-12s %5d accepted, fee %12.4f, %8.1f ms%n", "TxHandler", plainAccepted,
+						Transaction.toCoins(plainFee), plainNanos / 1e6);
+			}
+			for (int exactLimit : new int[] { 0, MaxFeeTxHandler.DEFAULT_EXACT_LIMIT }) {
+				MaxFeeTxHandler handler = new MaxFeeTxHandler(pool);
+				handler.setExactLimit(exactLimit);
+				int accepted = handler.handleTxs(txs).length;
+				if (warmup == 1)
+					System.out.printf("%-12s %5d accepted, fee %12.4f, %8.1f ms, %d exact and %d greedy components%n",
+							"exact <= " + exactLimit, accepted, handler.getCollectedFee(),
+							handler.getElapsedNanos() / 1e6, handler.getExactComponents(),
+							handler.getGreedyComponents());
+			}
+		}
+	}
+}
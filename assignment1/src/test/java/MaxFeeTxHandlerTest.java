@@ -0,0 +1,124 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link MaxFeeTxHandler#handleTxs(Transaction[])}
+ * <p>
+ * Test Strategy:
+ * Test 1: of two transactions spending the same output, the one with the higher fee is accepted
+ * Test 2: two transactions with smaller fees win over one conflicting with both
+ * Test 3: a parent with a small fee is accepted for the sake of its child's fee
+ * Test 4: exact and greedy selections are mutually valid and report their fee
+ */
+public class MaxFeeTxHandlerTest {
+
+	private static KeyPair owner;
+	private static Transaction funding;
+	private static UTXOPool pool;
+
+	@BeforeClass
+	public static void createPool() throws Exception {
+		owner = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		funding = new Transaction();
+		for (int i = 0; i < 4; i++)
+			funding.addOutput(10, owner.getPublic());
+		funding.finalize();
+		pool = new UTXOPool();
+		for (int i = 0; i < funding.numOutputs(); i++)
+			pool.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+	}
+
+	/** @return a transaction paying {@code value} and spending the given outputs of {@code prev} */
+	private static Transaction tx(Transaction prev, double value, int... outputIndexes) throws Exception {
+		Transaction tx = new Transaction();
+		for (int index : outputIndexes)
+			tx.addInput(prev.getHash(), index);
+		tx.addOutput(value, owner.getPublic());
+		for (int i = 0; i < tx.numInputs(); i++) {
+			Signature sig = Signature.getInstance("SHA256withRSA");
+			sig.initSign(owner.getPrivate());
+			sig.update(tx.getRawDataToSign(i));
+			tx.addSignature(sig.sign(), i);
+		}
+		tx.finalize();
+		return tx;
+	}
+
+	private static void assertAccepted(Transaction[] expected, Transaction[] possibleTxs) {
+		MaxFeeTxHandler handler = new MaxFeeTxHandler(pool);
+		assertEquals(new HashSet<>(Arrays.asList(expected)), new HashSet<>(Arrays.asList(handler.handleTxs(possibleTxs))));
+	}
+
+	// Test 1: of two transactions spending the same output, the one with the higher fee is accepted
+	@Test
+	public void testHigherFeeWins() throws Exception {
+		Transaction cheap = tx(funding, 9, 0);
+		Transaction dear = tx(funding, 7, 0);
+		assertAccepted(new Transaction[] { dear }, new Transaction[] { cheap, dear });
+		assertAccepted(new Transaction[] { dear }, new Transaction[] { dear, cheap });
+	}
+
+	// Test 2: two transactions with smaller fees win over one conflicting with both
+	@Test
+	public void testTwoSmallFeesBeatOneLarge() throws Exception {
+		Transaction both = tx(funding, 10, 0, 1); // fee 10
+		Transaction first = tx(funding, 4, 0); // fee 6
+		Transaction second = tx(funding, 4, 1); // fee 6
+		assertAccepted(new Transaction[] { first, second }, new Transaction[] { both, first, second });
+	}
+
+	// Test 3: a parent with a small fee is accepted for the sake of its child's fee
+	@Test
+	public void testChildPaysForParent() throws Exception {
+		Transaction parent = tx(funding, 9, 2); // fee 1
+		Transaction rival = tx(funding, 5, 2); // fee 5
+		Transaction child = tx(parent, 1, 0); // fee 8
+		assertAccepted(new Transaction[] { parent, child }, new Transaction[] { child, rival, parent });
+	}
+
+	// Test 4: exact and greedy selections are mutually valid and report their fee
+	@Test
+	public void testSelectionIsMutuallyValid() throws Exception {
+		final UtxoTestSet utxoTestSet = UtxoTestSet.builder()
+				.setPeopleSize(10)
+				.setUtxoTxNumber(30)
+				.setMaxUtxoTxOutput(10)
+				.setMaxValue(200)
+				.setTxPerTest(20)
+				.setMaxInput(10)
+				.setMaxOutput(10)
+				.setClaimingUtxoSeveralTimes(true)
+				.setCorruptedPercentage(.20)
+				.build();
+		final List<Transaction> list = utxoTestSet.getValidationLists().allElements();
+		final Transaction[] txs = list.toArray(new Transaction[list.size()]);
+
+		long[] fees = new long[2];
+		for (int exactLimit : new int[] { 0, MaxFeeTxHandler.DEFAULT_EXACT_LIMIT }) {
+			MaxFeeTxHandler handler = new MaxFeeTxHandler(utxoTestSet.getUtxoPool());
+			handler.setExactLimit(exactLimit);
+			Transaction[] accepted = handler.handleTxs(txs);
+
+			// the plain handler accepts all of them in the order given
+			TxHandler check = new TxHandler(utxoTestSet.getUtxoPool(), 1);
+			assertArrayEquals(accepted, check.handleTxs(accepted));
+			assertEquals(utxoTestSet.getUtxoPool().getTotalUnits() - check.pool.getTotalUnits(),
+					handler.getCollectedFeeUnits());
+			assertEquals(new HashSet<>(check.pool.getAllUTXO()), new HashSet<>(handler.pool.getAllUTXO()));
+			assertTrue(handler.getElapsedNanos() > 0);
+			fees[exactLimit == 0 ? 0 : 1] = handler.getCollectedFeeUnits();
+		}
+		assertTrue(fees[1] >= fees[0]);
+	}
+}
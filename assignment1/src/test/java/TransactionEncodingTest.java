@@ -0,0 +1,108 @@
+import static org.junit.Assert.assertArrayEquals;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link Transaction#getRawTx()} and {@link Transaction#getRawDataToSign(int)}
+ * <p>
+ * Test Strategy:
+ * Test 1: the pre-sized encoder produces the same bytes as the original ArrayList based one
+ * Test 2: the cached outputs section follows changes to the outputs
+ */
+public class TransactionEncodingTest {
+
+	/** the original ArrayList&lt;Byte&gt; encoding of getRawTx, kept as reference */
+	private static byte[] legacyRawTx(Transaction tx) {
+		ArrayList<Byte> rawTx = new ArrayList<Byte>();
+		for (Transaction.Input in : tx.getInputs()) {
+			if (in.prevTxHash != null)
+				for (byte b : in.prevTxHash)
+					rawTx.add(b);
+			for (byte b : ByteBuffer.allocate(Integer.SIZE / 8).putInt(in.outputIndex).array())
+				rawTx.add(b);
+			if (in.signature != null)
+				for (byte b : in.signature)
+					rawTx.add(b);
+		}
+		addOutputs(rawTx, tx);
+		return toArray(rawTx);
+	}
+
+	/** the original ArrayList&lt;Byte&gt; encoding of getRawDataToSign, kept as reference */
+	private static byte[] legacyRawDataToSign(Transaction tx, int index) {
+		ArrayList<Byte> sigData = new ArrayList<Byte>();
+		Transaction.Input in = tx.getInput(index);
+		if (in.prevTxHash != null)
+			for (byte b : in.prevTxHash)
+				sigData.add(b);
+		for (byte b : ByteBuffer.allocate(Integer.SIZE / 8).putInt(in.outputIndex).array())
+			sigData.add(b);
+		addOutputs(sigData, tx);
+		return toArray(sigData);
+	}
+
+	private static void addOutputs(ArrayList<Byte> data, Transaction tx) {
+		for (Transaction.Output op : tx.getOutputs()) {
+			for (byte b : ByteBuffer.allocate(Double.SIZE / 8).putDouble(op.value).array())
+				data.add(b);
+			for (byte b : op.address.getEncoded())
+				data.add(b);
+		}
+	}
+
+	private static byte[] toArray(ArrayList<Byte> data) {
+		byte[] bytes = new byte[data.size()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = data.get(i);
+		return bytes;
+	}
+
+	// Test 1: the pre-sized encoder produces the same bytes as the original ArrayList based one
+	@Test
+	public void testEncodingMatchesLegacy()
+			throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
+		final UtxoTestSet utxoTestSet = UtxoTestSet.builder()
+				.setPeopleSize(10)
+				.setUtxoTxNumber(20)
+				.setMaxUtxoTxOutput(10)
+				.setMaxValue(200)
+				.setTxPerTest(10)
+				.setMaxInput(10)
+				.setMaxOutput(10)
+				.setCorruptedPercentage(0)
+				.build();
+
+		for (Transaction tx : utxoTestSet.getValidationLists().allElements()) {
+			assertArrayEquals(legacyRawTx(tx), tx.getRawTx());
+			for (int i = 0; i < tx.numInputs(); i++)
+				assertArrayEquals(legacyRawDataToSign(tx, i), tx.getRawDataToSign(i));
+		}
+	}
+
+	// Test 2: the cached outputs section follows changes to the outputs
+	@Test
+	public void testEncodingFollowsOutputChanges() throws NoSuchAlgorithmException {
+		final PublicKey alice = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+		final PublicKey bob = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+		final Transaction tx = new Transaction();
+		tx.addInput(new byte[] { 1, 2, 3 }, 0);
+		tx.addOutput(5, alice);
+		tx.getRawDataToSign(0);
+
+		tx.getOutput(0).value = 6;
+		assertArrayEquals(legacyRawDataToSign(tx, 0), tx.getRawDataToSign(0));
+		tx.getOutput(0).address = bob;
+		assertArrayEquals(legacyRawDataToSign(tx, 0), tx.getRawDataToSign(0));
+		tx.addOutput(1, alice);
+		assertArrayEquals(legacyRawDataToSign(tx, 0), tx.getRawDataToSign(0));
+		assertArrayEquals(legacyRawTx(tx), tx.getRawTx());
+	}
+}
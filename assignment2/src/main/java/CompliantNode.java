@@ -1,33 +1,185 @@
 import java.util.*;
 
 /* CompliantNode refers to a node that follows the rules (not malicious)*/
-public class CompliantNode implements Node {
-    boolean[] followees;
-    Set<Transaction> pending;
-    Set<Transaction> valid;
-    
+public class CompliantNode implements OrdinalNode {
+
+    /*
+     * Every transaction the node starts with or hears of from a trusted followee is passed on
+     * once, in the round after it is first heard of, so followers only ever get what is new. After
+     * the last round, the node sends as its consensus all it has heard of from trusted followees,
+     * which leaves out transactions it started with that never came back to it, most likely as no
+     * other node heard of them.
+     *
+     * A compliant followee therefore never proposes a transaction twice and never proposes one that
+     * is not valid. The first time a followee does either, it is taken as malicious and ignored
+     * from then on: one offence is enough, so none are counted. What it proposed before is kept:
+     * it has been passed on already, and dropping it here alone would only set this node apart
+     * from the others. Silence is not held against a followee, as a compliant one with nothing new
+     * has nothing to send, and silence adds nothing to the consensus.
+     *
+     * Transactions are kept as bitsets of ordinals, positions in the valid ids the simulator offers
+     * through useOrdinals, which are also what tells a valid transaction from one that is not, in
+     * both modes. The bitset mode takes the fast path as well. Without such an offer, ids get
+     * ordinals in the order they are first heard of, and any id counts as valid.
+     */
+
+    final int numRounds;
+    final boolean bitsets;
+    int round;
+
+    int[] followees;
+    // by position in followees: what each proposed so far, and whether it is malicious
+    BitSet[] proposed;
+    boolean[] malicious;
+
+    // ids by ordinal and their number, and the ordinals by id unless the valid ids were offered
+    int[] txIds = new int[16];
+    int numTx;
+    Map<Integer, Integer> ordinals = new HashMap<Integer, Integer>();
+
+    // all heard of, what of it came from trusted followees, and what is to be sent next
+    BitSet known = new BitSet();
+    BitSet echoed = new BitSet();
+    BitSet fresh = new BitSet();
+    final BitSet scratch = new BitSet();
+
     public CompliantNode(double p_graph, double p_malicious, double p_txDistribution, int numRounds) {
-        this.valid = new HashSet<Transaction>();
+        this(p_graph, p_malicious, p_txDistribution, numRounds, false);
+    }
+
+    /** A node that takes the fast path of {@link OrdinalNode#useOrdinals} if {@code bitsets} is true */
+    public CompliantNode(double p_graph, double p_malicious, double p_txDistribution, int numRounds,
+            boolean bitsets) {
+        this.numRounds = numRounds;
+        this.bitsets = bitsets;
     }
 
     public void setFollowees(boolean[] followees) {
+        int count = 0;
+        for (boolean follows : followees)
+            if (follows) count++;
+        int[] list = new int[count];
+        for (int j = 0, k = 0; j < followees.length; j++)
+            if (followees[j]) list[k++] = j;
+        setFollowees(list, followees.length);
+    }
+
+    public void setFollowees(int[] followees, int numNodes) {
         this.followees = followees;
+        proposed = new BitSet[followees.length];
+        for (int f = 0; f < followees.length; f++)
+            proposed[f] = new BitSet();
+        malicious = new boolean[followees.length];
+    }
+
+    /** @return the ordinal of {@code id}, -1 if it is not valid */
+    private int ordinal(int id) {
+        if (ordinals == null)
+            return Math.max(Arrays.binarySearch(txIds, 0, numTx, id), -1);
+        Integer ordinal = ordinals.get(id);
+        if (ordinal != null)
+            return ordinal;
+        if (numTx == txIds.length)
+            txIds = Arrays.copyOf(txIds, 2 * numTx);
+        txIds[numTx] = id;
+        ordinals.put(id, numTx);
+        return numTx++;
+    }
+
+    private Set<Transaction> transactions(BitSet ordinals) {
+        Set<Transaction> transactions = new HashSet<Transaction>();
+        for (int o = ordinals.nextSetBit(0); o >= 0; o = ordinals.nextSetBit(o + 1))
+            transactions.add(new Transaction(txIds[o]));
+        return transactions;
     }
 
     public void setPendingTransaction(Set<Transaction> pendingTransactions) {
-        this.pending = pendingTransactions;
+        BitSet pending = new BitSet();
+        for (Transaction tx : pendingTransactions) {
+            int ordinal = ordinal(tx.id);
+            if (ordinal >= 0) pending.set(ordinal);
+        }
+        setPendingOrdinals(pending);
     }
 
     public Set<Transaction> sendToFollowers() {
-        return this.valid;
+        return transactions(sendOrdinals());
     }
 
     public void receiveFromFollowees(Set<Candidate> candidates) {
+        // one proposal per sender, taken in increasing order of sender as on the fast path
+        TreeMap<Integer, BitSet> proposals = new TreeMap<Integer, BitSet>();
+        Set<Integer> unknowns = new HashSet<Integer>();
         for (Candidate c: candidates) {
-            if (!this.pending.add(c.tx)) {
-                valid.add(c.tx);
-            }
+            int ordinal = ordinal(c.tx.id);
+            if (ordinal < 0)
+                unknowns.add(c.sender);
+            else
+                proposals.computeIfAbsent(c.sender, sender -> new BitSet()).set(ordinal);
         }
+        for (int sender : unknowns)
+            proposals.putIfAbsent(sender, new BitSet());
+        for (Map.Entry<Integer, BitSet> e : proposals.entrySet())
+            receive(e.getKey(), e.getValue(), unknowns.contains(e.getKey()));
+    }
+
+    /** Takes {@code txIds} as the valid ids in both modes, and the fast path in the bitset mode */
+    public boolean useOrdinals(int[] txIds) {
+        this.txIds = txIds;
+        this.numTx = txIds.length;
+        this.ordinals = null;
+        return bitsets;
+    }
+
+    public void setPendingOrdinals(BitSet pending) {
+        known.or(pending);
+        fresh.or(pending);
+    }
+
+    /** What is new since the last round, or after the last round the consensus */
+    public BitSet sendOrdinals() {
+        if (round++ >= numRounds)
+            return (BitSet) echoed.clone();
+        BitSet delta = fresh;
+        fresh = new BitSet();
+        return delta;
+    }
+
+    public void receiveOrdinals(int[] senders, BitSet[] proposals, int count) {
+        for (int k = 0; k < count; k++) {
+            BitSet proposal = proposals[k];
+            boolean unknownTxs = proposal.length() > numTx;
+            if (unknownTxs)
+                proposal = proposal.get(0, numTx);
+            receive(senders[k], proposal, unknownTxs);
+        }
+    }
+
+    /**
+     * Takes in what {@code sender} proposed this round, unless it is not trusted. {@code unknownTxs}
+     * tells whether it also proposed transactions that are not valid.
+     */
+    private void receive(int sender, BitSet proposal, boolean unknownTxs) {
+        int f = Arrays.binarySearch(followees, sender);
+        if (f < 0 || malicious[f])
+            return;
+        if (unknownTxs || proposal.intersects(proposed[f])) {
+            malicious[f] = true;
+            return;
+        }
+        proposed[f].or(proposal);
+        echoed.or(proposal);
+
+        scratch.clear();
+        scratch.or(proposal);
+        scratch.andNot(known);
+        fresh.or(scratch);
+        known.or(proposal);
+    }
 
+    /** @return true if the node has stopped listening to {@code followee} */
+    public boolean distrusts(int followee) {
+        int f = Arrays.binarySearch(followees, followee);
+        return f >= 0 && malicious[f];
     }
 }
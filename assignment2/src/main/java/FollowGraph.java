@@ -0,0 +1,117 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The follow graph of a simulation as two adjacency lists in compressed sparse row form: for
+ * every node the nodes it follows, and the nodes following it. Node {@code i}'s followers are
+ * {@code followers[followerOffsets[i]]} up to {@code followers[followerOffsets[i + 1]]}, in
+ * increasing order, and likewise for followees. Memory is linear in the number of edges instead of
+ * quadratic in the number of nodes.
+ */
+public final class FollowGraph {
+
+    private final int numNodes;
+
+    /** where the followees of each node start in {@link #followees}, plus the end */
+    final int[] followeeOffsets;
+    final int[] followees;
+
+    /** where the followers of each node start in {@link #followers}, plus the end */
+    final int[] followerOffsets;
+    final int[] followers;
+
+    private FollowGraph(int numNodes, int[] followeeOffsets, int[] followees) {
+        this.numNodes = numNodes;
+        this.followeeOffsets = followeeOffsets;
+        this.followees = followees;
+
+        // transpose: count the followers of every node, then place them in order of follower
+        followerOffsets = new int[numNodes + 1];
+        for (int j : followees)
+            followerOffsets[j + 1]++;
+        for (int i = 0; i < numNodes; i++)
+            followerOffsets[i + 1] += followerOffsets[i];
+        followers = new int[followees.length];
+        int[] next = Arrays.copyOf(followerOffsets, numNodes);
+        for (int i = 0; i < numNodes; i++) {
+            for (int k = followeeOffsets[i]; k < followeeOffsets[i + 1]; k++)
+                followers[next[followees[k]]++] = i;
+        }
+    }
+
+    /**
+     * A random graph where every node follows every other node with probability {@code p_graph},
+     * independently. Rather than drawing a number per pair, it draws the gap to the next edge from
+     * the geometric distribution, so the time taken is linear in the number of edges.
+     */
+    public static FollowGraph random(int numNodes, double p_graph, Random random) {
+        int[] offsets = new int[numNodes + 1];
+        int[] edges = new int[16];
+        int count = 0;
+        double logQ = Math.log(1 - p_graph);
+        for (int i = 0; i < numNodes; i++) {
+            offsets[i] = count;
+            if (p_graph > 0) {
+                // positions 0 to numNodes - 1 of row i, i included and then left out, which keeps
+                // every other pair at probability p_graph
+                for (long j = -1;;) {
+                    double gap = p_graph >= 1 ? 0 : Math.log(1 - random.nextDouble()) / logQ;
+                    j += 1 + (gap < numNodes ? (long) gap : numNodes);
+                    if (j >= numNodes)
+                        break;
+                    if (j == i)
+                        continue;
+                    if (count == edges.length)
+                        edges = Arrays.copyOf(edges, 2 * count);
+                    edges[count++] = (int) j;
+                }
+            }
+        }
+        offsets[numNodes] = count;
+        return new FollowGraph(numNodes, offsets, Arrays.copyOf(edges, count));
+    }
+
+    /** The graph of {@code followees[i][j]}, true iff {@code i} follows {@code j} */
+    public static FollowGraph of(boolean[][] followees) {
+        int numNodes = followees.length;
+        int[] offsets = new int[numNodes + 1];
+        for (int i = 0; i < numNodes; i++) {
+            offsets[i + 1] = offsets[i];
+            for (int j = 0; j < numNodes; j++) {
+                if (followees[i][j])
+                    offsets[i + 1]++;
+            }
+        }
+        int[] edges = new int[offsets[numNodes]];
+        for (int i = 0, count = 0; i < numNodes; i++) {
+            for (int j = 0; j < numNodes; j++) {
+                if (followees[i][j])
+                    edges[count++] = j;
+            }
+        }
+        return new FollowGraph(numNodes, offsets, edges);
+    }
+
+    public int numNodes() {
+        return numNodes;
+    }
+
+    public int numEdges() {
+        return followees.length;
+    }
+
+    /** @return the nodes {@code i} follows, in increasing order */
+    public int[] getFollowees(int i) {
+        return Arrays.copyOfRange(followees, followeeOffsets[i], followeeOffsets[i + 1]);
+    }
+
+    /** @return the nodes following {@code i}, in increasing order */
+    public int[] getFollowers(int i) {
+        return Arrays.copyOfRange(followers, followerOffsets[i], followerOffsets[i + 1]);
+    }
+
+    /** @return true iff {@code i} follows {@code j} */
+    public boolean follows(int i, int j) {
+        return Arrays.binarySearch(followees, followeeOffsets[i], followeeOffsets[i + 1], j) >= 0;
+    }
+}
@@ -0,0 +1,46 @@
+import java.util.BitSet;
+import java.util.Set;
+import java.util.HashSet;
+
+/* MalDoNothing is a malicious node that stays silent: it never proposes anything */
+public class MalDoNothing implements OrdinalNode {
+
+    public MalDoNothing(double p_graph, double p_malicious, double p_txDistribution, int numRounds) {
+    }
+
+    public void setFollowees(boolean[] followees) {
+        return;
+    }
+
+    public void setFollowees(int[] followees, int numNodes) {
+        return;
+    }
+
+    public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+        return;
+    }
+
+    public Set<Transaction> sendToFollowers() {
+        return new HashSet<Transaction>();
+    }
+
+    public void receiveFromFollowees(Set<Candidate> candidates) {
+        return;
+    }
+
+    public boolean useOrdinals(int[] txIds) {
+        return true;
+    }
+
+    public void setPendingOrdinals(BitSet pending) {
+        return;
+    }
+
+    public BitSet sendOrdinals() {
+        return new BitSet();
+    }
+
+    public void receiveOrdinals(int[] senders, BitSet[] proposals, int count) {
+        return;
+    }
+}
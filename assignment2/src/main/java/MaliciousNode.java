@@ -1,8 +1,9 @@
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Set;
 import java.util.HashSet;
 
-public class MaliciousNode implements Node {
+public class MaliciousNode implements OrdinalNode {
 
     public MaliciousNode(double p_graph, double p_malicious, double p_txDistribution, int numRounds) {
     }
@@ -11,6 +12,10 @@ public class MaliciousNode implements Node {
         return;
     }
 
+    public void setFollowees(int[] followees, int numNodes) {
+        return;
+    }
+
     public void setPendingTransaction(Set<Transaction> pendingTransactions) {
         return;
     }
@@ -22,4 +27,20 @@ public class MaliciousNode implements Node {
     public void receiveFromFollowees(Set<Candidate> candidates) {
         return;
     }
+
+    public boolean useOrdinals(int[] txIds) {
+        return true;
+    }
+
+    public void setPendingOrdinals(BitSet pending) {
+        return;
+    }
+
+    public BitSet sendOrdinals() {
+        return new BitSet();
+    }
+
+    public void receiveOrdinals(int[] senders, BitSet[] proposals, int count) {
+        return;
+    }
 }
@@ -9,6 +9,19 @@ public interface Node {
     /** {@code followees[i]} is true if and only if this node follows node {@code i} */
     void setFollowees(boolean[] followees);
 
+    /**
+     * {@code followees} lists, in increasing order, the nodes out of {@code numNodes} that this node
+     * follows. The simulator calls this one; by default it turns the list into flags for
+     * {@link #setFollowees(boolean[])}. Nodes that keep the list instead hold memory in proportion
+     * to their followees rather than to the size of the network.
+     */
+    default void setFollowees(int[] followees, int numNodes) {
+        boolean[] flags = new boolean[numNodes];
+        for (int j : followees)
+            flags[j] = true;
+        setFollowees(flags);
+    }
+
     /** initialize proposal list of transactions */
     void setPendingTransaction(Set<Transaction> pendingTransactions);
 
@@ -0,0 +1,35 @@
+import java.util.BitSet;
+
+/**
+ * A {@link Node} with a fast path: it can take its transactions as bitsets of ordinals, bit k
+ * standing for txIds[k], and skip the Transaction and Candidate objects. It still has to answer the
+ * methods of {@link Node}, which a simulator without the fast path calls. {@link Simulation} offers
+ * the fast path only to nodes implementing this interface, so a node cannot take it without
+ * implementing every method of it.
+ */
+public interface OrdinalNode extends Node {
+
+    /**
+     * Offers the fast path. {@code txIds} holds the ids of the valid transactions in increasing
+     * order, so that ordinals can be found by binary search.
+     *
+     * @return true to be given and asked for transactions through the methods below from now on
+     */
+    boolean useOrdinals(int[] txIds);
+
+    /** {@link #setPendingTransaction} on the fast path */
+    void setPendingOrdinals(BitSet pending);
+
+    /**
+     * {@link #sendToFollowers} on the fast path. The bitset is shared with the followers, which
+     * read it during the round, so it must not change until the next call.
+     */
+    BitSet sendOrdinals();
+
+    /**
+     * {@link #receiveFromFollowees} on the fast path: followee {@code senders[k]} proposed
+     * {@code proposals[k]}, for {@code k} below {@code count}, in increasing order of sender. Only
+     * followees that proposed something are there. The bitsets must not be changed.
+     */
+    void receiveOrdinals(int[] senders, BitSet[] proposals, int count);
+}
@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Runs the rounds of a simulation with the nodes spread over a fork-join pool, which is safe as
+ * long as nodes share no state with each other.
+ *
+ * A round has two phases with a barrier in between. First every node is asked for its proposals,
+ * which become one array of Candidates per sender. Once all have been gathered, every receiver
+ * builds its own set of Candidates from the arrays of the nodes it follows and is handed it. Each
+ * set is written by one thread only, so no locks are needed. Followees are taken in increasing
+ * order, and each sender's proposals in the order its set gives them. That is the order in which
+ * {@link Simulation#round} fills the sets, so each node gets a set equal to the sequential one,
+ * iterating in the same order, and the results are the same whatever the parallelism.
+ *
+ * Run on a {@link Simulation}, nodes that took the fast path of {@link OrdinalNode#useOrdinals} send and
+ * receive bitsets of ordinals instead, shared by all the followers of a node. Candidates are only
+ * made for the followers off the fast path.
+ */
+public class RoundEngine {
+
+    private static final Candidate[] NONE = new Candidate[0];
+
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+    private final int parallelism;
+    private final ForkJoinPool forkJoinPool;
+
+    /**
+     * Creates an engine running each phase with {@code parallelism} threads, 1 meaning on the
+     * calling thread. Fork-join pools are shared per parallelism level.
+     */
+    public RoundEngine(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.parallelism = parallelism;
+        if (parallelism == 1)
+            forkJoinPool = null;
+        else if (parallelism == ForkJoinPool.getCommonPoolParallelism())
+            forkJoinPool = ForkJoinPool.commonPool();
+        else
+            // created only by the thread that wins the mapping, so racing engines do not leak pools
+            forkJoinPool = POOLS.computeIfAbsent(parallelism, n -> new ForkJoinPool(n));
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /** Runs {@code numRounds} rounds */
+    public void run(Node[] nodes, FollowGraph graph, Set<Integer> validTxIds, int numRounds) {
+        int[] txIds = txIds(validTxIds);
+        for (int round = 0; round < numRounds; round++)
+            round(nodes, graph, txIds, null);
+    }
+
+    /** Runs {@code numRounds} rounds of {@code simulation}, on the fast path for nodes that took it */
+    public void run(Simulation simulation, int numRounds) {
+        for (int round = 0; round < numRounds; round++)
+            round(simulation);
+    }
+
+    /** Runs one round, with the same outcome as {@link Simulation#round} */
+    public BitSet[] round(Node[] nodes, FollowGraph graph, Set<Integer> validTxIds) {
+        return round(nodes, graph, txIds(validTxIds), null);
+    }
+
+    /**
+     * Runs one round of {@code simulation}. Nodes on the fast path exchange bitsets of ordinals,
+     * which are turned into Candidates for the others and back.
+     *
+     * @return the ordinals of the valid transactions each node sent its followers, none if nobody
+     *         follows it
+     */
+    public BitSet[] round(Simulation simulation) {
+        return round(simulation.nodes, simulation.graph, simulation.txIds, simulation.ordinals);
+    }
+
+    private BitSet[] round(Node[] nodes, FollowGraph graph, int[] txIds, boolean[] ordinals) {
+        Candidate[][] candidates = new Candidate[nodes.length][];
+        BitSet[] sent = new BitSet[nodes.length];
+        forEachNode(nodes.length, i -> send(nodes, graph, txIds, ordinals, i, candidates, sent));
+        // every node has sent by now
+        forEachNode(nodes.length, j -> receive(nodes, graph, ordinals, candidates, sent, j));
+        return sent;
+    }
+
+    private static int[] txIds(Set<Integer> validTxIds) {
+        int[] txIds = new int[validTxIds.size()];
+        int t = 0;
+        for (int id : validTxIds)
+            txIds[t++] = id;
+        Arrays.sort(txIds);
+        return txIds;
+    }
+
+    private void forEachNode(int numNodes, IntConsumer action) {
+        if (forkJoinPool == null) {
+            for (int i = 0; i < numNodes; i++)
+                action.accept(i);
+        } else {
+            forkJoinPool.submit(() -> IntStream.range(0, numNodes).parallel().forEach(action)).join();
+        }
+    }
+
+    /**
+     * Asks node {@code i} for its proposals of valid transactions, as ordinals, and as Candidates
+     * if it is off the fast path or followed by a node that is
+     */
+    private static void send(Node[] nodes, FollowGraph graph, int[] txIds, boolean[] ordinals, int i,
+            Candidate[][] candidates, BitSet[] sent) {
+        int from = graph.followerOffsets[i], to = graph.followerOffsets[i + 1];
+        if (ordinals != null && ordinals[i]) {
+            BitSet proposals = ((OrdinalNode) nodes[i]).sendOrdinals();
+            if (from == to) {
+                // nobody listens to i
+                candidates[i] = NONE;
+                sent[i] = new BitSet(0);
+                return;
+            }
+            if (proposals.length() > txIds.length) {
+                // ensure that each tx is actually valid
+                proposals = (BitSet) proposals.clone();
+                proposals.clear(txIds.length, proposals.length());
+            }
+            sent[i] = proposals;
+            candidates[i] = NONE;
+            for (int k = from; k < to; k++) {
+                if (!ordinals[graph.followers[k]]) {
+                    candidates[i] = new Candidate[proposals.cardinality()];
+                    int count = 0;
+                    for (int o = proposals.nextSetBit(0); o >= 0; o = proposals.nextSetBit(o + 1))
+                        candidates[i][count++] = new Candidate(new Transaction(txIds[o]), i);
+                    break;
+                }
+            }
+            return;
+        }
+
+        Set<Transaction> proposals = nodes[i].sendToFollowers();
+        sent[i] = new BitSet(0);
+        if (from == to) {
+            candidates[i] = NONE; // nobody listens to i
+            return;
+        }
+        Candidate[] valid = new Candidate[proposals.size()];
+        int count = 0;
+        for (Transaction tx : proposals) {
+            int ordinal = Arrays.binarySearch(txIds, tx.id);
+            if (ordinal >= 0) { // ensure that each tx is actually valid
+                valid[count++] = new Candidate(tx, i);
+                sent[i].set(ordinal);
+            }
+        }
+        candidates[i] = count == valid.length ? valid : Arrays.copyOf(valid, count);
+    }
+
+    /** Hands node {@code j} what the nodes it follows sent, unless they sent nothing */
+    private static void receive(Node[] nodes, FollowGraph graph, boolean[] ordinals, Candidate[][] candidates,
+            BitSet[] sent, int j) {
+        int from = graph.followeeOffsets[j], to = graph.followeeOffsets[j + 1];
+        if (ordinals != null && ordinals[j]) {
+            int[] senders = new int[to - from];
+            BitSet[] proposals = new BitSet[to - from];
+            int count = 0;
+            for (int k = from; k < to; k++) {
+                int i = graph.followees[k];
+                if (!sent[i].isEmpty()) {
+                    senders[count] = i;
+                    proposals[count++] = sent[i];
+                }
+            }
+            if (count > 0)
+                ((OrdinalNode) nodes[j]).receiveOrdinals(senders, proposals, count);
+            return;
+        }
+
+        Set<Candidate> received = null;
+        for (int k = from; k < to; k++) {
+            for (Candidate candidate : candidates[graph.followees[k]]) {
+                if (received == null)
+                    received = new HashSet<>();
+                received.add(candidate);
+            }
+        }
+        if (received != null)
+            nodes[j].receiveFromFollowees(received);
+    }
+}
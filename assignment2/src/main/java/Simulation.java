@@ -4,115 +4,147 @@
 // test your nodes. You will want to try creating some deviant nodes and
 // mixing them in the network to fully test.
 
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Random;
 import java.util.Set;
-import java.util.HashMap;
 
 public class Simulation {
 
-   public static void main(String[] args) {
-
-      // There are four required command line arguments: p_graph (.1, .2, .3),
-      // p_malicious (.15, .30, .45), p_txDistribution (.01, .05, .10), 
-      // and numRounds (10, 20). You should try to test your CompliantNode
-      // code for all 3x3x3x2 = 54 combinations.
+   /** Creates a node, given the parameters of the simulation, like the constructors of the nodes do */
+   public interface NodeFactory {
+      Node create(double p_graph, double p_malicious, double p_txDistribution, int numRounds);
+   }
 
-      int numNodes = 100;
-      double p_graph = Double.parseDouble(args[0]); // parameter for random graph: prob. that an edge will exist
-      double p_malicious = Double.parseDouble(args[1]); // prob. that a node will be set to be malicious
-      double p_txDistribution = Double.parseDouble(args[2]); // probability of assigning an initial transaction to each node 
-      int numRounds = Integer.parseInt(args[3]); // number of simulation rounds your nodes will run for
+   public static final int NUM_NODES = 100;
+   public static final int NUM_TX = 500;
+
+   final Node[] nodes;
+   final boolean[] malicious;
+   final FollowGraph graph;
+   final Set<Integer> validTxIds;
+   /** the valid ids in increasing order, the ordinal of a transaction being its position here */
+   final int[] txIds;
+   /** whether each node took the fast path of {@link OrdinalNode#useOrdinals} */
+   final boolean[] ordinals;
+
+   /**
+    * Sets up a simulation of {@code numNodes} nodes, drawing everything random from one generator
+    * seeded with {@code seed}, so that the same seed gives the same run.
+    */
+   public Simulation(int numNodes, double p_graph, double p_malicious, double p_txDistribution, int numRounds,
+         NodeFactory compliantNode, NodeFactory maliciousNode, long seed) {
+      Random random = new Random(seed);
 
       // pick which nodes are malicious and which are compliant
-      Node[] nodes = new Node[numNodes];
+      nodes = new Node[numNodes];
+      malicious = new boolean[numNodes];
       for (int i = 0; i < numNodes; i++) {
-         if(Math.random() < p_malicious)
-            // When you are ready to try testing with malicious nodes, replace the
-            // instantiation below with an instantiation of a MaliciousNode
-            nodes[i] = new MalDoNothing(p_graph, p_malicious, p_txDistribution, numRounds);
+         malicious[i] = random.nextDouble() < p_malicious;
+         if (malicious[i])
+            nodes[i] = maliciousNode.create(p_graph, p_malicious, p_txDistribution, numRounds);
          else
-            nodes[i] = new CompliantNode(p_graph, p_malicious, p_txDistribution, numRounds);
+            nodes[i] = compliantNode.create(p_graph, p_malicious, p_txDistribution, numRounds);
       }
 
 
-      // initialize random follow graph
-      boolean[][] followees = new boolean[numNodes][numNodes]; // followees[i][j] is true iff i follows j
-      for (int i = 0; i < numNodes; i++) {
-         for (int j = 0; j < numNodes; j++) {
-            if (i == j) continue;
-            if(Math.random() < p_graph) { // p_graph is .1, .2, or .3
-               followees[i][j] = true;
-            }
-         }
-      }
+      // initialize random follow graph, p_graph is .1, .2, or .3
+      graph = FollowGraph.random(numNodes, p_graph, random);
 
       // notify all nodes of their followees
       for (int i = 0; i < numNodes; i++)
-         nodes[i].setFollowees(followees[i]);
+         nodes[i].setFollowees(graph.getFollowees(i), numNodes);
 
       // initialize a set of 500 valid Transactions with random ids
-      int numTx = 500;
-      HashSet<Integer> validTxIds = new HashSet<Integer>();
-      Random random = new Random();
-      for (int i = 0; i < numTx; i++) {
+      validTxIds = new HashSet<Integer>();
+      for (int i = 0; i < NUM_TX; i++) {
          int r = random.nextInt();
          validTxIds.add(r);
       }
+      txIds = new int[validTxIds.size()];
+      int t = 0;
+      for (int id : validTxIds)
+         txIds[t++] = id;
+      Arrays.sort(txIds);
 
 
       // distribute the 500 Transactions throughout the nodes, to initialize
       // the starting state of Transactions each node has heard. The distribution
       // is random with probability p_txDistribution for each Transaction-Node pair.
+      // Nodes on the fast path get the same transactions, as a bitset.
+      ordinals = new boolean[numNodes];
       for (int i = 0; i < numNodes; i++) {
+         ordinals[i] = nodes[i] instanceof OrdinalNode && ((OrdinalNode) nodes[i]).useOrdinals(txIds);
          HashSet<Transaction> pendingTransactions = new HashSet<Transaction>();
+         BitSet pendingOrdinals = new BitSet(txIds.length);
          for(Integer txID : validTxIds) {
-            if (Math.random() < p_txDistribution) // p_txDistribution is .01, .05, or .10.
-               pendingTransactions.add(new Transaction(txID));
+            if (random.nextDouble() < p_txDistribution) { // p_txDistribution is .01, .05, or .10.
+               if (ordinals[i])
+                  pendingOrdinals.set(Arrays.binarySearch(txIds, txID));
+               else
+                  pendingTransactions.add(new Transaction(txID));
+            }
          }
-         nodes[i].setPendingTransaction(pendingTransactions);
+         if (ordinals[i])
+            ((OrdinalNode) nodes[i]).setPendingOrdinals(pendingOrdinals);
+         else
+            nodes[i].setPendingTransaction(pendingTransactions);
       }
+   }
 
+   public Node[] getNodes() {
+      return nodes;
+   }
 
-      // Simulate for numRounds times
-      for (int round = 0; round < numRounds; round++) { // numRounds is either 10 or 20
+   public boolean isMalicious(int i) {
+      return malicious[i];
+   }
 
-         // gather all the proposals into a map. The key is the index of the node receiving
-         // proposals. The value is an ArrayList containing 1x2 Integer arrays. The first
-         // element of each array is the id of the transaction being proposed and the second
-         // element is the index # of the node proposing the transaction.
-         HashMap<Integer, Set<Candidate>> allProposals = new HashMap<>();
+   public FollowGraph getGraph() {
+      return graph;
+   }
 
-         for (int i = 0; i < numNodes; i++) {
-            Set<Transaction> proposals = nodes[i].sendToFollowers();
-            for (Transaction tx : proposals) {
-               if (!validTxIds.contains(tx.id))
-                  continue; // ensure that each tx is actually valid
+   public Set<Integer> getValidTxIds() {
+      return validTxIds;
+   }
 
-               for (int j = 0; j < numNodes; j++) {
-                  if(!followees[j][i]) continue; // tx only matters if j follows i
+   /** @return the ids of the valid transactions in increasing order, indexed by ordinal */
+   public int[] getTxIds() {
+      return txIds;
+   }
 
-                  if (!allProposals.containsKey(j)) {
-                	  Set<Candidate> candidates = new HashSet<>();
-                	  allProposals.put(j, candidates);
-                  }
-                  
-                  Candidate candidate = new Candidate(tx, i);
-                  allProposals.get(j).add(candidate);
-               }
+   /** @return true if node {@code i} exchanges transactions as bitsets of ordinals */
+   public boolean usesOrdinals(int i) {
+      return ordinals[i];
+   }
 
-            }
-         }
+   public static void main(String[] args) {
 
-         // Distribute the Proposals to their intended recipients as Candidates
-         for (int i = 0; i < numNodes; i++) {
-            if (allProposals.containsKey(i))
-               nodes[i].receiveFromFollowees(allProposals.get(i));
-         }
-      }
+      // There are four required command line arguments: p_graph (.1, .2, .3),
+      // p_malicious (.15, .30, .45), p_txDistribution (.01, .05, .10), 
+      // and numRounds (10, 20). You should try to test your CompliantNode
+      // code for all 3x3x3x2 = 54 combinations, which SimulationSweep does in one go.
+      // An optional fifth argument seeds the run, to repeat one of the sweep's.
+
+      double p_graph = Double.parseDouble(args[0]); // parameter for random graph: prob. that an edge will exist
+      double p_malicious = Double.parseDouble(args[1]); // prob. that a node will be set to be malicious
+      double p_txDistribution = Double.parseDouble(args[2]); // probability of assigning an initial transaction to each node 
+      int numRounds = Integer.parseInt(args[3]); // number of simulation rounds your nodes will run for
+      long seed = args.length > 4 ? Long.parseLong(args[4]) : new Random().nextLong();
+
+      // When you are ready to try testing with malicious nodes, replace
+      // MalDoNothing below with MaliciousNode
+      Simulation simulation = new Simulation(NUM_NODES, p_graph, p_malicious, p_txDistribution, numRounds,
+            CompliantNode::new, MalDoNothing::new, seed);
+      Node[] nodes = simulation.nodes;
+
+      // Simulate for numRounds times, numRounds is either 10 or 20. The nodes of a round run on
+      // all processors, with the same results as round() one node at a time
+      new RoundEngine(Runtime.getRuntime().availableProcessors()).run(simulation, numRounds);
 
       // print results
-      for (int i = 0; i < numNodes; i++) {
+      for (int i = 0; i < nodes.length; i++) {
          Set<Transaction> transactions = nodes[i].sendToFollowers();
          System.out.println("Transaction ids that Node " + i + " believes consensus on:");
          for (Transaction tx : transactions)
@@ -123,6 +155,43 @@ public class Simulation {
 
    }
 
+   /**
+    * Runs one round: gathers every node's proposals of valid transactions into one set of
+    * Candidates per receiver, walking only the followers of each sender, then hands each receiver
+    * its set. A node that nobody it follows proposed anything to is not called. This is the
+    * sequential round, {@link RoundEngine} runs the nodes in parallel to the same effect.
+    */
+   public static void round(Node[] nodes, FollowGraph graph, Set<Integer> validTxIds) {
+      int numNodes = nodes.length;
+      @SuppressWarnings({ "unchecked", "rawtypes" })
+      Set<Candidate>[] allProposals = new Set[numNodes];
 
+      for (int i = 0; i < numNodes; i++) {
+         Set<Transaction> proposals = nodes[i].sendToFollowers();
+         int from = graph.followerOffsets[i], to = graph.followerOffsets[i + 1];
+         if (from == to)
+            continue; // nobody listens to i
+
+         for (Transaction tx : proposals) {
+            if (!validTxIds.contains(tx.id))
+               continue; // ensure that each tx is actually valid
+
+            // one Candidate per proposal, shared by every follower
+            Candidate candidate = new Candidate(tx, i);
+            for (int k = from; k < to; k++) {
+               int j = graph.followers[k];
+               if (allProposals[j] == null)
+                  allProposals[j] = new HashSet<>();
+               allProposals[j].add(candidate);
+            }
+         }
+      }
+
+      // Distribute the Proposals to their intended recipients as Candidates
+      for (int i = 0; i < numNodes; i++) {
+         if (allProposals[i] != null)
+            nodes[i].receiveFromFollowees(allProposals[i]);
+      }
+   }
 }
 
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs a {@link Simulation} for every combination of a grid of parameters, by default the
+ * 3x3x3x2 = 54 the assignment asks for, and summarizes every run instead of printing what each node
+ * believes. Runs go in parallel, one per processor, and each has a seed of its own: the base seed
+ * plus its position in the sweep. {@code java Simulation p_graph p_malicious p_txDistribution
+ * numRounds seed} repeats any one of them.
+ *
+ * <pre>
+ * java -cp target/classes SimulationSweep [name=value ...]
+ * </pre>
+ *
+ * where the names are
+ * <ul>
+ * <li>{@code p_graph}, {@code p_malicious}, {@code p_txDistribution}, {@code numRounds}: the values
+ * to try, separated by commas</li>
+ * <li>{@code compliant}: the node to test, {@code CompliantNode} by default, or
+ * {@code CompliantNode:bitsets} for its bitset mode</li>
+ * <li>{@code malicious}: {@code MalDoNothing} (the default) or {@code MaliciousNode}</li>
+ * <li>{@code nodes}: nodes per run, {@value Simulation#NUM_NODES} by default</li>
+ * <li>{@code repeats}: runs per combination, each with its own seed, 1 by default</li>
+ * <li>{@code seed}: the base seed, 1 by default</li>
+ * <li>{@code csv}, {@code json}: files to write the summaries to; without either, the CSV goes to
+ * standard output</li>
+ * </ul>
+ *
+ * For each run the summary gives
+ * <ul>
+ * <li>{@code agreement}: the share of compliant nodes ending with the set most of them end
+ * with, and {@code consensusSize} its size</li>
+ * <li>{@code convergedRound}: the number of rounds until no compliant node sent anything it had not
+ * sent the round before, 0 if none ever sent anything</li>
+ * <li>{@code messages}: the Candidates compliant nodes sent their followers over all rounds</li>
+ * <li>{@code millis}: the wall time of the run, set-up included</li>
+ * </ul>
+ */
+public class SimulationSweep {
+
+    /** One run of the sweep: its parameters, and once done, what came out of it */
+    public static final class Run {
+        final double p_graph;
+        final double p_malicious;
+        final double p_txDistribution;
+        final int numRounds;
+        final long seed;
+
+        int compliant;
+        double agreement;
+        int consensusSize;
+        int convergedRound;
+        long messages;
+        double millis;
+
+        Run(double p_graph, double p_malicious, double p_txDistribution, int numRounds, long seed) {
+            this.p_graph = p_graph;
+            this.p_malicious = p_malicious;
+            this.p_txDistribution = p_txDistribution;
+            this.numRounds = numRounds;
+            this.seed = seed;
+        }
+
+        static final String CSV_HEADER = "p_graph,p_malicious,p_txDistribution,numRounds,seed,compliant,agreement,"
+                + "consensusSize,convergedRound,messages,messagesPerRound,millis";
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%s,%s,%d,%d,%d,%.4f,%d,%d,%d,%.1f,%.1f", p_graph, p_malicious,
+                    p_txDistribution, numRounds, seed, compliant, agreement, consensusSize, convergedRound, messages,
+                    (double) messages / numRounds, millis);
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"p_graph\":%s,\"p_malicious\":%s,\"p_txDistribution\":%s,\"numRounds\":%d,\"seed\":%d,"
+                            + "\"compliant\":%d,\"agreement\":%.4f,\"consensusSize\":%d,\"convergedRound\":%d,"
+                            + "\"messages\":%d,\"messagesPerRound\":%.1f,\"millis\":%.1f}",
+                    p_graph, p_malicious, p_txDistribution, numRounds, seed, compliant, agreement, consensusSize,
+                    convergedRound, messages, (double) messages / numRounds, millis);
+        }
+    }
+
+    private double[] graphs = { .1, .2, .3 };
+    private double[] maliciousShares = { .15, .30, .45 };
+    private double[] distributions = { .01, .05, .10 };
+    private int[] roundCounts = { 10, 20 };
+    private String compliant = "CompliantNode";
+    Simulation.NodeFactory compliantNode = CompliantNode::new;
+    private String malicious = "MalDoNothing";
+    Simulation.NodeFactory maliciousNode = MalDoNothing::new;
+    private int numNodes = Simulation.NUM_NODES;
+    private int repeats = 1;
+    private long seed = 1;
+    private String csv;
+    private String json;
+
+    /** @return the runs of the sweep, not run yet, in the order they are reported */
+    public List<Run> plan() {
+        List<Run> runs = new ArrayList<Run>();
+        for (double p_graph : graphs)
+            for (double p_malicious : maliciousShares)
+                for (double p_txDistribution : distributions)
+                    for (int numRounds : roundCounts)
+                        for (int r = 0; r < repeats; r++)
+                            runs.add(new Run(p_graph, p_malicious, p_txDistribution, numRounds, seed + runs.size()));
+        return runs;
+    }
+
+    static Simulation.NodeFactory nodeFactory(String name) {
+        switch (name) {
+        case "MalDoNothing":
+            return MalDoNothing::new;
+        case "MaliciousNode":
+            return MaliciousNode::new;
+        case "CompliantNode":
+            return CompliantNode::new;
+        case "CompliantNode:bitsets":
+            return (p_graph, p_malicious, p_txDistribution, numRounds) -> new CompliantNode(p_graph, p_malicious,
+                    p_txDistribution, numRounds, true);
+        default:
+            throw new IllegalArgumentException("unknown node: " + name);
+        }
+    }
+
+    /** Runs {@code run} on the calling thread and fills in its results */
+    public void execute(Run run) {
+        long start = System.nanoTime();
+        Simulation simulation = new Simulation(numNodes, run.p_graph, run.p_malicious, run.p_txDistribution,
+                run.numRounds, compliantNode, maliciousNode, run.seed);
+        Node[] nodes = simulation.getNodes();
+        FollowGraph graph = simulation.getGraph();
+        RoundEngine engine = new RoundEngine(1);
+
+        // what each node sent in the previous round
+        BitSet[] previous = new BitSet[numNodes];
+        for (int round = 0; round < run.numRounds; round++) {
+            BitSet[] sent = engine.round(simulation);
+            for (int i = 0; i < numNodes; i++) {
+                if (simulation.isMalicious(i))
+                    continue;
+                if (round == 0 ? !sent[i].isEmpty() : !sent[i].equals(previous[i]))
+                    run.convergedRound = round + 1;
+                // the node's own bitset, which may change in the next round
+                previous[i] = (BitSet) sent[i].clone();
+                run.messages += (long) sent[i].cardinality()
+                        * (graph.followerOffsets[i + 1] - graph.followerOffsets[i]);
+            }
+        }
+
+        // after the final round, nodes send what they believe consensus is on
+        Map<Set<Transaction>, Integer> beliefs = new HashMap<Set<Transaction>, Integer>();
+        int most = 0;
+        for (int i = 0; i < numNodes; i++) {
+            if (simulation.isMalicious(i))
+                continue;
+            run.compliant++;
+            Set<Transaction> belief = new HashSet<Transaction>(nodes[i].sendToFollowers());
+            int count = beliefs.merge(belief, 1, Integer::sum);
+            if (count > most) {
+                most = count;
+                run.consensusSize = belief.size();
+            }
+        }
+        run.agreement = run.compliant == 0 ? 1 : (double) most / run.compliant;
+        run.millis = (System.nanoTime() - start) / 1e6;
+    }
+
+    /** Runs all of {@code runs}, in parallel */
+    public void executeAll(List<Run> runs) {
+        runs.parallelStream().forEach(this::execute);
+    }
+
+    private static double[] doubles(String values) {
+        String[] parts = values.split(",");
+        double[] result = new double[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            result[i] = Double.parseDouble(parts[i]);
+        return result;
+    }
+
+    private static int[] ints(String values) {
+        String[] parts = values.split(",");
+        int[] result = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            result[i] = Integer.parseInt(parts[i]);
+        return result;
+    }
+
+    void set(String name, String value) {
+        switch (name) {
+        case "p_graph":
+            graphs = doubles(value);
+            break;
+        case "p_malicious":
+            maliciousShares = doubles(value);
+            break;
+        case "p_txDistribution":
+            distributions = doubles(value);
+            break;
+        case "numRounds":
+            roundCounts = ints(value);
+            break;
+        case "compliant":
+            compliantNode = nodeFactory(value);
+            compliant = value;
+            break;
+        case "malicious":
+            maliciousNode = nodeFactory(value);
+            malicious = value;
+            break;
+        case "nodes":
+            numNodes = Integer.parseInt(value);
+            break;
+        case "repeats":
+            repeats = Integer.parseInt(value);
+            break;
+        case "seed":
+            seed = Long.parseLong(value);
+            break;
+        case "csv":
+            csv = value;
+            break;
+        case "json":
+            json = value;
+            break;
+        default:
+            throw new IllegalArgumentException("unknown parameter: " + name);
+        }
+    }
+
+    private void write(List<Run> runs, double millis) throws IOException {
+        if (csv == null && json == null) {
+            printCsv(new PrintWriter(System.out, true), runs);
+        }
+        if (csv != null) {
+            try (PrintWriter out = new PrintWriter(csv, "UTF-8")) {
+                printCsv(out, runs);
+            }
+        }
+        if (json != null) {
+            try (PrintWriter out = new PrintWriter(json, "UTF-8")) {
+                out.printf(Locale.ROOT, "{\"nodes\":%d,\"compliant\":\"%s\",\"malicious\":\"%s\",\"millis\":%.1f,"
+                        + "\"runs\":[%n", numNodes, compliant, malicious, millis);
+                for (int i = 0; i < runs.size(); i++)
+                    out.println("  " + runs.get(i).toJson() + (i + 1 < runs.size() ? "," : ""));
+                out.println("]}");
+            }
+        }
+    }
+
+    private static void printCsv(PrintWriter out, List<Run> runs) {
+        out.println(Run.CSV_HEADER);
+        for (Run run : runs)
+            out.println(run.toCsv());
+        out.flush();
+    }
+
+    public static void main(String[] args) throws IOException {
+        SimulationSweep sweep = new SimulationSweep();
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0)
+                throw new IllegalArgumentException("expected name=value: " + arg);
+            sweep.set(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+
+        List<Run> runs = sweep.plan();
+        long start = System.nanoTime();
+        sweep.executeAll(runs);
+        double millis = (System.nanoTime() - start) / 1e6;
+        sweep.write(runs, millis);
+
+        double agreement = 0;
+        for (Run run : runs)
+            agreement += run.agreement;
+        System.err.printf(Locale.ROOT, "%d runs in %.0f ms, mean agreement %.4f%n", runs.size(), millis,
+                agreement / runs.size());
+    }
+}
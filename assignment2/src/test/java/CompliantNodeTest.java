@@ -0,0 +1,172 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link CompliantNode}
+ * <p>
+ * Test Strategy:
+ * Test 1: each transaction is sent once, when new, and after the last round the consensus is sent
+ * Test 2: the bitset mode sends what the set mode does
+ * Test 3: in both modes, followees that propose a transaction again or propose unknown ones are no longer listened to
+ * Test 4: the bitset sent in a round is left as it is while the node receives
+ * Test 5: against silent adversaries making up 45% of the nodes, the compliant ones agree
+ * Test 6: a followee with nothing new to send stays trusted, and what it proposes later counts
+ */
+public class CompliantNodeTest {
+
+	private static final int[] TX_IDS = { -7, 1, 2, 3, 40 };
+
+	private static Set<Transaction> transactions(int... ids) {
+		Set<Transaction> transactions = new HashSet<Transaction>();
+		for (int id : ids)
+			transactions.add(new Transaction(id));
+		return transactions;
+	}
+
+	private static BitSet ordinals(int... ids) {
+		BitSet ordinals = new BitSet();
+		for (int id : ids)
+			ordinals.set(Arrays.binarySearch(TX_IDS, id));
+		return ordinals;
+	}
+
+	private static Set<Candidate> candidates(int sender, int... ids) {
+		Set<Candidate> candidates = new HashSet<Candidate>();
+		for (Transaction tx : transactions(ids))
+			candidates.add(new Candidate(tx, sender));
+		return candidates;
+	}
+
+	private static CompliantNode node(boolean bitsets, int numRounds, int[] followees, int... pending) {
+		CompliantNode node = new CompliantNode(.1, .15, .01, numRounds, bitsets);
+		node.setFollowees(followees, 10);
+		assertEquals(bitsets, node.useOrdinals(TX_IDS));
+		node.setPendingTransaction(transactions(pending));
+		return node;
+	}
+
+	// Test 1: each transaction is sent once, when new, and after the last round the consensus is sent
+	@Test
+	public void testDeltas() {
+		CompliantNode node = node(false, 4, new int[] { 4, 9 }, 1);
+		assertEquals(transactions(1), node.sendToFollowers());
+		Set<Candidate> received = candidates(4, 2, 40);
+		received.addAll(candidates(9, 2, 3));
+		node.receiveFromFollowees(received);
+
+		assertEquals(transactions(2, 3, 40), node.sendToFollowers());
+		node.receiveFromFollowees(candidates(9, 1));
+		assertEquals(transactions(), node.sendToFollowers());
+		assertEquals(transactions(), node.sendToFollowers());
+
+		assertEquals(transactions(1, 2, 3, 40), node.sendToFollowers());
+	}
+
+	// Test 2: the bitset mode sends what the set mode does
+	@Test
+	public void testBitsetMode() {
+		int[] followees = { 4, 9 };
+		CompliantNode sets = node(false, 3, followees, 1);
+		CompliantNode bitsets = node(true, 3, followees, 1);
+		assertEquals(sets.sendToFollowers(), bitsets.sendToFollowers());
+
+		Set<Candidate> received = candidates(4, 1, 2, 40);
+		received.addAll(candidates(9, 2, 3));
+		sets.receiveFromFollowees(received);
+		bitsets.receiveOrdinals(followees, new BitSet[] { ordinals(1, 2, 40), ordinals(2, 3) }, 2);
+		assertEquals(transactions(2, 3, 40), sets.sendToFollowers());
+		assertEquals(ordinals(2, 3, 40), bitsets.sendOrdinals());
+
+		// off the fast path too
+		sets.receiveFromFollowees(candidates(9, -7));
+		bitsets.receiveFromFollowees(candidates(9, -7));
+		assertEquals(sets.sendToFollowers(), bitsets.sendToFollowers());
+		assertEquals(transactions(-7, 1, 2, 3, 40), sets.sendToFollowers());
+		assertEquals(sets.sendToFollowers(), bitsets.sendToFollowers());
+	}
+
+	// Test 3: in both modes, followees that propose a transaction again or propose unknown ones are no longer listened to
+	@Test
+	public void testDistrust() {
+		for (boolean bitsets : new boolean[] { false, true }) {
+			CompliantNode node = node(bitsets, 10, new int[] { 4, 6, 9 });
+			node.sendToFollowers();
+			node.receiveFromFollowees(candidates(4, 1));
+			node.receiveFromFollowees(candidates(6, 99));
+			node.receiveFromFollowees(candidates(9, 2));
+			assertTrue(node.distrusts(6));
+			assertEquals(transactions(1, 2), node.sendToFollowers());
+
+			// 4 flip-flops
+			node.receiveFromFollowees(candidates(4, 1, 3));
+			node.receiveFromFollowees(candidates(6, 40));
+			assertTrue(node.distrusts(4));
+			assertEquals(transactions(), node.sendToFollowers());
+			assertFalse(node.distrusts(9));
+		}
+	}
+
+	// Test 4: the bitset sent in a round is left as it is while the node receives
+	@Test
+	public void testSentUnchanged() {
+		CompliantNode node = node(true, 10, new int[] { 0 }, 1);
+		BitSet sent = node.sendOrdinals();
+		assertEquals(ordinals(1), sent);
+		node.receiveOrdinals(new int[] { 0 }, new BitSet[] { ordinals(2) }, 1);
+		assertEquals(ordinals(1), sent);
+		assertEquals(ordinals(2), node.sendOrdinals());
+	}
+
+	// Test 5: against silent adversaries making up 45% of the nodes, the compliant ones agree
+	@Test
+	public void testAgreement() {
+		for (String malicious : new String[] { "MalDoNothing", "MaliciousNode" }) {
+			for (String compliant : new String[] { "CompliantNode", "CompliantNode:bitsets" }) {
+				SimulationSweep sweep = new SimulationSweep();
+				sweep.set("compliant", compliant);
+				sweep.set("malicious", malicious);
+				sweep.set("p_graph", ".3");
+				sweep.set("p_malicious", ".45");
+				sweep.set("p_txDistribution", ".05");
+				sweep.set("numRounds", "10");
+				SimulationSweep.Run run = sweep.plan().get(0);
+				sweep.execute(run);
+				assertEquals(1.0, run.agreement, 0);
+				assertTrue(run.toCsv(), run.consensusSize > 400);
+				assertTrue(run.toCsv(), run.convergedRound < 10);
+			}
+		}
+	}
+
+	// Test 6: a followee with nothing new to send stays trusted, and what it proposes later counts
+	@Test
+	public void testEmptyDeltasKeepTrust() {
+		int[] followees = { 5 };
+		CompliantNode sets = node(false, 4, followees);
+		CompliantNode bitsets = node(true, 4, followees);
+		for (int round = 0; round < 3; round++) {
+			assertEquals(transactions(), sets.sendToFollowers());
+			assertEquals(ordinals(), bitsets.sendOrdinals());
+			sets.receiveFromFollowees(candidates(5));
+			bitsets.receiveOrdinals(followees, new BitSet[] { ordinals() }, 1);
+		}
+		assertFalse(sets.distrusts(5));
+		assertFalse(bitsets.distrusts(5));
+
+		sets.receiveFromFollowees(candidates(5, 3));
+		bitsets.receiveOrdinals(followees, new BitSet[] { ordinals(3) }, 1);
+		assertEquals(transactions(3), sets.sendToFollowers());
+		assertEquals(ordinals(3), bitsets.sendOrdinals());
+		// the consensus
+		assertEquals(transactions(3), sets.sendToFollowers());
+		assertEquals(ordinals(3), bitsets.sendOrdinals());
+	}
+}
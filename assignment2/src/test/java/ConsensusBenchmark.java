@@ -0,0 +1,77 @@
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Agreement among compliant nodes and the Candidates they send per round over the 54
+ * combinations of the assignment, a few seeds each, with {@link MalDoNothing} and with
+ * {@link MaliciousNode} as the malicious nodes. {@link CompliantNode} is compared to nodes taking
+ * whatever they hear and sending all of it again every round. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes ConsensusBenchmark [repeats]
+ * </pre>
+ */
+public class ConsensusBenchmark {
+
+	/** Sends all it has heard, every round */
+	private static class FloodNode implements Node {
+		final Set<Transaction> heard = new HashSet<Transaction>();
+
+		FloodNode(double p_graph, double p_malicious, double p_txDistribution, int numRounds) {
+		}
+
+		public void setFollowees(boolean[] followees) {
+		}
+
+		public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+			heard.addAll(pendingTransactions);
+		}
+
+		public Set<Transaction> sendToFollowers() {
+			return new HashSet<Transaction>(heard);
+		}
+
+		public void receiveFromFollowees(Set<Candidate> candidates) {
+			for (Candidate c : candidates)
+				heard.add(c.tx);
+		}
+	}
+
+	public static void main(String[] args) {
+		String repeats = args.length > 0 ? args[0] : "2";
+		System.out.printf("%-14s %-22s %10s %10s %10s %10s %10s%n", "malicious", "compliant", "mean agr", "min agr",
+				"agr at .45", "msgs/round", "ms");
+		for (String malicious : new String[] { "MalDoNothing", "MaliciousNode" }) {
+			for (String compliant : new String[] { "flood", "CompliantNode", "CompliantNode:bitsets" }) {
+				SimulationSweep sweep = new SimulationSweep();
+				sweep.set("malicious", malicious);
+				sweep.set("repeats", repeats);
+				if (compliant.equals("flood"))
+					sweep.compliantNode = FloodNode::new;
+				else
+					sweep.set("compliant", compliant);
+
+				List<SimulationSweep.Run> runs = sweep.plan();
+				long start = System.nanoTime();
+				sweep.executeAll(runs);
+				long nanos = System.nanoTime() - start;
+
+				double agreement = 0, minAgreement = 1, hostile = 0, messages = 0;
+				int hostileRuns = 0;
+				for (SimulationSweep.Run run : runs) {
+					agreement += run.agreement;
+					minAgreement = Math.min(minAgreement, run.agreement);
+					if (run.p_malicious == .45) {
+						hostile += run.agreement;
+						hostileRuns++;
+					}
+					messages += (double) run.messages / run.numRounds;
+				}
+				System.out.printf("%-14s %-22s %10.4f %10.4f %10.4f %10.0f %10.0f%n", malicious, compliant,
+						agreement / runs.size(), minAgreement, hostile / hostileRuns, messages / runs.size(),
+						nanos / 1e6);
+			}
+		}
+	}
+}
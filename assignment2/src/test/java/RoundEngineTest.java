@@ -0,0 +1,210 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link RoundEngine}
+ * <p>
+ * Test Strategy:
+ * Test 1: any parallelism hands every node the same candidates as the sequential round, in the same order
+ * Test 2: invalid transactions are dropped, and a node whose followees sent nothing is not called
+ * Test 3: nodes on the fast path and off it can be mixed, with the same outcome as without the fast path
+ */
+public class RoundEngineTest {
+
+	/** Sends a seeded random pick of what it has heard, now and then with a made-up transaction */
+	private static class RecordingNode implements Node {
+		final Random random;
+		final List<Transaction> heard = new ArrayList<Transaction>();
+		final List<String> received = new ArrayList<String>();
+		int calls;
+
+		RecordingNode(long seed) {
+			random = new Random(seed);
+		}
+
+		public void setFollowees(boolean[] followees) {
+		}
+
+		public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+			heard.addAll(pendingTransactions);
+		}
+
+		public Set<Transaction> sendToFollowers() {
+			Set<Transaction> send = new HashSet<Transaction>();
+			for (Transaction tx : heard) {
+				if (random.nextInt(3) > 0)
+					send.add(tx);
+			}
+			if (random.nextInt(4) == 0)
+				send.add(new Transaction(random.nextInt()));
+			return send;
+		}
+
+		public void receiveFromFollowees(Set<Candidate> candidates) {
+			calls++;
+			for (Candidate c : candidates) {
+				received.add(c.sender + ":" + c.tx.id);
+				if (!heard.contains(c.tx))
+					heard.add(c.tx);
+			}
+			received.add("|");
+		}
+	}
+
+	/** Sends all it has heard, as bitsets of ordinals if {@code fast} and offered to */
+	private static class RelayNode implements OrdinalNode {
+		final boolean fast;
+		final Set<Integer> heard = new HashSet<Integer>();
+		int[] txIds;
+		BitSet heardOrdinals;
+
+		RelayNode(boolean fast) {
+			this.fast = fast;
+		}
+
+		Set<Integer> heard() {
+			if (txIds == null)
+				return heard;
+			Set<Integer> ids = new HashSet<Integer>();
+			for (int o = heardOrdinals.nextSetBit(0); o >= 0; o = heardOrdinals.nextSetBit(o + 1))
+				ids.add(txIds[o]);
+			return ids;
+		}
+
+		public void setFollowees(boolean[] followees) {
+		}
+
+		public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+			for (Transaction tx : pendingTransactions)
+				heard.add(tx.id);
+		}
+
+		public Set<Transaction> sendToFollowers() {
+			Set<Transaction> send = new HashSet<Transaction>();
+			for (int id : heard())
+				send.add(new Transaction(id));
+			return send;
+		}
+
+		public void receiveFromFollowees(Set<Candidate> candidates) {
+			for (Candidate c : candidates)
+				heard.add(c.tx.id);
+		}
+
+		public boolean useOrdinals(int[] txIds) {
+			if (fast)
+				this.txIds = txIds;
+			return fast;
+		}
+
+		public void setPendingOrdinals(BitSet pending) {
+			heardOrdinals = pending;
+		}
+
+		public BitSet sendOrdinals() {
+			return (BitSet) heardOrdinals.clone();
+		}
+
+		public void receiveOrdinals(int[] senders, BitSet[] proposals, int count) {
+			for (int k = 0; k < count; k++)
+				heardOrdinals.or(proposals[k]);
+		}
+	}
+
+	private static RecordingNode[] nodes(int numNodes, int[] txIds, long seed) {
+		Random random = new Random(seed);
+		RecordingNode[] nodes = new RecordingNode[numNodes];
+		for (int i = 0; i < numNodes; i++) {
+			nodes[i] = new RecordingNode(seed * 31 + i);
+			Set<Transaction> pending = new HashSet<Transaction>();
+			for (int id : txIds) {
+				if (random.nextDouble() < 0.05)
+					pending.add(new Transaction(id));
+			}
+			nodes[i].setPendingTransaction(pending);
+		}
+		return nodes;
+	}
+
+	// Test 1: any parallelism hands every node the same candidates as the sequential round, in the same order
+	@Test
+	public void testMatchesSequential() {
+		int numNodes = 300;
+		int[] txIds = new int[100];
+		Set<Integer> validTxIds = new HashSet<Integer>();
+		Random random = new Random(1);
+		for (int t = 0; t < txIds.length; t++) {
+			txIds[t] = random.nextInt();
+			validTxIds.add(txIds[t]);
+		}
+		FollowGraph graph = FollowGraph.random(numNodes, 0.05, new Random(2));
+
+		RecordingNode[] sequential = nodes(numNodes, txIds, 3);
+		for (int round = 0; round < 10; round++)
+			Simulation.round(sequential, graph, validTxIds);
+
+		for (int parallelism = 1; parallelism <= 8; parallelism *= 2) {
+			RecordingNode[] parallel = nodes(numNodes, txIds, 3);
+			new RoundEngine(parallelism).run(parallel, graph, validTxIds, 10);
+			for (int i = 0; i < numNodes; i++) {
+				assertEquals("node " + i, sequential[i].received, parallel[i].received);
+				assertEquals("node " + i, sequential[i].heard, parallel[i].heard);
+			}
+		}
+	}
+
+	// Test 2: invalid transactions are dropped, and a node whose followees sent nothing is not called
+	@Test
+	public void testDelivery() {
+		// 0 follows 1, 1 follows 2, nobody follows 0
+		boolean[][] followees = new boolean[3][3];
+		followees[0][1] = true;
+		followees[1][2] = true;
+		FollowGraph graph = FollowGraph.of(followees);
+		Set<Integer> validTxIds = new HashSet<Integer>();
+		validTxIds.add(7);
+
+		RecordingNode[] nodes = nodes(3, new int[0], 4);
+		nodes[1].setPendingTransaction(Collections.singleton(new Transaction(7)));
+		nodes[2].heard.add(new Transaction(8));
+		for (int round = 0; round < 5; round++)
+			new RoundEngine(2).round(nodes, graph, validTxIds);
+
+		assertTrue(nodes[0].calls > 0);
+		for (String candidate : nodes[0].received)
+			assertTrue(candidate, candidate.equals("1:7") || candidate.equals("|"));
+		assertEquals(0, nodes[1].calls);
+		assertEquals(0, nodes[2].calls);
+	}
+
+	// Test 3: nodes on the fast path and off it can be mixed, with the same outcome as without the fast path
+	@Test
+	public void testFastPath() {
+		Simulation slow = new Simulation(200, .02, .5, .01, 5, (g, m, d, r) -> new RelayNode(false),
+				(g, m, d, r) -> new RelayNode(false), 5);
+		Simulation mixed = new Simulation(200, .02, .5, .01, 5, (g, m, d, r) -> new RelayNode(true),
+				(g, m, d, r) -> new RelayNode(false), 5);
+		new RoundEngine(1).run(slow, 5);
+		new RoundEngine(4).run(mixed, 5);
+
+		int fast = 0;
+		for (int i = 0; i < 200; i++) {
+			if (mixed.usesOrdinals(i))
+				fast++;
+			assertEquals(mixed.isMalicious(i), !mixed.usesOrdinals(i));
+			Set<Integer> heard = ((RelayNode) slow.getNodes()[i]).heard();
+			assertEquals("node " + i, heard, ((RelayNode) mixed.getNodes()[i]).heard());
+		}
+		assertTrue(fast > 0 && fast < 200);
+	}
+}
@@ -0,0 +1,164 @@
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Time taken by {@link Simulation#round} on networks of 100 up to 100,000 nodes, next to the
+ * delivery it replaced: a dense {@code boolean[numNodes][numNodes]} follow graph, every receiver
+ * tried for every proposal and a new Candidate per edge. Every node follows 10 others on average,
+ * and gossips every transaction it has not sent before, so each transaction crosses each edge
+ * once. The dense version is only run while its graph fits comfortably, and both must leave every
+ * node with the same transactions. The last column runs the rounds with {@link RoundEngine} on every
+ * processor. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes SimulationBenchmark [maxNodes] [txs] [rounds]
+ * </pre>
+ */
+public class SimulationBenchmark {
+
+	private static final int DEGREE = 10;
+	private static final int MAX_DENSE_NODES = 3000;
+	private static final int[] SIZES = { 100, 300, 1000, 3000, 10000, 30000, 100000 };
+
+	/** Passes on, once, every transaction it started with or heard of */
+	private static class GossipNode implements Node {
+		final Set<Transaction> heard = new HashSet<Transaction>();
+		Set<Transaction> fresh = new HashSet<Transaction>();
+
+		public void setFollowees(boolean[] followees) {
+		}
+
+		public void setFollowees(int[] followees, int numNodes) {
+		}
+
+		public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+			heard.addAll(pendingTransactions);
+			fresh.addAll(pendingTransactions);
+		}
+
+		public Set<Transaction> sendToFollowers() {
+			Set<Transaction> send = fresh;
+			fresh = new HashSet<Transaction>();
+			return send;
+		}
+
+		public void receiveFromFollowees(Set<Candidate> candidates) {
+			for (Candidate c : candidates) {
+				if (heard.add(c.tx))
+					fresh.add(c.tx);
+			}
+		}
+	}
+
+	/** The round of the original Simulation */
+	private static void denseRound(Node[] nodes, boolean[][] followees, Set<Integer> validTxIds) {
+		int numNodes = nodes.length;
+		HashMap<Integer, Set<Candidate>> allProposals = new HashMap<>();
+		for (int i = 0; i < numNodes; i++) {
+			Set<Transaction> proposals = nodes[i].sendToFollowers();
+			for (Transaction tx : proposals) {
+				if (!validTxIds.contains(tx.id))
+					continue;
+				for (int j = 0; j < numNodes; j++) {
+					if (!followees[j][i])
+						continue;
+					if (!allProposals.containsKey(j))
+						allProposals.put(j, new HashSet<>());
+					allProposals.get(j).add(new Candidate(tx, i));
+				}
+			}
+		}
+		for (int i = 0; i < numNodes; i++) {
+			if (allProposals.containsKey(i))
+				nodes[i].receiveFromFollowees(allProposals.get(i));
+		}
+	}
+
+	private static GossipNode[] nodes(int numNodes, int[] txIds, double p_txDistribution, long seed) {
+		Random random = new Random(seed);
+		GossipNode[] nodes = new GossipNode[numNodes];
+		for (int i = 0; i < numNodes; i++) {
+			nodes[i] = new GossipNode();
+			HashSet<Transaction> pending = new HashSet<Transaction>();
+			for (int id : txIds) {
+				if (random.nextDouble() < p_txDistribution)
+					pending.add(new Transaction(id));
+			}
+			nodes[i].setPendingTransaction(pending);
+		}
+		return nodes;
+	}
+
+	public static void main(String[] args) {
+		int maxNodes = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int numTx = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int numRounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		Random random = new Random(42);
+		int[] txIds = new int[numTx];
+		Set<Integer> validTxIds = new HashSet<Integer>();
+		for (int t = 0; t < numTx; t++) {
+			txIds[t] = random.nextInt();
+			validTxIds.add(txIds[t]);
+		}
+
+		int processors = Runtime.getRuntime().availableProcessors();
+		RoundEngine engine = new RoundEngine(processors);
+		System.out.printf("%d txs, %d rounds, %d followees per node, %d processors%n", numTx, numRounds, DEGREE,
+				processors);
+		System.out.printf("%7s %9s %12s %12s %10s %10s %10s%n", "nodes", "edges", "dense MB", "lists MB", "dense ms",
+				"lists ms", "engine ms");
+		for (int warmup = 0; warmup < 2; warmup++) {
+			for (int numNodes : SIZES) {
+				// warm up on the small networks only
+				if (numNodes > maxNodes || warmup == 0 && numNodes > 1000)
+					break;
+				FollowGraph graph = FollowGraph.random(numNodes, Math.min(1, DEGREE / (numNodes - 1.0)),
+						new Random(numNodes));
+
+				GossipNode[] sparse = nodes(numNodes, txIds, 0.01, numNodes);
+				long start = System.nanoTime();
+				for (int round = 0; round < numRounds; round++)
+					Simulation.round(sparse, graph, validTxIds);
+				long sparseNanos = System.nanoTime() - start;
+
+				GossipNode[] parallel = nodes(numNodes, txIds, 0.01, numNodes);
+				start = System.nanoTime();
+				engine.run(parallel, graph, validTxIds, numRounds);
+				long parallelNanos = System.nanoTime() - start;
+				for (int i = 0; i < numNodes; i++) {
+					if (!parallel[i].heard.equals(sparse[i].heard))
+						throw new IllegalStateException("node " + i + " differs");
+				}
+
+				String dense = "-";
+				if (numNodes <= MAX_DENSE_NODES) {
+					boolean[][] followees = new boolean[numNodes][numNodes];
+					for (int i = 0; i < numNodes; i++) {
+						for (int j : graph.getFollowees(i))
+							followees[i][j] = true;
+					}
+					GossipNode[] nodes = nodes(numNodes, txIds, 0.01, numNodes);
+					start = System.nanoTime();
+					for (int round = 0; round < numRounds; round++)
+						denseRound(nodes, followees, validTxIds);
+					dense = String.format("%10.1f", (System.nanoTime() - start) / 1e6);
+					for (int i = 0; i < numNodes; i++) {
+						if (!nodes[i].heard.equals(sparse[i].heard))
+							throw new IllegalStateException("node " + i + " differs");
+					}
+				}
+
+				if (warmup == 1) {
+					// four bytes per entry in each direction, plus the offsets
+					double listBytes = 8.0 * graph.numEdges() + 8.0 * (numNodes + 1);
+					System.out.printf("%7d %9d %12.2f %12.2f %10s %10.1f %10.1f%n", numNodes, graph.numEdges(),
+							(double) numNodes * numNodes / 1e6, listBytes / 1e6, dense, sparseNanos / 1e6,
+							parallelNanos / 1e6);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,97 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link SimulationSweep}
+ * <p>
+ * Test Strategy:
+ * Test 1: the default sweep is the 54 combinations, each with its own seed, and runs again to the same summaries
+ * Test 2: nodes relaying all they have heard are found to agree, after fewer rounds than they ran
+ */
+public class SimulationSweepTest {
+
+	/** Sends everything it has heard, every round */
+	private static class RelayNode implements Node {
+		final Set<Transaction> heard = new HashSet<Transaction>();
+
+		RelayNode(double p_graph, double p_malicious, double p_txDistribution, int numRounds) {
+		}
+
+		public void setFollowees(boolean[] followees) {
+		}
+
+		public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+			heard.addAll(pendingTransactions);
+		}
+
+		public Set<Transaction> sendToFollowers() {
+			return new HashSet<Transaction>(heard);
+		}
+
+		public void receiveFromFollowees(Set<Candidate> candidates) {
+			for (Candidate c : candidates)
+				heard.add(c.tx);
+		}
+	}
+
+	private static String withoutTime(SimulationSweep.Run run) {
+		String csv = run.toCsv();
+		return csv.substring(0, csv.lastIndexOf(','));
+	}
+
+	// Test 1: the default sweep is the 54 combinations, each with its own seed, and runs again to the same summaries
+	@Test
+	public void testReproducible() {
+		SimulationSweep sweep = new SimulationSweep();
+		List<SimulationSweep.Run> runs = sweep.plan();
+		assertEquals(54, runs.size());
+		Set<String> combinations = new HashSet<String>();
+		Set<Long> seeds = new HashSet<Long>();
+		for (SimulationSweep.Run run : runs) {
+			combinations.add(run.p_graph + " " + run.p_malicious + " " + run.p_txDistribution + " " + run.numRounds);
+			seeds.add(run.seed);
+		}
+		assertEquals(54, combinations.size());
+		assertEquals(54, seeds.size());
+
+		sweep.compliantNode = RelayNode::new;
+		sweep.set("p_graph", ".1");
+		sweep.set("numRounds", "10");
+		runs = sweep.plan();
+		sweep.executeAll(runs);
+		List<SimulationSweep.Run> again = sweep.plan();
+		for (SimulationSweep.Run run : again)
+			sweep.execute(run);
+		for (int r = 0; r < runs.size(); r++)
+			assertEquals(withoutTime(runs.get(r)), withoutTime(again.get(r)));
+
+		sweep.set("seed", "2");
+		assertNotEquals(runs.get(0).seed, sweep.plan().get(0).seed);
+	}
+
+	// Test 2: nodes relaying all they have heard are found to agree, after fewer rounds than they ran
+	@Test
+	public void testMeasures() {
+		SimulationSweep sweep = new SimulationSweep();
+		sweep.compliantNode = RelayNode::new;
+		sweep.set("p_graph", ".3");
+		sweep.set("p_malicious", ".3");
+		sweep.set("p_txDistribution", ".05");
+		sweep.set("numRounds", "10");
+		SimulationSweep.Run run = sweep.plan().get(0);
+		sweep.execute(run);
+
+		assertTrue(run.compliant > 0);
+		assertEquals(1.0, run.agreement, 0);
+		assertTrue(run.consensusSize > 0 && run.consensusSize <= Simulation.NUM_TX);
+		assertTrue(run.convergedRound > 1 && run.convergedRound < 10);
+		assertTrue(run.messages > 0);
+	}
+}
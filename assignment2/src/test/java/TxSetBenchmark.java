@@ -0,0 +1,103 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Time and heap taken by a 1000-node {@link Simulation} with transaction sets kept as
+ * {@code HashSet<Transaction>} and exchanged as Candidates, next to bitsets of ordinals exchanged
+ * on the fast path of {@link OrdinalNode}. Two workloads: {@link CompliantNode} in both of its
+ * modes, and relaying nodes sending all they have heard every round, which is where the Candidates
+ * pile up. Heap is measured once the rounds are over, with the simulation still held. Not a unit
+ * test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes TxSetBenchmark [nodes] [rounds]
+ * </pre>
+ */
+public class TxSetBenchmark {
+
+	private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return MEMORY.getHeapMemoryUsage().getUsed();
+	}
+
+	/** Sends all it has heard, every round, as bitsets of ordinals if {@code fast} */
+	private static class RelayNode implements OrdinalNode {
+		final boolean fast;
+		final Set<Transaction> heard = new HashSet<Transaction>();
+		BitSet heardOrdinals;
+
+		RelayNode(boolean fast) {
+			this.fast = fast;
+		}
+
+		public void setFollowees(boolean[] followees) {
+		}
+
+		public void setPendingTransaction(Set<Transaction> pendingTransactions) {
+			heard.addAll(pendingTransactions);
+		}
+
+		public Set<Transaction> sendToFollowers() {
+			return heard;
+		}
+
+		public void receiveFromFollowees(Set<Candidate> candidates) {
+			for (Candidate c : candidates)
+				heard.add(c.tx);
+		}
+
+		public boolean useOrdinals(int[] txIds) {
+			return fast;
+		}
+
+		public void setPendingOrdinals(BitSet pending) {
+			heardOrdinals = pending;
+		}
+
+		public BitSet sendOrdinals() {
+			return (BitSet) heardOrdinals.clone();
+		}
+
+		public void receiveOrdinals(int[] senders, BitSet[] proposals, int count) {
+			for (int k = 0; k < count; k++)
+				heardOrdinals.or(proposals[k]);
+		}
+	}
+
+	private static Simulation[] held = new Simulation[1];
+
+	private static void measure(String name, int numNodes, int numRounds, Simulation.NodeFactory compliant,
+			boolean print) {
+		held[0] = null;
+		long before = usedHeap();
+		long start = System.nanoTime();
+		Simulation simulation = new Simulation(numNodes, .1, .15, .10, numRounds, compliant, MalDoNothing::new, 1);
+		new RoundEngine(1).run(simulation, numRounds);
+		long nanos = System.nanoTime() - start;
+		held[0] = simulation;
+		long heap = usedHeap() - before;
+		if (print)
+			System.out.printf("%-24s %10.1f ms %10.2f MB%n", name, nanos / 1e6, heap / 1e6);
+	}
+
+	public static void main(String[] args) {
+		int numNodes = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		int numRounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		System.out.printf("%d nodes, %d rounds, p_graph .1, p_malicious .15, p_txDistribution .10%n", numNodes,
+				numRounds);
+		for (int warmup = 0; warmup < 2; warmup++) {
+			boolean print = warmup == 1;
+			measure("CompliantNode sets", numNodes, numRounds, CompliantNode::new, print);
+			measure("CompliantNode bitsets", numNodes, numRounds, (g, m, d, r) -> new CompliantNode(g, m, d, r, true),
+					print);
+			measure("relay sets", numNodes, numRounds, (g, m, d, r) -> new RelayNode(false), print);
+			measure("relay bitsets", numNodes, numRounds, (g, m, d, r) -> new RelayNode(true), print);
+		}
+	}
+}
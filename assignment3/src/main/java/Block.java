@@ -1,11 +1,13 @@
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.util.ArrayList;
 
 public class Block {
 
     public static final double COINBASE = 25;
+    /** {@link #COINBASE} in {@link Transaction#UNITS_PER_COIN} units */
+    public static final long COINBASE_UNITS = 25 * Transaction.UNITS_PER_COIN;
 
     private byte[] hash;
     private byte[] prevBlockHash;
@@ -19,6 +21,13 @@ public class Block {
         txs = new ArrayList<Transaction>();
     }
 
+    /** Rebuilds a block around an existing {@code coinbase}, see {@link WireFormat} */
+    Block(byte[] prevHash, Transaction coinbase) {
+        prevBlockHash = prevHash;
+        this.coinbase = coinbase;
+        txs = new ArrayList<Transaction>();
+    }
+
     public Transaction getCoinbase() {
         return coinbase;
     }
@@ -44,29 +53,28 @@ public class Block {
     }
 
     public byte[] getRawBlock() {
-        ArrayList<Byte> rawBlock = new ArrayList<Byte>();
+        int length = prevBlockHash == null ? 0 : prevBlockHash.length;
+        for (Transaction tx : txs)
+            length += tx.getRawTxLength();
+        ByteBuffer rawBlock = ByteBuffer.allocate(length);
         if (prevBlockHash != null)
-            for (int i = 0; i < prevBlockHash.length; i++)
-                rawBlock.add(prevBlockHash[i]);
-        for (int i = 0; i < txs.size(); i++) {
-            byte[] rawTx = txs.get(i).getRawTx();
-            for (int j = 0; j < rawTx.length; j++) {
-                rawBlock.add(rawTx[j]);
-            }
-        }
-        byte[] raw = new byte[rawBlock.size()];
-        for (int i = 0; i < raw.length; i++)
-            raw[i] = rawBlock.get(i);
-        return raw;
+            rawBlock.put(prevBlockHash);
+        for (Transaction tx : txs)
+            tx.putRawTx(rawBlock);
+        return rawBlock.array();
     }
 
+    /**
+     * Hashes the block as {@link #getRawBlock} would serialize it, but streams every transaction
+     * straight into the digest and reuses each transaction's cached outputs section, so the raw
+     * block is never held in memory.
+     */
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawBlock());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
-        }
+        MessageDigest md = Crypto.sha256();
+        if (prevBlockHash != null)
+            md.update(prevBlockHash);
+        for (Transaction tx : txs)
+            tx.updateDigest(md);
+        hash = md.digest();
     }
 }
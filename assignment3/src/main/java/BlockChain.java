@@ -1,15 +1,203 @@
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 // Block Chain should maintain only limited block nodes to satisfy the functions
 // You should not have all the blocks added to the block chain in memory
 // as it would cause a memory overflow.
 
+/**
+ * Safe for use from many threads. Changes to the chain are made one at a time under a lock, but
+ * the transactions of a block are validated before taking it, so that blocks on different
+ * branches are validated side by side. The max height block and its UTXO set are published
+ * together as one immutable {@link Tip}, which readers take without locking. Transactions join
+ * the pool under the pool's own monitor. A new tip is queued for the pool under the lock and
+ * applied under the monitor once the lock is released, so the chain never holds both, and a
+ * transaction is always valued against the tip the pool is in line with.
+ */
 public class BlockChain {
         public static final int CUT_OFF_AGE = 10;
 
+        /**
+         * Told about every change of the max height block, see {@link BlockChain#addTipListener}.
+         * Listeners are called once the chain and the transaction pool have been updated and the
+         * chain's lock has been released, so they may call back into the chain, add blocks
+         * included. Changes are told one at a time and in the order they were made, on the thread
+         * that made them or on another adding thread that is telling the listeners already.
+         */
+        public interface TipListener {
+                /**
+                 * The tip left the main chain: {@code disconnected} is the old branch, tip first, and
+                 * {@code connected} the new one, oldest first. Called before {@link #tipChanged}.
+                 */
+                default void reorganized(List<Block> disconnected, List<Block> connected) {
+                }
+
+                /** {@code newTip} replaced {@code oldTip} as the max height block */
+                default void tipChanged(Block oldTip, Block newTip) {
+                }
+        }
+
+        /**
+         * What a block changed in the UTXO set: the outputs it spent, with their values, and the
+         * outputs it created. Outputs both created and spent within the block appear in neither, an
+         * output the block created again over an unspent one appears in both.
+         */
+        static final class UndoRecord {
+                private final UTXO[] spent;
+                private final Transaction.Output[] spentOutputs;
+                private final UTXO[] created;
+                private final Transaction.Output[] createdOutputs;
+
+                /** Records the block that applied {@code txs}, then {@code coinbase}, to {@code before} */
+                UndoRecord(UTXOPool before, Transaction[] txs, Transaction coinbase) {
+                        LinkedHashMap<UTXO, Transaction.Output> spent = new LinkedHashMap<UTXO, Transaction.Output>();
+                        LinkedHashMap<UTXO, Transaction.Output> created = new LinkedHashMap<UTXO, Transaction.Output>();
+                        for (Transaction tx : txs) {
+                                for (Transaction.Input in : tx.getInputs()) {
+                                        UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
+                                        if (created.remove(u) == null)
+                                                spent.put(u, before.getTxOutput(u));
+                                }
+                                create(before, spent, created, tx);
+                        }
+                        create(before, spent, created, coinbase);
+
+                        this.spent = spent.keySet().toArray(new UTXO[spent.size()]);
+                        this.spentOutputs = spent.values().toArray(new Transaction.Output[spent.size()]);
+                        this.created = created.keySet().toArray(new UTXO[created.size()]);
+                        this.createdOutputs = created.values().toArray(new Transaction.Output[created.size()]);
+                }
+
+                private static void create(UTXOPool before, Map<UTXO, Transaction.Output> spent,
+                                Map<UTXO, Transaction.Output> created, Transaction tx) {
+                        for (int i = 0; i < tx.numOutputs(); i++) {
+                                UTXO u = new UTXO(tx.getHash(), i);
+                                // an output overwritten, as the coinbases of one miner are, is restored
+                                // by disconnecting
+                                if (!created.containsKey(u) && !spent.containsKey(u) && before.contains(u))
+                                        spent.put(u, before.getTxOutput(u));
+                                created.put(u, tx.getOutput(i));
+                        }
+                }
+
+                /** Applies the block to {@code pool}, the UTXO set before it */
+                void connect(UTXOPool pool) {
+                        for (UTXO u : spent)
+                                pool.removeUTXO(u);
+                        for (int i = 0; i < created.length; i++)
+                                pool.addUTXO(created[i], createdOutputs[i]);
+                }
+
+                /** Takes the block back out of {@code pool}, the UTXO set after it */
+                void disconnect(UTXOPool pool) {
+                        for (UTXO u : created)
+                                pool.removeUTXO(u);
+                        for (int i = 0; i < spent.length; i++)
+                                pool.addUTXO(spent[i], spentOutputs[i]);
+                }
+        }
+
+        /** The max height block and the UTXO set after it, as of one moment */
+        public static final class Tip {
+                private final BlockNode node;
+                /** never changed once published */
+                private final UTXOPool pool;
+
+                Tip(BlockNode node, UTXOPool pool) {
+                        this.node = node;
+                        this.pool = pool;
+                }
+
+                public Block getBlock() {
+                        return node.getBlock();
+                }
+
+                public int getHeight() {
+                        return node.getHeight();
+                }
+
+                /** @return a copy, O(1), of the UTXO set after the block */
+                public UTXOPool getUTXOPool() {
+                        return new UTXOPool(pool);
+                }
+        }
+
+        /**
+         * A change of the max height block, queued under the lock, then applied to the transaction
+         * pool and told to listeners outside it
+         */
+        private static final class TipEvent {
+                final List<Block> disconnected;
+                final List<Block> connected;
+                final Block oldTip;
+                final Block newTip;
+                /** the UTXO set at the fork, to value the transactions of the disconnected blocks */
+                final UTXOPool forkPool;
+                final Tip tip;
+
+                TipEvent(List<Block> disconnected, List<Block> connected, Block oldTip, Block newTip,
+                                UTXOPool forkPool, Tip tip) {
+                        this.disconnected = disconnected;
+                        this.connected = connected;
+                        this.oldTip = oldTip;
+                        this.newTip = newTip;
+                        this.forkPool = forkPool;
+                        this.tip = tip;
+                }
+        }
+
+        /** A block of the chain with what is known about it, see {@link BlockChain#getNode} */
+        public static final class BlockNode {
+                private final Block block;
+                /** cleared when the parent is pruned, see {@link BlockChain#prune} */
+                private volatile BlockNode parent;
+                private final int height;
+                private final long work;
+                private final UndoRecord undo;
+                /** the UTXO set after this block, kept only for blocks without a parent */
+                private UTXOPool snapshot;
+
+                BlockNode(Block block, BlockNode parent, UndoRecord undo) {
+                        this.block = block;
+                        this.parent = parent;
+                        this.height = parent == null ? 0 : parent.height + 1;
+                        this.work = (parent == null ? 0 : parent.work) + 1;
+                        this.undo = undo;
+                }
+
+                public Block getBlock() {
+                        return block;
+                }
+
+                /**
+                 * @return the node of the previous block, null for the genesis block and for blocks
+                 *         whose parent has been pruned
+                 */
+                public BlockNode getParent() {
+                        return parent;
+                }
+
+                public int getHeight() {
+                        return height;
+                }
+
+                /**
+                 * @return the work of the chain ending with this block. Blocks carry no difficulty
+                 *         here, each one counts for one, so this is {@code height + 1}.
+                 */
+                public long getCumulativeWork() {
+                        return work;
+                }
+        }
+
         /**
          * create an empty block chain with just a genesis block. Assume {@code genesisBlock} is a valid
          * block
@@ -17,34 +205,120 @@ public class BlockChain {
 
         // Yeah
         TreeMap<Integer, ArrayList<Block>> chain;
-        HashMap<byte[], UTXOPool> utxoPools;
+        /** every block of the chain by hash */
+        ConcurrentHashMap<ByteArrayWrapper, BlockNode> nodes;
+        /** the max height block and the UTXO set after it, the one set kept in full */
+        private volatile Tip tip;
+        private final CopyOnWriteArrayList<TipListener> listeners = new CopyOnWriteArrayList<TipListener>();
+        /** tip changes not yet applied to the transaction pool, oldest first */
+        private final ConcurrentLinkedQueue<TipEvent> poolUpdates = new ConcurrentLinkedQueue<TipEvent>();
+        /** the tip the transaction pool is in line with, guarded by the pool's monitor */
+        private Tip poolTip;
+        /** tip changes not yet told to the listeners, oldest first */
+        private final ConcurrentLinkedQueue<TipEvent> events = new ConcurrentLinkedQueue<TipEvent>();
+        /** set while a thread tells the listeners about the queued changes */
+        private final AtomicBoolean notifying = new AtomicBoolean();
+        private volatile BlockValidator validator = new BlockValidator(Runtime.getRuntime().availableProcessors());
+        /** held while changing the chain */
+        private final Object lock = new Object();
 
         TransactionPool txPool;
 
         public BlockChain(Block genesisBlock) {
                 chain = new TreeMap<Integer, ArrayList<Block>>();
-                utxoPools = new HashMap<byte[], UTXOPool>();
+                nodes = new ConcurrentHashMap<ByteArrayWrapper, BlockNode>();
                 ArrayList<Block> x = new ArrayList<Block>();
 
                 x.add(genesisBlock);
                 chain.put(0, x);
 
-                utxoPools.put(genesisBlock.getHash(),
-                                addCoinbaseToPool(genesisBlock, new UTXOPool()));
+                UTXOPool empty = new UTXOPool();
+                BlockNode node = new BlockNode(genesisBlock, null, new UndoRecord(empty, new Transaction[0],
+                                genesisBlock.getCoinbase()));
+                tip = new Tip(node, addCoinbaseToPool(genesisBlock, empty));
+                node.snapshot = new UTXOPool(tip.pool);
+                nodes.put(new ByteArrayWrapper(genesisBlock.getHash()), node);
 
 
                 txPool = new TransactionPool();
+                poolTip = tip;
         }
 
-        /** Get the maximum height block */
+        /**
+         * Get the maximum height block. Of several blocks at the max height, the one received first
+         * stays the tip: a block takes over only by being higher, that is by carrying more
+         * cumulative work.
+         */
         public Block getMaxHeightBlock() {
-                ArrayList<Block> x = chain.lastEntry().getValue();
-                return x.get(0);
+                return tip.getBlock();
         }
 
-        /** Get the UTXOPool for mining a new block on top of max height block */
+        /** @return the max height block together with the UTXO set after it */
+        public Tip getTip() {
+                return tip;
+        }
+
+        public BlockValidator getBlockValidator() {
+                return validator;
+        }
+
+        /** Validate the transactions of new blocks with {@code validator} */
+        public void setBlockValidator(BlockValidator validator) {
+                this.validator = validator;
+        }
+
+        /** Calls {@code listener} on every change of the max height block from now on */
+        public void addTipListener(TipListener listener) {
+                listeners.add(listener);
+        }
+
+        public void removeTipListener(TipListener listener) {
+                listeners.remove(listener);
+        }
+
+        /**
+         * Get the UTXOPool for mining a new block on top of max height block. With blocks coming in
+         * from other threads, {@link #getTip} gives the block and the pool that go together.
+         */
         public UTXOPool getMaxHeightUTXOPool() {
-                return utxoPools.get(getMaxHeightBlock().getHash());
+                // a copy is O(1), and keeps the tip's set safe from the caller
+                return tip.getUTXOPool();
+        }
+
+        /**
+         * @return a new UTXO set as it is after {@code target}, derived from the tip's by
+         *         disconnecting the blocks down to the fork and connecting those up to
+         *         {@code target}, or from the snapshot of an ancestor on a branch that split off
+         *         below the pruned heights
+         */
+        private UTXOPool stateAt(BlockNode target) {
+                UTXOPool pool = tip.getUTXOPool();
+                ArrayList<BlockNode> connect = new ArrayList<BlockNode>();
+                BlockNode from = tip.node;
+                BlockNode to = target;
+                while (to != from) {
+                        if (to.snapshot != null) {
+                                pool = new UTXOPool(to.snapshot);
+                                break;
+                        }
+                        if (from == null || to.height > from.height) {
+                                connect.add(to);
+                                to = to.parent;
+                        } else {
+                                from.undo.disconnect(pool);
+                                from = from.parent;
+                        }
+                }
+                for (int i = connect.size() - 1; i >= 0; i--)
+                        connect.get(i).undo.connect(pool);
+                return pool;
+        }
+
+        /** @return the node of the block with hash {@code hash}, or null if it is not in the chain */
+        public BlockNode getNode(byte[] hash) {
+                if (hash == null)
+                        return null;
+                return nodes.get(new ByteArrayWrapper(hash));
         }
 
         /** Get the transaction pool to mine a new block */
@@ -65,68 +339,187 @@ public class BlockChain {
          * @return true if block is successfully added
          */
         public boolean addBlock(Block block) {
-                int height = chain.lastKey();
-
-                int minHeight = Integer.max(height - CUT_OFF_AGE, 0);
-
-                byte[] prevHash = block.getPrevBlockHash();
-                if (prevHash == null)
-                        return false;
-
-                UTXOPool pool = utxoPools.get(prevHash);
-                if (pool == null)
-                        return false;
-
-
-                boolean found = false;
-
-                while (height >= minHeight) {
-                        for (Block b : chain.get(height)) {
-                                found = Arrays.equals(b.getHash(), prevHash);
-                                if (found)
-                                        break;
-                        }
-                        if (found)
-                                break;
+                return submitBlock(block).isValid();
+        }
 
-                        height--;
+        /**
+         * Same as {@link #addBlock}, but tells why a block is turned down
+         *
+         * @return the outcome of validating {@code block}, valid if it was added
+         */
+        public BlockValidator.Result submitBlock(Block block) {
+                ByteArrayWrapper hash = new ByteArrayWrapper(block.getHash());
+                BlockNode parent;
+                UTXOPool before;
+                synchronized (lock) {
+                        parent = getNode(block.getPrevBlockHash());
+                        BlockValidator.Result problem = checkPlace(parent, hash);
+                        if (problem != null)
+                                return problem;
+                        before = stateAt(parent);
                 }
 
-                if (!found)
-                        return false;
+                // the set after the parent stays the same whatever happens to the chain meanwhile
+                BlockValidator.Result result = validator.validate(block, before);
+                if (!result.isValid())
+                        return result;
 
-                int newheight = height + 1;
+                synchronized (lock) {
+                        // the chain may have moved on, or taken the same block from another thread
+                        BlockValidator.Result problem = checkPlace(parent, hash);
+                        if (problem != null)
+                                return problem;
 
+                        BlockNode node = new BlockNode(block, parent, new UndoRecord(before, result.getTransactions(),
+                                        block.getCoinbase()));
+                        nodes.put(hash, node);
 
-                TxHandler handler = new TxHandler(pool);
+                        ArrayList<Block> x = chain.get(node.getHeight());
+                        if (x == null)
+                                x = new ArrayList<Block>();
 
-                ArrayList<Transaction> txs = block.getTransactions();
-                // txs.add(block.getCoinbase());
+                        x.add(block);
+                        chain.put(node.getHeight(), x);
 
-                Transaction[] txss = txs.toArray(new Transaction[txs.size()]);
-                Transaction[] accepted_txs = handler.handleTxs(txss);
-
-                if (txss.length != accepted_txs.length)
-                        return false;
+                        if (node.getHeight() > tip.getHeight()) {
+                                moveTip(node, addCoinbaseToPool(block, result.getUTXOPool()));
+                                prune();
+                        }
+                }
 
+                updatePool();
+                notifyListeners();
+                return result;
+        }
 
-                ArrayList<Block> x = chain.get(newheight);
-                if (x == null)
-                        x = new ArrayList<Block>();
+        /**
+         * @return why the block with hash {@code hash} cannot join the chain as it is now on top of
+         *         {@code parent}, null if its parent is not in the chain, or null if it can. The
+         *         height of a parent looked up before is checked again, so that one pruned since is
+         *         reported as too old rather than unknown.
+         */
+        private BlockValidator.Result checkPlace(BlockNode parent, ByteArrayWrapper hash) {
+                if (parent == null)
+                        return BlockValidator.Result.rejected(BlockValidator.Reason.UNKNOWN_PARENT, -1, -1);
+                if (parent.getHeight() < tip.getHeight() - CUT_OFF_AGE)
+                        return BlockValidator.Result.rejected(BlockValidator.Reason.TOO_OLD, -1, -1);
+                if (nodes.containsKey(hash))
+                        return BlockValidator.Result.rejected(BlockValidator.Reason.DUPLICATE_BLOCK, -1, -1);
+                return null;
+        }
 
+        /**
+         * Drops the blocks below {@code maxHeight - CUT_OFF_AGE}, with their undo records. No new
+         * block can be built on them, so what is kept is bounded by the blocks of the last
+         * {@code CUT_OFF_AGE + 1} heights, whatever the length of the chain. The oldest blocks kept
+         * lose their parent and get a snapshot of the UTXO set after them instead, so that
+         * {@link #stateAt} still reaches them. Snapshots share all but the changes of the blocks
+         * kept with the tip's set.
+         */
+        private void prune() {
+                int minHeight = tip.getHeight() - CUT_OFF_AGE;
+                if (chain.firstKey() >= minHeight)
+                        return;
+                for (Block b : chain.get(minHeight)) {
+                        BlockNode node = getNode(b.getHash());
+                        node.snapshot = stateAt(node);
+                }
+                while (chain.firstKey() < minHeight) {
+                        for (Block b : chain.pollFirstEntry().getValue())
+                                nodes.remove(new ByteArrayWrapper(b.getHash()));
+                }
+                for (Block b : chain.firstEntry().getValue())
+                        getNode(b.getHash()).parent = null;
+        }
 
-                utxoPools.put(block.getHash(), addCoinbaseToPool(block, handler.getUTXOPool()));
+        /**
+         * Makes {@code newTip}, with the UTXO set {@code newPool} after it, the max height block. The
+         * change is queued for the transaction pool and the listeners, which hear of it once the
+         * lock is released, see {@link #updatePool} and {@link #notifyListeners}.
+         */
+        private void moveTip(BlockNode newTip, UTXOPool newPool) {
+                BlockNode oldTip = tip.node;
+                ArrayList<Block> disconnected = new ArrayList<Block>();
+                ArrayList<Block> connected = new ArrayList<Block>();
+                BlockNode oldBranch = oldTip;
+                BlockNode newBranch = newTip;
+                while (newBranch.getHeight() > oldBranch.getHeight()) {
+                        connected.add(newBranch.getBlock());
+                        newBranch = newBranch.getParent();
+                }
+                while (oldBranch != newBranch) {
+                        disconnected.add(oldBranch.getBlock());
+                        connected.add(newBranch.getBlock());
+                        oldBranch = oldBranch.getParent();
+                        newBranch = newBranch.getParent();
+                }
 
-                x.add(block);
-                chain.put(newheight, x);
+                // outputs spent by the old branch are unspent again at the fork, or below the oldest
+                // block disconnected for branches that split off below the pruned heights
+                UTXOPool forkPool = tip.getUTXOPool();
+                for (Block b : disconnected)
+                        getNode(b.getHash()).undo.disconnect(forkPool);
+                tip = new Tip(newTip, newPool);
+
+                Collections.reverse(connected);
+                TipEvent event = new TipEvent(Collections.unmodifiableList(disconnected),
+                                Collections.unmodifiableList(connected), oldTip.getBlock(), newTip.getBlock(), forkPool,
+                                tip);
+                poolUpdates.add(event);
+                events.add(event);
+        }
 
+        /**
+         * Brings the transaction pool in line with the queued tip changes, in order: the transactions
+         * of blocks that left the main chain go back to the pool, then the transactions confirmed by
+         * the blocks that joined it, and those conflicting with them, leave it. Called without
+         * holding the lock, so that a caller holding the pool's monitor can still add blocks.
+         */
+        private void updatePool() {
+                synchronized (txPool) {
+                        for (TipEvent event; (event = poolUpdates.poll()) != null;) {
+                                for (int i = event.disconnected.size() - 1; i >= 0; i--) {
+                                        for (Transaction tx : event.disconnected.get(i).getTransactions())
+                                                txPool.addTransaction(tx, event.forkPool);
+                                }
+                                for (Block b : event.connected)
+                                        txPool.removeConfirmed(b);
+                                poolTip = event.tip;
+                        }
+                }
+        }
 
-                return true;
+        /**
+         * Tells the listeners about the queued tip changes, in order, unless another thread is doing
+         * so already, in which case that thread tells them about the changes queued here as well.
+         * Called without holding the lock, so that a slow listener does not hold up the chain and
+         * one adding blocks does not deadlock.
+         */
+        private void notifyListeners() {
+                // checked again after letting go, for changes queued while this thread was telling
+                while (!events.isEmpty() && notifying.compareAndSet(false, true)) {
+                        try {
+                                for (TipEvent event; (event = events.poll()) != null;) {
+                                        // queued for the pool first, so listeners see it in line
+                                        updatePool();
+                                        for (TipListener listener : listeners) {
+                                                if (!event.disconnected.isEmpty())
+                                                        listener.reorganized(event.disconnected, event.connected);
+                                                listener.tipChanged(event.oldTip, event.newTip);
+                                        }
+                                }
+                        } finally {
+                                notifying.set(false);
+                        }
+                }
         }
 
         /** Add a transaction to the transaction pool */
         public void addTransaction(Transaction tx) {
-                txPool.addTransaction(tx);
+                synchronized (txPool) {
+                        // only read, so no copy needed
+                        txPool.addTransaction(tx, poolTip.pool);
+                }
         }
 
         public static UTXOPool addCoinbaseToPool(Block b, UTXOPool pool) {
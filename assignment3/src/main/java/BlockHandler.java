@@ -1,6 +1,7 @@
 
 import java.security.PublicKey;
 
+/** Safe for use from many threads, as the {@link BlockChain} it works on */
 public class BlockHandler {
     private BlockChain blockChain;
 
@@ -20,15 +21,20 @@ public class BlockHandler {
         return blockChain.addBlock(block);
     }
 
-    /** create a new {@code block} over the max height {@code block} */
+    /**
+     * create a new {@code block} over the max height {@code block}. The block is null if another
+     * thread moved the chain on in the meantime far enough to turn it down.
+     */
     public Block createBlock(PublicKey myAddress) {
-        Block parent = blockChain.getMaxHeightBlock();
+        // the block and its pool from the same moment
+        BlockChain.Tip tip = blockChain.getTip();
+        Block parent = tip.getBlock();
         byte[] parentHash = parent.getHash();
         Block current = new Block(parentHash, myAddress);
-        UTXOPool uPool = blockChain.getMaxHeightUTXOPool();
+        UTXOPool uPool = tip.getUTXOPool();
         TransactionPool txPool = blockChain.getTransactionPool();
         TxHandler handler = new TxHandler(uPool);
-        Transaction[] txs = txPool.getTransactions().toArray(new Transaction[0]);
+        Transaction[] txs = txPool.getBlockTemplate().toArray(new Transaction[0]);
         Transaction[] rTxs = handler.handleTxs(txs);
         for (int i = 0; i < rTxs.length; i++)
             current.addTransaction(rTxs[i]);
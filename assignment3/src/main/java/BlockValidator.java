@@ -0,0 +1,308 @@
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Validates the transactions of a block in two phases and says why a block is rejected.
+ *
+ * The first phase checks each transaction on its own, on a fork-join pool: no input spent twice
+ * by the transaction, no negative or unrepresentable output, a valid signature on every input
+ * whose output can be found. The second phase is an ordered pass over a copy of the UTXO set,
+ * parents before children as in {@link TxHandler#handleTxs}: every input must be unspent, in the
+ * set or created earlier in the block, and cover the outputs. A block passes when every one of its
+ * transactions does, which is exactly when {@code handleTxs} would accept all of them.
+ *
+ * Transactions flagged as coinbase are accepted without checks, as {@link TxHandler} does.
+ */
+public class BlockValidator {
+
+    /** Why a block was turned down */
+    public enum Reason {
+        /** the block's parent is not in the chain */
+        UNKNOWN_PARENT,
+        /** the block's parent is more than {@link BlockChain#CUT_OFF_AGE} below the max height */
+        TOO_OLD,
+        /** the block is already in the chain */
+        DUPLICATE_BLOCK,
+        /** the block holds the same transaction twice */
+        DUPLICATE_TRANSACTION,
+        /** a transaction spends the same output in two of its inputs */
+        DUPLICATE_INPUT,
+        NEGATIVE_OUTPUT,
+        /** an amount is not a number, or a sum overflows */
+        INVALID_AMOUNT,
+        INVALID_SIGNATURE,
+        /** an input spends an output that is neither in the UTXO set nor created by the block */
+        MISSING_INPUT,
+        /** an input spends an output already spent earlier in the block */
+        DOUBLE_SPEND,
+        /** transactions of the block spend each other's outputs in a cycle */
+        DEPENDENCY_CYCLE,
+        /** a transaction's outputs are worth more than its inputs */
+        INSUFFICIENT_INPUTS
+    }
+
+    /** The outcome of {@link #validate}: the transactions applied in order, or why not */
+    public static final class Result {
+        private final Reason reason;
+        private final int txIndex;
+        private final int inputIndex;
+        private final Transaction[] applied;
+        private final UTXOPool utxoPool;
+
+        private Result(Reason reason, int txIndex, int inputIndex, Transaction[] applied, UTXOPool utxoPool) {
+            this.reason = reason;
+            this.txIndex = txIndex;
+            this.inputIndex = inputIndex;
+            this.applied = applied;
+            this.utxoPool = utxoPool;
+        }
+
+        static Result accepted(Transaction[] applied, UTXOPool utxoPool) {
+            return new Result(null, -1, -1, applied, utxoPool);
+        }
+
+        static Result rejected(Reason reason, int txIndex, int inputIndex) {
+            return new Result(reason, txIndex, inputIndex, null, null);
+        }
+
+        public boolean isValid() {
+            return reason == null;
+        }
+
+        /** @return why the block was rejected, null if it was not */
+        public Reason getReason() {
+            return reason;
+        }
+
+        /** @return the position in the block of the offending transaction, or -1 */
+        public int getTxIndex() {
+            return txIndex;
+        }
+
+        /** @return the offending input of that transaction, or -1 */
+        public int getInputIndex() {
+            return inputIndex;
+        }
+
+        /** @return the transactions of a valid block in the order they were applied, else null */
+        public Transaction[] getTransactions() {
+            return applied;
+        }
+
+        /** @return the UTXO set after the transactions of a valid block, coinbase excluded, else null */
+        public UTXOPool getUTXOPool() {
+            return utxoPool;
+        }
+
+        @Override
+        public String toString() {
+            if (reason == null)
+                return "valid";
+            StringBuilder sb = new StringBuilder(reason.toString());
+            if (txIndex >= 0)
+                sb.append(" in transaction ").append(txIndex);
+            if (inputIndex >= 0)
+                sb.append(", input ").append(inputIndex);
+            return sb.toString();
+        }
+    }
+
+    private final int parallelism;
+    private final ForkJoinPool forkJoinPool;
+
+    /** successful verifications shared across validators, null to always verify */
+    private SignatureCache signatureCache = SignatureCache.shared();
+
+    /**
+     * Creates a validator running the first phase with {@code parallelism} threads, 1 meaning on
+     * the calling thread. Fork-join pools are shared per parallelism level, see
+     * {@link ParallelSignatureVerifier#pool}.
+     */
+    public BlockValidator(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.parallelism = parallelism;
+        forkJoinPool = parallelism == 1 ? null : ParallelSignatureVerifier.pool(parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public SignatureCache getSignatureCache() {
+        return signatureCache;
+    }
+
+    /** Use {@code signatureCache} for signature checks, or no cache at all if it is null */
+    public void setSignatureCache(SignatureCache signatureCache) {
+        this.signatureCache = signatureCache;
+    }
+
+    /**
+     * Validates the transactions of {@code block} against {@code utxoPool}, the UTXO set after its
+     * parent, which is left unchanged. The reason reported is the first problem found: those of
+     * the first phase by position in the block, then those of the ordered pass.
+     */
+    public Result validate(Block block, UTXOPool utxoPool) {
+        ArrayList<Transaction> list = block.getTransactions();
+        final Transaction[] txs = list.toArray(new Transaction[list.size()]);
+
+        // where the outputs spent by the block come from, each transaction at most once
+        final HashMap<ByteArrayWrapper, Integer> positions = new HashMap<ByteArrayWrapper, Integer>();
+        for (int t = 0; t < txs.length; t++) {
+            if (txs[t].getHash() == null)
+                continue;
+            if (positions.putIfAbsent(new ByteArrayWrapper(txs[t].getHash()), t) != null)
+                return Result.rejected(Reason.DUPLICATE_TRANSACTION, t, -1);
+        }
+
+        // phase one
+        final long[] outputUnits = new long[txs.length];
+        final Result[] problems = new Result[txs.length];
+        if (forkJoinPool == null) {
+            for (int t = 0; t < txs.length; t++)
+                problems[t] = checkAlone(txs, t, positions, utxoPool, outputUnits);
+        } else {
+            forkJoinPool.submit(() -> IntStream.range(0, txs.length).parallel()
+                    .forEach(t -> problems[t] = checkAlone(txs, t, positions, utxoPool, outputUnits))).join();
+        }
+        for (Result problem : problems) {
+            if (problem != null)
+                return problem;
+        }
+
+        // phase two
+        return checkInOrder(txs, positions, utxoPool, outputUnits);
+    }
+
+    /** @return the output spent by {@code in}, created in the block or else in {@code utxoPool} */
+    private static Transaction.Output spentOutput(Transaction.Input in, Transaction[] txs,
+            HashMap<ByteArrayWrapper, Integer> positions, UTXOPool utxoPool) {
+        Integer parent = positions.get(new ByteArrayWrapper(in.prevTxHash));
+        if (parent == null)
+            return utxoPool.getTxOutput(in.prevTxHash, in.outputIndex);
+        Transaction tx = txs[parent];
+        return in.outputIndex >= 0 && in.outputIndex < tx.numOutputs() ? tx.getOutput(in.outputIndex) : null;
+    }
+
+    /**
+     * The context-free checks of the {@code t}-th transaction, which also sums its outputs into
+     * {@code outputUnits}. Only reads shared state.
+     *
+     * @return the problem found, or null
+     */
+    private Result checkAlone(Transaction[] txs, int t, HashMap<ByteArrayWrapper, Integer> positions,
+            UTXOPool utxoPool, long[] outputUnits) {
+        Transaction tx = txs[t];
+        if (tx.isCoinbase())
+            return null;
+
+        HashSet<UTXO> spent = new HashSet<UTXO>();
+        for (int i = 0; i < tx.numInputs(); i++) {
+            Transaction.Input in = tx.getInput(i);
+            if (in.prevTxHash == null)
+                return Result.rejected(Reason.MISSING_INPUT, t, i);
+            if (!spent.add(new UTXO(in.prevTxHash, in.outputIndex)))
+                return Result.rejected(Reason.DUPLICATE_INPUT, t, i);
+        }
+
+        long sum = 0;
+        for (Transaction.Output out : tx.getOutputs()) {
+            if (out.value < 0)
+                return Result.rejected(Reason.NEGATIVE_OUTPUT, t, -1);
+            try {
+                sum = Math.addExact(sum, out.getUnitsUp());
+            } catch (ArithmeticException e) {
+                return Result.rejected(Reason.INVALID_AMOUNT, t, -1);
+            }
+        }
+        outputUnits[t] = sum;
+
+        for (int i = 0; i < tx.numInputs(); i++) {
+            Transaction.Input in = tx.getInput(i);
+            Transaction.Output out = spentOutput(in, txs, positions, utxoPool);
+            // a missing output is reported by the ordered pass
+            if (out != null && !verifySignature(out.address, tx.getRawDataToSign(i), in.signature))
+                return Result.rejected(Reason.INVALID_SIGNATURE, t, i);
+        }
+        return null;
+    }
+
+    private boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
+        if (signatureCache == null)
+            return Crypto.verifySignature(pubKey, message, signature);
+        return signatureCache.verifySignature(pubKey, message, signature);
+    }
+
+    /** Applies the transactions to a copy of {@code utxoPool} parents first, checking every spend */
+    private static Result checkInOrder(Transaction[] txs, HashMap<ByteArrayWrapper, Integer> positions,
+            UTXOPool utxoPool, long[] outputUnits) {
+        UTXOPool pool = new UTXOPool(utxoPool);
+        int[] waiting = new int[txs.length];
+        ArrayList<ArrayList<Integer>> dependents = new ArrayList<ArrayList<Integer>>(txs.length);
+        for (int t = 0; t < txs.length; t++)
+            dependents.add(new ArrayList<Integer>());
+        for (int t = 0; t < txs.length; t++) {
+            for (Transaction.Input in : txs[t].getInputs()) {
+                Integer parent = in.prevTxHash == null ? null : positions.get(new ByteArrayWrapper(in.prevTxHash));
+                if (parent != null) {
+                    dependents.get(parent).add(t);
+                    waiting[t]++;
+                }
+            }
+        }
+        PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+        for (int t = 0; t < txs.length; t++) {
+            if (waiting[t] == 0)
+                ready.add(t);
+        }
+
+        Transaction[] applied = new Transaction[txs.length];
+        int count = 0;
+        while (!ready.isEmpty()) {
+            int t = ready.poll();
+            Transaction tx = txs[t];
+            if (!tx.isCoinbase()) {
+                long inputUnits = 0;
+                for (int i = 0; i < tx.numInputs(); i++) {
+                    Transaction.Input in = tx.getInput(i);
+                    Transaction.Output out = pool.getTxOutput(in.prevTxHash, in.outputIndex);
+                    if (out == null) {
+                        // an output of the block or of the set that is gone was spent before
+                        boolean existed = spentOutput(in, txs, positions, utxoPool) != null;
+                        return Result.rejected(existed ? Reason.DOUBLE_SPEND : Reason.MISSING_INPUT, t, i);
+                    }
+                    try {
+                        inputUnits = Math.addExact(inputUnits, out.getUnitsDown());
+                    } catch (ArithmeticException e) {
+                        return Result.rejected(Reason.INVALID_AMOUNT, t, i);
+                    }
+                }
+                if (outputUnits[t] > inputUnits)
+                    return Result.rejected(Reason.INSUFFICIENT_INPUTS, t, -1);
+            }
+
+            for (Transaction.Input in : tx.getInputs())
+                pool.removeUTXO(new UTXO(in.prevTxHash, in.outputIndex));
+            for (int i = 0; i < tx.numOutputs(); i++)
+                pool.addUTXO(new UTXO(tx.getHash(), i), tx.getOutput(i));
+            applied[count++] = tx;
+
+            for (int c : dependents.get(t)) {
+                if (--waiting[c] == 0)
+                    ready.add(c);
+            }
+        }
+
+        for (int t = 0; t < txs.length; t++) {
+            if (waiting[t] > 0)
+                return Result.rejected(Reason.DEPENDENCY_CYCLE, t, -1);
+        }
+        return Result.accepted(applied, pool);
+    }
+}
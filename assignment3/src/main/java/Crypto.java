@@ -1,11 +1,56 @@
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class Crypto {
 
+    private static final Logger LOG = Logger.getLogger(Crypto.class.getName());
+
+    private static final String ALGORITHM = "SHA256withRSA";
+
+    /** number of prepared verifiers each thread keeps around */
+    public static final int VERIFIER_CACHE_SIZE = 64;
+
+    /**
+     * Per thread, the most recently used public keys mapped to a {@code Signature} already
+     * initialized for verification with that key. A {@code Signature} returns to its initialized
+     * state after {@code verify}, so it can be used again for the same key without another
+     * provider lookup or {@code initVerify}.
+     */
+    private static final ThreadLocal<Map<PublicKey, Signature>> VERIFIERS =
+            ThreadLocal.withInitial(() -> new LinkedHashMap<PublicKey, Signature>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<PublicKey, Signature> eldest) {
+                    return size() > VERIFIER_CACHE_SIZE;
+                }
+            });
+
+    /** per thread SHA-256 digest handed out by {@link #sha256()} */
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    });
+
+    /**
+     * @return this thread's SHA-256 {@code MessageDigest}, reset and ready for use. Callers must
+     *         finish with {@code digest()} before asking for it again.
+     */
+    public static MessageDigest sha256() {
+        MessageDigest md = SHA256.get();
+        md.reset();
+        return md;
+    }
+
     /**
      * @return true is {@code signature} is a valid digital signature of {@code message} under the
      *         key {@code pubKey}. Internally, this uses RSA signature, but the student does not
@@ -13,24 +58,32 @@ public class Crypto {
      *         algorithm
      */
     public static boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
-        Signature sig = null;
+        Map<PublicKey, Signature> verifiers = VERIFIERS.get();
+        Signature sig = verifiers.get(pubKey);
         try {
-            sig = Signature.getInstance("SHA256withRSA");
+            if (sig == null) {
+                sig = Signature.getInstance(ALGORITHM);
+                sig.initVerify(pubKey);
+                verifiers.put(pubKey, sig);
+            }
+            boolean reset = false;
+            try {
+                sig.update(message);
+                boolean valid = sig.verify(signature);
+                reset = true;
+                return valid;
+            } finally {
+                // a failed update or verify may leave data behind in the Signature
+                if (!reset)
+                    verifiers.remove(pubKey);
+            }
         } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        }
-        try {
-            sig.initVerify(pubKey);
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
         } catch (InvalidKeyException e) {
-            e.printStackTrace();
-        }
-        try {
-            sig.update(message);
-            return sig.verify(signature);
+            LOG.log(Level.WARNING, "cannot verify with key " + pubKey, e);
         } catch (SignatureException e) {
-            e.printStackTrace();
+            LOG.log(Level.FINE, "malformed signature", e);
         }
         return false;
-
     }
 }
@@ -0,0 +1,203 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Open-addressing map from (32-byte transaction hash, output index) to {@link Transaction.Output},
+ * stored in flat primitive arrays.
+ *
+ * A {@code HashMap<UTXO, Transaction.Output>} entry costs a map node, a {@link UTXO} and a copied
+ * hash array, three objects to chase on every lookup. Here a slot is four longs of hash, an int of
+ * index and a reference to the output, all in parallel arrays. Lookups, additions and removals
+ * read the caller's hash in place and do not allocate (except when the table grows). Collisions
+ * are resolved by linear probing; removal shifts the following entries back instead of leaving
+ * tombstones.
+ *
+ * Hashes that are not 32 bytes long, which never come out of {@link Transaction#finalize} but are
+ * legal in a {@link UTXO}, are kept in a small side map.
+ */
+public class FlatUTXOIndex {
+
+    public static final int HASH_LENGTH = 32;
+
+    private static final int KEY_LONGS = HASH_LENGTH / Long.BYTES;
+    private static final int MIN_CAPACITY = 16;
+
+    /** four longs of hash per slot */
+    private long[] keys;
+    private int[] indexes;
+    /** null marks an empty slot */
+    private Transaction.Output[] values;
+    private int mask;
+    private int size;
+    private HashMap<UTXO, Transaction.Output> others;
+
+    /** Creates an empty index sized for {@code expectedSize} entries */
+    public FlatUTXOIndex(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3 / 4 < expectedSize)
+            capacity <<= 1;
+        allocate(capacity);
+        others = new HashMap<UTXO, Transaction.Output>();
+    }
+
+    /** Creates a copy of {@code index} */
+    public FlatUTXOIndex(FlatUTXOIndex index) {
+        keys = index.keys.clone();
+        indexes = index.indexes.clone();
+        values = index.values.clone();
+        mask = index.mask;
+        size = index.size;
+        others = new HashMap<UTXO, Transaction.Output>(index.others);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity * KEY_LONGS];
+        indexes = new int[capacity];
+        values = new Transaction.Output[capacity];
+        mask = capacity - 1;
+    }
+
+    private static long readLong(byte[] b, int offset) {
+        long l = 0;
+        for (int i = offset; i < offset + Long.BYTES; i++)
+            l = (l << 8) | (b[i] & 0xff);
+        return l;
+    }
+
+    private static int home(long firstKey, int index, int mask) {
+        long h = (firstKey ^ index) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private boolean matches(int slot, byte[] txHash, int index) {
+        if (indexes[slot] != index)
+            return false;
+        int base = slot * KEY_LONGS;
+        for (int k = 0; k < KEY_LONGS; k++) {
+            if (keys[base + k] != readLong(txHash, k * Long.BYTES))
+                return false;
+        }
+        return true;
+    }
+
+    /** @return the slot holding the key, or the empty slot where it would go */
+    private int find(byte[] txHash, int index) {
+        int slot = home(readLong(txHash, 0), index, mask);
+        while (values[slot] != null && !matches(slot, txHash, index))
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    /** @return the output for the given outpoint, or null if it is not in the index */
+    public Transaction.Output get(byte[] txHash, int index) {
+        if (txHash.length != HASH_LENGTH)
+            return others.get(new UTXO(txHash, index));
+        return values[find(txHash, index)];
+    }
+
+    public boolean contains(byte[] txHash, int index) {
+        return get(txHash, index) != null;
+    }
+
+    /**
+     * Maps the outpoint to {@code out}, which must not be null.
+     *
+     * @return the output previously mapped to it, or null
+     */
+    public Transaction.Output put(byte[] txHash, int index, Transaction.Output out) {
+        if (out == null)
+            throw new NullPointerException("a flat UTXO index cannot hold null outputs");
+        if (txHash.length != HASH_LENGTH)
+            return others.put(new UTXO(txHash, index), out);
+        int slot = find(txHash, index);
+        Transaction.Output previous = values[slot];
+        if (previous == null) {
+            int base = slot * KEY_LONGS;
+            for (int k = 0; k < KEY_LONGS; k++)
+                keys[base + k] = readLong(txHash, k * Long.BYTES);
+            indexes[slot] = index;
+            size++;
+        }
+        values[slot] = out;
+        if (previous == null && size > (mask + 1) * 3 / 4)
+            grow();
+        return previous;
+    }
+
+    /** @return the output that was mapped to the outpoint, or null if there was none */
+    public Transaction.Output remove(byte[] txHash, int index) {
+        if (txHash.length != HASH_LENGTH)
+            return others.remove(new UTXO(txHash, index));
+        int slot = find(txHash, index);
+        Transaction.Output removed = values[slot];
+        if (removed == null)
+            return null;
+        values[slot] = null;
+        size--;
+
+        // shift back the entries of the probe sequence that would no longer be found
+        int hole = slot;
+        for (int next = (hole + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = home(keys[next * KEY_LONGS], indexes[next], mask);
+            boolean reachable = hole <= next ? (hole < home && home <= next) : (hole < home || home <= next);
+            if (reachable)
+                continue;
+            System.arraycopy(keys, next * KEY_LONGS, keys, hole * KEY_LONGS, KEY_LONGS);
+            indexes[hole] = indexes[next];
+            values[hole] = values[next];
+            values[next] = null;
+            hole = next;
+        }
+        return removed;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldIndexes = indexes;
+        Transaction.Output[] oldValues = values;
+        allocate(oldValues.length * 2);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] == null)
+                continue;
+            int slot = home(oldKeys[i * KEY_LONGS], oldIndexes[i], mask);
+            while (values[slot] != null)
+                slot = (slot + 1) & mask;
+            System.arraycopy(oldKeys, i * KEY_LONGS, keys, slot * KEY_LONGS, KEY_LONGS);
+            indexes[slot] = oldIndexes[i];
+            values[slot] = oldValues[i];
+        }
+    }
+
+    public int size() {
+        return size + others.size();
+    }
+
+    /** @return every outpoint in the index as a new {@link UTXO} */
+    public ArrayList<UTXO> getAllUTXO() {
+        ArrayList<UTXO> all = new ArrayList<UTXO>(size());
+        byte[] txHash = new byte[HASH_LENGTH];
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] == null)
+                continue;
+            for (int k = 0; k < KEY_LONGS; k++) {
+                long l = keys[slot * KEY_LONGS + k];
+                for (int i = Long.BYTES - 1; i >= 0; i--, l >>>= 8)
+                    txHash[k * Long.BYTES + i] = (byte) l;
+            }
+            all.add(new UTXO(txHash, indexes[slot]));
+        }
+        all.addAll(others.keySet());
+        return all;
+    }
+
+    /** @return every output in the index */
+    public ArrayList<Transaction.Output> getAllOutputs() {
+        ArrayList<Transaction.Output> all = new ArrayList<Transaction.Output>(size());
+        for (Transaction.Output out : values) {
+            if (out != null)
+                all.add(out);
+        }
+        all.addAll(others.values());
+        return all;
+    }
+}
@@ -0,0 +1,143 @@
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Checks the input signatures of a whole epoch of transactions on a fork-join pool, ahead of the
+ * ordered UTXO bookkeeping done by {@link TxHandler#handleTxs(Transaction[])}.
+ *
+ * The verifier only precomputes results, it never decides validity on its own: every result is
+ * remembered together with the key it was checked against, and {@link Result#lookup} answers only
+ * when the ordered pass asks about the very same key. Anything else falls back to a sequential
+ * {@link Crypto#verifySignature} call, so the accepted transactions are exactly the ones the
+ * sequential handler would accept.
+ */
+public class ParallelSignatureVerifier {
+
+    private static final ConcurrentHashMap<Integer, ParallelSignatureVerifier> SHARED =
+            new ConcurrentHashMap<Integer, ParallelSignatureVerifier>();
+
+    private static final ConcurrentHashMap<Integer, ForkJoinPool> POOLS = new ConcurrentHashMap<Integer, ForkJoinPool>();
+
+    private final ForkJoinPool forkJoinPool;
+
+    private ParallelSignatureVerifier(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * @return a verifier running on a pool with {@code parallelism} workers. Verifiers are shared
+     *         per parallelism level so that handlers created for every epoch do not leak pools.
+     */
+    public static ParallelSignatureVerifier forParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        return SHARED.computeIfAbsent(parallelism, n -> new ParallelSignatureVerifier(pool(n)));
+    }
+
+    /**
+     * @return the fork-join pool with {@code parallelism} workers shared by everything checking in
+     *         parallel, the common pool if it has that parallelism. A pool is created only by the
+     *         thread that wins the mapping, so racing callers do not leak pools.
+     */
+    static ForkJoinPool pool(int parallelism) {
+        if (parallelism == ForkJoinPool.getCommonPoolParallelism())
+            return ForkJoinPool.commonPool();
+        return POOLS.computeIfAbsent(parallelism, n -> new ForkJoinPool(n));
+    }
+
+    public int getParallelism() {
+        return forkJoinPool.getParallelism();
+    }
+
+    /**
+     * Verifies every input signature of {@code txs}. The key of an input is taken from
+     * {@code utxoPool} or, for outputs created inside the epoch, from the transaction in
+     * {@code txs} that produces it. Verifications go through {@code signatureCache} unless it is
+     * null.
+     */
+    public Result verify(Transaction[] txs, UTXOPool utxoPool, SignatureCache signatureCache) {
+        HashMap<UTXO, Transaction.Output> epochOutputs = new HashMap<UTXO, Transaction.Output>();
+        for (Transaction tx : txs) {
+            if (tx.getHash() == null)
+                continue;
+            for (int i = 0; i < tx.numOutputs(); i++)
+                epochOutputs.put(new UTXO(tx.getHash(), i), tx.getOutput(i));
+        }
+
+        final Result result = new Result(txs);
+        final List<long[]> jobs = new ArrayList<long[]>();
+        for (int t = 0; t < txs.length; t++) {
+            for (int i = 0; i < txs[t].numInputs(); i++) {
+                Transaction.Input in = txs[t].getInput(i);
+                if (in.prevTxHash == null || in.signature == null)
+                    continue;
+                UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
+                Transaction.Output out = utxoPool.getTxOutput(u);
+                if (out == null)
+                    out = epochOutputs.get(u);
+                if (out == null)
+                    continue;
+                result.keys[t][i] = out.address;
+                jobs.add(new long[] { t, i });
+            }
+        }
+
+        forkJoinPool.submit(() -> IntStream.range(0, jobs.size()).parallel().forEach(j -> {
+            int t = (int) jobs.get(j)[0];
+            int i = (int) jobs.get(j)[1];
+            try {
+                Transaction tx = txs[t];
+                PublicKey key = result.keys[t][i];
+                byte[] message = tx.getRawDataToSign(i);
+                byte[] signature = tx.getInput(i).signature;
+                boolean valid = signatureCache == null
+                        ? Crypto.verifySignature(key, message, signature)
+                        : signatureCache.verifySignature(key, message, signature);
+                result.verified[t][i] = valid ? Result.VALID : Result.INVALID;
+            } catch (RuntimeException e) {
+                // leave it to the sequential pass, which reproduces the failure in order
+                result.verified[t][i] = Result.UNKNOWN;
+            }
+        })).join();
+
+        return result;
+    }
+
+    /** Signature results of one epoch, indexed by transaction position and input index */
+    public static class Result {
+        static final byte UNKNOWN = 0;
+        static final byte VALID = 1;
+        static final byte INVALID = 2;
+
+        private final Transaction[] txs;
+        private final PublicKey[][] keys;
+        private final byte[][] verified;
+
+        private Result(Transaction[] txs) {
+            this.txs = txs;
+            keys = new PublicKey[txs.length][];
+            verified = new byte[txs.length][];
+            for (int t = 0; t < txs.length; t++) {
+                keys[t] = new PublicKey[txs[t].numInputs()];
+                verified[t] = new byte[txs[t].numInputs()];
+            }
+        }
+
+        /**
+         * @return the precomputed result for input {@code input} of the {@code t}-th transaction
+         *         checked against {@code key}, or null if it has to be verified again
+         */
+        public Boolean lookup(int t, Transaction tx, int input, PublicKey key) {
+            if (t < 0 || t >= txs.length || txs[t] != tx || input >= keys[t].length)
+                return null;
+            if (keys[t][input] != key || verified[t][input] == UNKNOWN)
+                return null;
+            return verified[t][input] == VALID;
+        }
+    }
+}
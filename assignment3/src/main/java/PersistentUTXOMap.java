@@ -0,0 +1,328 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Map from {@link UTXO} to {@link Transaction.Output} whose copies share structure.
+ *
+ * The map is a hash array mapped trie: every node takes five bits of the key's hash and keeps a
+ * bitmap of the slots in use next to a packed array of entries and child nodes. A copy only
+ * shares the root, so it is O(1). Afterwards, a change to either map copies the nodes on the path
+ * it touches, at most seven of them, and leaves the rest shared. A chain of pools derived from
+ * each other therefore costs the size of one pool plus the changes made to each.
+ *
+ * Nodes remember the owner of the map that created them. Nodes still owned by the map are changed
+ * in place, so a map that has not been copied since is updated without allocation beyond what a new
+ * entry needs. Copying gives the copy a new owner and only flags the source's owner as copied, so
+ * the source takes a new owner on its next change and shared nodes are never changed in place.
+ * Copying never writes to the source map itself, so a map that is no longer changed can be copied
+ * by any number of threads at once.
+ */
+public class PersistentUTXOMap {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    /** below this level all keys in a node have the same hash and are kept in a plain list */
+    private static final int MAX_SHIFT = 30;
+
+    private static final Object[] EMPTY = new Object[0];
+
+    /** Identifies the nodes a map may change in place */
+    private static final class Owner {
+        /** set by copies of the map holding this owner, from any thread */
+        volatile boolean copied;
+    }
+
+    /**
+     * A node of the trie. {@code array} holds two slots per bit set in {@code bitmap}, in bit order:
+     * a {@link UTXO} key and its output, or null and a child {@code Node}. Below
+     * {@link #MAX_SHIFT} the bitmap is unused and {@code array} is a list of key/output pairs.
+     */
+    private static final class Node {
+        final Owner owner;
+        int bitmap;
+        Object[] array;
+
+        Node(Owner owner, int bitmap, Object[] array) {
+            this.owner = owner;
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        Node editable(Owner owner) {
+            return this.owner == owner ? this : new Node(owner, bitmap, array.clone());
+        }
+    }
+
+    private Node root;
+    private int size;
+    private Owner owner;
+    /** set by {@link #put} and {@link #remove} on the way down when the size changes */
+    private boolean sizeChanged;
+
+    /** Creates an empty map */
+    public PersistentUTXOMap() {
+        owner = new Owner();
+    }
+
+    /** Creates a copy of {@code map} in O(1). Both maps stop changing their shared nodes in place. */
+    public PersistentUTXOMap(PersistentUTXOMap map) {
+        root = map.root;
+        size = map.size;
+        owner = new Owner();
+        if (!map.owner.copied)
+            map.owner.copied = true;
+    }
+
+    /** Takes a new owner if this map has been copied since it last took one */
+    private void claim() {
+        if (owner.copied)
+            owner = new Owner();
+    }
+
+    private static int spread(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static int hash(UTXO ut) {
+        return spread(ut.hashCode());
+    }
+
+    /** Same value as {@code hash(new UTXO(txHash, index))} */
+    private static int hash(byte[] txHash, int index) {
+        int hash = 1;
+        hash = hash * 17 + index;
+        hash = hash * 31 + Arrays.hashCode(txHash);
+        return spread(hash);
+    }
+
+    private static boolean matches(Object key, byte[] txHash, int index) {
+        UTXO ut = (UTXO) key;
+        return ut.getIndex() == index && Arrays.equals(ut.getTxHash(), txHash);
+    }
+
+    private static int slot(int bitmap, int bit) {
+        return 2 * Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    /** @return the output for the given outpoint, or null if it is not in the map */
+    public Transaction.Output get(byte[] txHash, int index) {
+        int hash = hash(txHash, index);
+        Node node = root;
+        for (int shift = 0; node != null; shift += BITS) {
+            Object[] array = node.array;
+            if (shift > MAX_SHIFT) {
+                for (int i = 0; i < array.length; i += 2) {
+                    if (matches(array[i], txHash, index))
+                        return (Transaction.Output) array[i + 1];
+                }
+                return null;
+            }
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((node.bitmap & bit) == 0)
+                return null;
+            int i = slot(node.bitmap, bit);
+            if (array[i] != null)
+                return matches(array[i], txHash, index) ? (Transaction.Output) array[i + 1] : null;
+            node = (Node) array[i + 1];
+        }
+        return null;
+    }
+
+    /** @return the output for {@code ut}, or null if it is not in the map */
+    public Transaction.Output get(UTXO ut) {
+        return get(ut.getTxHash(), ut.getIndex());
+    }
+
+    public boolean containsKey(UTXO ut) {
+        return get(ut) != null;
+    }
+
+    /** Maps {@code ut} to {@code out}, which must not be null */
+    public void put(UTXO ut, Transaction.Output out) {
+        if (out == null)
+            throw new NullPointerException("a persistent UTXO map cannot hold null outputs");
+        claim();
+        sizeChanged = false;
+        Node node = root != null ? root : new Node(owner, 0, EMPTY);
+        root = put(node, 0, hash(ut), ut, out);
+        if (sizeChanged)
+            size++;
+    }
+
+    private Node put(Node node, int shift, int hash, UTXO key, Transaction.Output out) {
+        Object[] array = node.array;
+        if (shift > MAX_SHIFT) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    if (array[i + 1] == out)
+                        return node;
+                    Node n = node.editable(owner);
+                    n.array[i + 1] = out;
+                    return n;
+                }
+            }
+            sizeChanged = true;
+            Object[] grown = Arrays.copyOf(array, array.length + 2);
+            grown[array.length] = key;
+            grown[array.length + 1] = out;
+            Node n = node.editable(owner);
+            n.array = grown;
+            return n;
+        }
+
+        int bit = 1 << ((hash >>> shift) & MASK);
+        int i = slot(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            sizeChanged = true;
+            Object[] grown = new Object[array.length + 2];
+            System.arraycopy(array, 0, grown, 0, i);
+            grown[i] = key;
+            grown[i + 1] = out;
+            System.arraycopy(array, i, grown, i + 2, array.length - i);
+            Node n = node.editable(owner);
+            n.array = grown;
+            n.bitmap |= bit;
+            return n;
+        }
+
+        Object k = array[i];
+        Object v = array[i + 1];
+        Object replacement;
+        if (k == null) {
+            Node child = put((Node) v, shift + BITS, hash, key, out);
+            if (child == v)
+                return node;
+            replacement = child;
+        } else if (key.equals(k)) {
+            if (v == out)
+                return node;
+            Node n = node.editable(owner);
+            n.array[i + 1] = out;
+            return n;
+        } else {
+            sizeChanged = true;
+            replacement = split(shift + BITS, (UTXO) k, v, hash((UTXO) k), key, out, hash);
+        }
+        Node n = node.editable(owner);
+        n.array[i] = null;
+        n.array[i + 1] = replacement;
+        return n;
+    }
+
+    /** @return a node at level {@code shift} holding the two entries */
+    private Node split(int shift, UTXO k1, Object v1, int h1, UTXO k2, Object v2, int h2) {
+        if (shift > MAX_SHIFT)
+            return new Node(owner, 0, new Object[] { k1, v1, k2, v2 });
+        int b1 = (h1 >>> shift) & MASK;
+        int b2 = (h2 >>> shift) & MASK;
+        if (b1 == b2)
+            return new Node(owner, 1 << b1, new Object[] { null, split(shift + BITS, k1, v1, h1, k2, v2, h2) });
+        Object[] array = b1 < b2 ? new Object[] { k1, v1, k2, v2 } : new Object[] { k2, v2, k1, v1 };
+        return new Node(owner, (1 << b1) | (1 << b2), array);
+    }
+
+    /** Removes the mapping for {@code ut}, if any */
+    public void remove(UTXO ut) {
+        if (root == null)
+            return;
+        claim();
+        sizeChanged = false;
+        root = remove(root, 0, hash(ut), ut);
+        if (sizeChanged)
+            size--;
+    }
+
+    private static Object[] without(Object[] array, int i) {
+        Object[] shrunk = new Object[array.length - 2];
+        System.arraycopy(array, 0, shrunk, 0, i);
+        System.arraycopy(array, i + 2, shrunk, i, array.length - i - 2);
+        return shrunk;
+    }
+
+    /** @return the node without {@code key}, or null if it became empty */
+    private Node remove(Node node, int shift, int hash, UTXO key) {
+        Object[] array = node.array;
+        if (shift > MAX_SHIFT) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    sizeChanged = true;
+                    if (array.length == 2)
+                        return null;
+                    Node n = node.editable(owner);
+                    n.array = without(array, i);
+                    return n;
+                }
+            }
+            return node;
+        }
+
+        int bit = 1 << ((hash >>> shift) & MASK);
+        if ((node.bitmap & bit) == 0)
+            return node;
+        int i = slot(node.bitmap, bit);
+        Object k = array[i];
+        Object v = array[i + 1];
+        if (k == null) {
+            Node child = remove((Node) v, shift + BITS, hash, key);
+            if (child == v)
+                return node;
+            Node n;
+            if (child == null) {
+                if (node.bitmap == bit)
+                    return null;
+                n = node.editable(owner);
+                n.array = without(array, i);
+                n.bitmap &= ~bit;
+            } else if (child.array.length == 2 && child.array[0] != null) {
+                // a single entry left below, keep it here instead
+                n = node.editable(owner);
+                n.array[i] = child.array[0];
+                n.array[i + 1] = child.array[1];
+            } else {
+                n = node.editable(owner);
+                n.array[i + 1] = child;
+            }
+            return n;
+        }
+        if (!key.equals(k))
+            return node;
+        sizeChanged = true;
+        if (node.bitmap == bit)
+            return null;
+        Node n = node.editable(owner);
+        n.array = without(array, i);
+        n.bitmap &= ~bit;
+        return n;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** @return every UTXO in the map */
+    public ArrayList<UTXO> keys() {
+        ArrayList<UTXO> all = new ArrayList<UTXO>(size);
+        collect(root, all, true);
+        return all;
+    }
+
+    /** @return every output in the map */
+    public ArrayList<Transaction.Output> values() {
+        ArrayList<Transaction.Output> all = new ArrayList<Transaction.Output>(size);
+        collect(root, all, false);
+        return all;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void collect(Node node, ArrayList<T> all, boolean keys) {
+        if (node == null)
+            return;
+        for (int i = 0; i < node.array.length; i += 2) {
+            if (node.array[i] == null)
+                collect((Node) node.array[i + 1], all, keys);
+            else
+                all.add((T) node.array[keys ? i : i + 1]);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of successful signature verifications.
+ *
+ * A transaction is validated many times: when a block is created from the {@link TransactionPool},
+ * when the same block comes back through {@link BlockChain#addBlock}, and again on every fork it
+ * lands on. The cache remembers each (message, signature, public key) triple that verified, so the
+ * RSA work is done only once. Failed verifications are never cached.
+ *
+ * Entries are keyed by the SHA-256 of the length-prefixed message (the sighash data from
+ * {@link Transaction#getRawDataToSign}), signature and encoded key, so an entry costs 32 bytes
+ * of key no matter how large the transaction is.
+ */
+public class SignatureCache {
+
+    public static final int DEFAULT_SIZE = 100000;
+
+    private static final SignatureCache SHARED = new SignatureCache(DEFAULT_SIZE);
+
+    private final LinkedHashMap<ByteArrayWrapper, Boolean> entries;
+    private int maxSize;
+    private long hits;
+    private long misses;
+
+    /** Creates an empty cache holding at most {@code maxSize} verifications */
+    public SignatureCache(int maxSize) {
+        setMaxSize(maxSize);
+        entries = new LinkedHashMap<ByteArrayWrapper, Boolean>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteArrayWrapper, Boolean> eldest) {
+                return size() > SignatureCache.this.maxSize;
+            }
+        };
+    }
+
+    /** @return the cache shared by all {@link TxHandler}s unless they are given their own */
+    public static SignatureCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * Same contract as {@link Crypto#verifySignature}, but answers from the cache when this exact
+     * verification already succeeded.
+     */
+    public boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
+        if (pubKey == null || message == null || signature == null)
+            return Crypto.verifySignature(pubKey, message, signature);
+
+        ByteArrayWrapper key = new ByteArrayWrapper(entryKey(pubKey, message, signature));
+        synchronized (this) {
+            if (entries.get(key) != null) {
+                hits++;
+                return true;
+            }
+            misses++;
+        }
+
+        // verify outside the lock, concurrent misses on the same entry just do the work twice
+        boolean valid = Crypto.verifySignature(pubKey, message, signature);
+        if (valid) {
+            synchronized (this) {
+                entries.put(key, Boolean.TRUE);
+            }
+        }
+        return valid;
+    }
+
+    private static byte[] entryKey(PublicKey pubKey, byte[] message, byte[] signature) {
+        MessageDigest md = Crypto.sha256();
+        byte[] encodedKey = pubKey.getEncoded();
+        ByteBuffer lengths = ByteBuffer.allocate(3 * Integer.SIZE / 8);
+        lengths.putInt(message.length).putInt(signature.length).putInt(encodedKey.length);
+        md.update(lengths.array());
+        md.update(message);
+        md.update(signature);
+        md.update(encodedKey);
+        return md.digest();
+    }
+
+    /** Changes the capacity, evicting least recently used entries if it shrinks */
+    public synchronized void setMaxSize(int maxSize) {
+        if (maxSize < 0)
+            throw new IllegalArgumentException("maxSize must not be negative: " + maxSize);
+        this.maxSize = maxSize;
+        if (entries != null) {
+            while (entries.size() > maxSize)
+                entries.remove(entries.keySet().iterator().next());
+        }
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /** @return number of verifications answered from the cache */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return number of verifications that had to be done */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /** Drops all entries and resets the counters */
+    public synchronized void clear() {
+        entries.clear();
+        hits = 0;
+        misses = 0;
+    }
+}
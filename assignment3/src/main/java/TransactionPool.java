@@ -1,38 +1,570 @@
-
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
 
+/**
+ * Transactions waiting to be mined, ordered by fee rate.
+ *
+ * The fee of a transaction is what its inputs are worth minus its outputs, its fee rate the fee
+ * per byte of {@link Transaction#getRawTx()}. An input is valued from the output it spends, found
+ * among the pool's transactions or in the {@link UTXOPool} passed to
+ * {@link #addTransaction(Transaction, UTXOPool)}. An input that cannot be valued counts as nothing
+ * until the transaction it spends from joins the pool.
+ *
+ * A transaction can only be mined together with the pool transactions it spends from, its
+ * ancestors, and it cannot stay in the pool without them. So blocks are filled best ancestor
+ * package first (the fee rate of a transaction with all its ancestors), and when the pool is over
+ * its size cap the transaction with the worst descendant package goes, descendants included. Both
+ * scores are kept in sorted indexes, updated as transactions come and go. An index from spent
+ * outpoints to the pool transactions spending them links parents and children in whichever order
+ * they arrive, keeps conflicting transactions out of the same block, and finds what a new block
+ * confirms or makes impossible, see {@link #removeConfirmed(Block)}.
+ *
+ * The pool is safe for use from many threads; every method holds the pool's monitor, which
+ * callers can also take to make several calls at once. {@link BlockChain} takes it holding no
+ * other lock, so such a caller may add blocks meanwhile.
+ */
 public class TransactionPool {
 
-    private HashMap<ByteArrayWrapper, Transaction> H;
+    /** default cap on the total size of the transactions in a pool, in bytes */
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private static final class Entry {
+        final Transaction tx;
+        final ByteArrayWrapper hash;
+        final long size;
+        /** order of arrival, breaks ties between equal fee rates */
+        final long sequence;
+        long fee;
+        /** outpoints of the inputs that could not be valued yet, null if there are none */
+        List<UTXO> unvalued;
+
+        final Set<Entry> parents = new HashSet<Entry>();
+        final Set<Entry> children = new HashSet<Entry>();
+
+        /** fee and size of this entry with all its ancestors */
+        long ancestorFee;
+        long ancestorSize;
+        /** fee and size of this entry with all its descendants */
+        long descendantFee;
+        long descendantSize;
+
+        Entry(Transaction tx, ByteArrayWrapper hash, long size, long sequence) {
+            this.tx = tx;
+            this.hash = hash;
+            this.size = size;
+            this.sequence = sequence;
+        }
+    }
+
+    /** A package whose ancestors are partly in the block being built, with what remains of it */
+    private static final class Candidate {
+        final Entry entry;
+        final long fee;
+        final long size;
+
+        Candidate(Entry entry, long fee, long size) {
+            this.entry = entry;
+            this.fee = fee;
+            this.size = size;
+        }
+    }
+
+    /** @return a positive number if the first fee rate is higher, older first when equal */
+    private static int compareRates(long fee1, long size1, long sequence1, long fee2, long size2, long sequence2) {
+        int c = Double.compare((double) fee1 / size1, (double) fee2 / size2);
+        return c != 0 ? c : Long.compare(sequence2, sequence1);
+    }
+
+    /** best ancestor package first */
+    private static final Comparator<Entry> BY_ANCESTOR_SCORE = (a, b) -> compareRates(b.ancestorFee,
+            b.ancestorSize, b.sequence, a.ancestorFee, a.ancestorSize, a.sequence);
+
+    /** worst descendant package first */
+    private static final Comparator<Entry> BY_DESCENDANT_SCORE = (a, b) -> compareRates(a.descendantFee,
+            a.descendantSize, a.sequence, b.descendantFee, b.descendantSize, b.sequence);
+
+    private static final Comparator<Candidate> BY_CANDIDATE_SCORE = (a, b) -> compareRates(b.fee, b.size,
+            b.entry.sequence, a.fee, a.size, a.entry.sequence);
+
+    private HashMap<ByteArrayWrapper, Entry> H;
+    /** pool transactions spending each outpoint, conflicting with each other if there are several */
+    private HashMap<UTXO, List<Entry>> spenders;
+    private TreeSet<Entry> byAncestorScore;
+    private TreeSet<Entry> byDescendantScore;
+
+    private long maxBytes;
+    private long totalBytes;
+    private long nextSequence;
 
     public TransactionPool() {
-        H = new HashMap<ByteArrayWrapper, Transaction>();
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /** Creates an empty pool holding at most {@code maxBytes} of transactions */
+    public TransactionPool(long maxBytes) {
+        H = new HashMap<ByteArrayWrapper, Entry>();
+        spenders = new HashMap<UTXO, List<Entry>>();
+        byAncestorScore = new TreeSet<Entry>(BY_ANCESTOR_SCORE);
+        byDescendantScore = new TreeSet<Entry>(BY_DESCENDANT_SCORE);
+        setMaxBytes(maxBytes);
     }
 
     public TransactionPool(TransactionPool txPool) {
-        H = new HashMap<ByteArrayWrapper, Transaction>(txPool.H);
+        this(txPool.maxBytes);
+        synchronized (txPool) {
+            HashMap<Entry, Entry> copies = new HashMap<Entry, Entry>();
+            for (Entry e : txPool.H.values()) {
+                Entry copy = new Entry(e.tx, e.hash, e.size, e.sequence);
+                copy.fee = e.fee;
+                copy.unvalued = e.unvalued == null ? null : new ArrayList<UTXO>(e.unvalued);
+                copy.ancestorFee = e.ancestorFee;
+                copy.ancestorSize = e.ancestorSize;
+                copy.descendantFee = e.descendantFee;
+                copy.descendantSize = e.descendantSize;
+                copies.put(e, copy);
+                H.put(copy.hash, copy);
+            }
+            for (Entry e : txPool.H.values()) {
+                Entry copy = copies.get(e);
+                for (Entry p : e.parents)
+                    copy.parents.add(copies.get(p));
+                for (Entry c : e.children)
+                    copy.children.add(copies.get(c));
+            }
+            for (UTXO u : txPool.spenders.keySet()) {
+                List<Entry> list = new ArrayList<Entry>();
+                for (Entry e : txPool.spenders.get(u))
+                    list.add(copies.get(e));
+                spenders.put(u, list);
+            }
+            index(H.values());
+            totalBytes = txPool.totalBytes;
+            nextSequence = txPool.nextSequence;
+        }
     }
 
-    public void addTransaction(Transaction tx) {
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Changes the size cap, evicting the worst packages if the pool is over it */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException("maxBytes must not be negative: " + maxBytes);
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /** @return the total size of the transactions in the pool, in bytes */
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    /** @return the number of transactions in the pool */
+    public synchronized int size() {
+        return H.size();
+    }
+
+    /**
+     * Adds {@code tx}, valuing its inputs from the pool's transactions only. Same as
+     * {@link #addTransaction(Transaction, UTXOPool)} without a {@code UTXOPool}.
+     */
+    public synchronized void addTransaction(Transaction tx) {
+        addTransaction(tx, null);
+    }
+
+    /**
+     * Adds {@code tx} unless it is already in the pool, valuing its inputs from the outputs of the
+     * pool's transactions or else from {@code utxoPool}, which may be null. A transaction with an
+     * amount that is not a number is never added. If the pool goes over its size cap, the packages
+     * with the worst descendant fee rate are evicted, possibly {@code tx} itself.
+     */
+    public synchronized void addTransaction(Transaction tx, UTXOPool utxoPool) {
         ByteArrayWrapper hash = new ByteArrayWrapper(tx.getHash());
-        H.put(hash, tx);
+        if (H.containsKey(hash))
+            return;
+
+        Entry e = new Entry(tx, hash, Math.max(1, tx.getRawTxLength()), nextSequence);
+        List<UTXO> outpoints = new ArrayList<UTXO>();
+        try {
+            long fee = 0;
+            for (Transaction.Input in : tx.getInputs()) {
+                if (in.prevTxHash == null)
+                    continue;
+                UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
+                outpoints.add(u);
+                Entry parent = H.get(new ByteArrayWrapper(in.prevTxHash));
+                Transaction.Output out = null;
+                if (parent != null && in.outputIndex >= 0 && in.outputIndex < parent.tx.numOutputs()) {
+                    out = parent.tx.getOutput(in.outputIndex);
+                    e.parents.add(parent);
+                } else if (utxoPool != null) {
+                    out = utxoPool.getTxOutput(u);
+                }
+                if (out != null) {
+                    fee = Math.addExact(fee, out.getUnits());
+                } else {
+                    if (e.unvalued == null)
+                        e.unvalued = new ArrayList<UTXO>();
+                    e.unvalued.add(u);
+                }
+            }
+            for (Transaction.Output out : tx.getOutputs())
+                fee = Math.subtractExact(fee, out.getUnits());
+            e.fee = fee;
+        } catch (ArithmeticException ex) {
+            // it could never be mined
+            return;
+        }
+
+        nextSequence++;
+        H.put(hash, e);
+        totalBytes += e.size;
+        for (UTXO u : outpoints) {
+            List<Entry> list = spenders.get(u);
+            if (list == null) {
+                list = new ArrayList<Entry>(1);
+                spenders.put(u, list);
+            }
+            list.add(e);
+        }
+        for (Entry parent : e.parents)
+            parent.children.add(e);
+
+        // children that arrived first
+        for (int i = 0; i < tx.numOutputs(); i++) {
+            UTXO u = new UTXO(tx.getHash(), i);
+            List<Entry> list = spenders.get(u);
+            if (list == null)
+                continue;
+            for (Entry c : list) {
+                if (c == e)
+                    continue;
+                if (c.unvalued != null && c.unvalued.remove(u))
+                    c.fee += tx.getOutput(i).getUnits();
+                c.parents.add(e);
+                e.children.add(c);
+            }
+        }
+
+        Set<Entry> ancestors = ancestors(e);
+        Set<Entry> descendants = descendants(e);
+        if (descendants.isEmpty()) {
+            unindex(ancestors);
+            e.ancestorFee = e.fee;
+            e.ancestorSize = e.size;
+            for (Entry a : ancestors) {
+                e.ancestorFee += a.fee;
+                e.ancestorSize += a.size;
+                a.descendantFee += e.fee;
+                a.descendantSize += e.size;
+            }
+            e.descendantFee = e.fee;
+            e.descendantSize = e.size;
+            ancestors.add(e);
+            index(ancestors);
+        } else {
+            // the fees of children valued just now also count for their other ancestors
+            Set<Entry> changed = new HashSet<Entry>(descendants);
+            for (Entry d : descendants)
+                changed.addAll(ancestors(d));
+            unindex(changed);
+            for (Entry x : changed)
+                recompute(x);
+            index(changed);
+        }
+        evict();
     }
 
-    public void removeTransaction(byte[] txHash) {
-        ByteArrayWrapper hash = new ByteArrayWrapper(txHash);
-        H.remove(hash);
+    /** Removes the transaction with hash {@code txHash}, its descendants stay in the pool */
+    public synchronized void removeTransaction(byte[] txHash) {
+        Entry e = H.get(new ByteArrayWrapper(txHash));
+        if (e != null)
+            remove(e);
+    }
+
+    /**
+     * Removes the transactions of {@code block}, now confirmed, and the transactions spending an
+     * outpoint also spent by the block, which can never be confirmed any more, with their
+     * descendants. Takes time proportional to the block and to what is removed.
+     */
+    public synchronized void removeConfirmed(Block block) {
+        for (Transaction tx : block.getTransactions()) {
+            Entry confirmed = tx.getHash() == null ? null : H.get(new ByteArrayWrapper(tx.getHash()));
+            if (confirmed != null)
+                remove(confirmed);
+            for (Transaction.Input in : tx.getInputs()) {
+                if (in.prevTxHash == null)
+                    continue;
+                List<Entry> conflicts = spenders.get(new UTXO(in.prevTxHash, in.outputIndex));
+                if (conflicts != null)
+                    removeWithDescendants(new ArrayList<Entry>(conflicts));
+            }
+        }
+    }
+
+    private void removeWithDescendants(List<Entry> entries) {
+        List<Entry> leavesFirst = new ArrayList<Entry>();
+        Set<Entry> seen = new HashSet<Entry>();
+        for (Entry e : entries)
+            addLeavesFirst(e, seen, leavesFirst);
+        for (Entry x : leavesFirst)
+            remove(x);
     }
 
-    public Transaction getTransaction(byte[] txHash) {
+    private void remove(Entry e) {
+        Set<Entry> ancestors = ancestors(e);
+        Set<Entry> descendants = descendants(e);
+        Set<Entry> changed = new HashSet<Entry>(ancestors);
+        changed.addAll(descendants);
+        unindex(changed);
+        byAncestorScore.remove(e);
+        byDescendantScore.remove(e);
+
+        for (Entry p : e.parents)
+            p.children.remove(e);
+        for (Entry c : e.children)
+            c.parents.remove(e);
+
+        // the first two cases are the common ones, a confirmed root and an evicted leaf
+        if (ancestors.isEmpty()) {
+            for (Entry d : descendants) {
+                d.ancestorFee -= e.fee;
+                d.ancestorSize -= e.size;
+            }
+        } else if (descendants.isEmpty()) {
+            for (Entry a : ancestors) {
+                a.descendantFee -= e.fee;
+                a.descendantSize -= e.size;
+            }
+        } else {
+            for (Entry x : changed)
+                recompute(x);
+        }
+        index(changed);
+
+        H.remove(e.hash);
+        totalBytes -= e.size;
+        for (Transaction.Input in : e.tx.getInputs()) {
+            if (in.prevTxHash == null)
+                continue;
+            UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
+            List<Entry> list = spenders.get(u);
+            if (list != null && list.remove(e) && list.isEmpty())
+                spenders.remove(u);
+        }
+    }
+
+    private void evict() {
+        while (totalBytes > maxBytes && !byDescendantScore.isEmpty())
+            removeWithDescendants(Collections.singletonList(byDescendantScore.first()));
+    }
+
+    /** Adds {@code e} and its descendants to {@code order}, every entry after its descendants */
+    private static void addLeavesFirst(Entry e, Set<Entry> seen, List<Entry> order) {
+        if (!seen.add(e))
+            return;
+        for (Entry c : e.children)
+            addLeavesFirst(c, seen, order);
+        order.add(e);
+    }
+
+    private static Set<Entry> ancestors(Entry e) {
+        return closure(e.parents, true);
+    }
+
+    private static Set<Entry> descendants(Entry e) {
+        return closure(e.children, false);
+    }
+
+    private static Set<Entry> closure(Set<Entry> start, boolean up) {
+        Set<Entry> seen = new HashSet<Entry>();
+        ArrayDeque<Entry> todo = new ArrayDeque<Entry>(start);
+        while (!todo.isEmpty()) {
+            Entry x = todo.poll();
+            if (seen.add(x))
+                todo.addAll(up ? x.parents : x.children);
+        }
+        return seen;
+    }
+
+    private static void recompute(Entry e) {
+        e.ancestorFee = e.fee;
+        e.ancestorSize = e.size;
+        for (Entry a : ancestors(e)) {
+            e.ancestorFee += a.fee;
+            e.ancestorSize += a.size;
+        }
+        e.descendantFee = e.fee;
+        e.descendantSize = e.size;
+        for (Entry d : descendants(e)) {
+            e.descendantFee += d.fee;
+            e.descendantSize += d.size;
+        }
+    }
+
+    /** Takes entries out of the sorted indexes, before their scores change */
+    private void unindex(Collection<Entry> entries) {
+        for (Entry e : entries) {
+            byAncestorScore.remove(e);
+            byDescendantScore.remove(e);
+        }
+    }
+
+    private void index(Collection<Entry> entries) {
+        for (Entry e : entries) {
+            byAncestorScore.add(e);
+            byDescendantScore.add(e);
+        }
+    }
+
+    public synchronized Transaction getTransaction(byte[] txHash) {
         ByteArrayWrapper hash = new ByteArrayWrapper(txHash);
-        return H.get(hash);
+        Entry e = H.get(hash);
+        return e == null ? null : e.tx;
     }
 
-    public ArrayList<Transaction> getTransactions() {
+    /** @return the fee of the transaction with hash {@code txHash} in units, or null if it is not in the pool */
+    public synchronized Long getFeeUnits(byte[] txHash) {
+        Entry e = H.get(new ByteArrayWrapper(txHash));
+        return e == null ? null : e.fee;
+    }
+
+    /** @return the pool transactions spending {@code utxo}, more than one if they conflict */
+    public synchronized ArrayList<Transaction> getSpenders(UTXO utxo) {
+        ArrayList<Transaction> txs = new ArrayList<Transaction>();
+        List<Entry> list = spenders.get(utxo);
+        if (list != null) {
+            for (Entry e : list)
+                txs.add(e.tx);
+        }
+        return txs;
+    }
+
+    /** @return all transactions in the pool, best ancestor package first */
+    public synchronized ArrayList<Transaction> getTransactions() {
         ArrayList<Transaction> T = new ArrayList<Transaction>();
-        for (Transaction tx : H.values())
-            T.add(tx);
+        for (Entry e : byAncestorScore)
+            T.add(e.tx);
         return T;
     }
+
+    /** Same as {@link #getBlockTemplate(int)} without a limit */
+    public synchronized ArrayList<Transaction> getBlockTemplate() {
+        return getBlockTemplate(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Picks at most {@code maxTxs} transactions for a block, best ancestor package first. Once a
+     * package is in, the packages of its descendants only count what is still missing. Parents
+     * come before their children, and a package spending an outpoint already spent by the block is
+     * skipped. Validity is not checked. Takes O(k log n) for k transactions picked out of n, plus
+     * the work of updating the descendants of what is picked.
+     */
+    public synchronized ArrayList<Transaction> getBlockTemplate(int maxTxs) {
+        ArrayList<Transaction> block = new ArrayList<Transaction>();
+        Set<Entry> included = new HashSet<Entry>();
+        // packages that did not fit, until more of their ancestors get in
+        Set<Entry> failed = new HashSet<Entry>();
+        Set<UTXO> spent = new HashSet<UTXO>();
+        HashMap<Entry, Candidate> modified = new HashMap<Entry, Candidate>();
+        PriorityQueue<Candidate> modifiedQueue = new PriorityQueue<Candidate>(BY_CANDIDATE_SCORE);
+        Iterator<Entry> unmodified = byAncestorScore.iterator();
+        Entry next = null;
+
+        while (block.size() < maxTxs) {
+            // drawn on an earlier round, it may have got in or been modified since
+            if (next != null && (included.contains(next) || failed.contains(next) || modified.containsKey(next)))
+                next = null;
+            while (next == null && unmodified.hasNext()) {
+                next = unmodified.next();
+                if (included.contains(next) || failed.contains(next) || modified.containsKey(next))
+                    next = null;
+            }
+            Candidate top = modifiedQueue.peek();
+            while (top != null && (included.contains(top.entry) || modified.get(top.entry) != top)) {
+                modifiedQueue.poll();
+                top = modifiedQueue.peek();
+            }
+
+            Entry pick;
+            if (top != null && (next == null || compareRates(top.fee, top.size, top.entry.sequence,
+                    next.ancestorFee, next.ancestorSize, next.sequence) > 0)) {
+                pick = modifiedQueue.poll().entry;
+                modified.remove(pick);
+            } else if (next != null) {
+                pick = next;
+                next = null;
+            } else {
+                break;
+            }
+
+            List<Entry> pkg = new ArrayList<Entry>();
+            addParentsFirst(pick, included, pkg, new HashSet<Entry>());
+            if (block.size() + pkg.size() > maxTxs || !spendsFresh(pkg, spent)) {
+                failed.add(pick);
+                continue;
+            }
+
+            for (Entry x : pkg) {
+                block.add(x.tx);
+                included.add(x);
+                modified.remove(x);
+                for (Transaction.Input in : x.tx.getInputs()) {
+                    if (in.prevTxHash != null)
+                        spent.add(new UTXO(in.prevTxHash, in.outputIndex));
+                }
+            }
+            for (Entry x : pkg) {
+                for (Entry d : descendants(x)) {
+                    if (included.contains(d))
+                        continue;
+                    Candidate c = modified.get(d);
+                    long fee = c == null ? d.ancestorFee : c.fee;
+                    long size = c == null ? d.ancestorSize : c.size;
+                    c = new Candidate(d, fee - x.fee, size - x.size);
+                    modified.put(d, c);
+                    modifiedQueue.add(c);
+                    failed.remove(d);
+                }
+            }
+        }
+        return block;
+    }
+
+    /** Adds the ancestors of {@code e} that are not {@code included} yet and then {@code e} */
+    private static void addParentsFirst(Entry e, Set<Entry> included, List<Entry> pkg, Set<Entry> seen) {
+        if (!seen.add(e))
+            return;
+        for (Entry p : e.parents) {
+            if (!included.contains(p))
+                addParentsFirst(p, included, pkg, seen);
+        }
+        pkg.add(e);
+    }
+
+    /** @return true if no two transactions of the block spend the same outpoint with {@code pkg} in */
+    private static boolean spendsFresh(List<Entry> pkg, Set<UTXO> spent) {
+        Set<UTXO> own = new HashSet<UTXO>();
+        for (Entry x : pkg) {
+            for (Transaction.Input in : x.tx.getInputs()) {
+                if (in.prevTxHash == null)
+                    continue;
+                UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
+                if (spent.contains(u) || !own.add(u))
+                    return false;
+            }
+        }
+        return true;
+    }
 }
@@ -1,8 +1,18 @@
+import java.security.PublicKey;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 public class TxHandler {
     public UTXOPool pool;
+
+    /** number of threads verifying signatures in {@link #handleTxs}, 1 means sequential */
+    private int parallelism;
+
+    /** successful verifications shared across handlers, null to always verify */
+    private SignatureCache signatureCache = SignatureCache.shared();
     
     /**
      * Creates a public ledger whose current UTXOPool (collection of unspent transaction outputs) is
@@ -11,7 +21,36 @@ public class TxHandler {
      */
     
     public TxHandler(UTXOPool utxoPool) {
+        this(utxoPool, 1);
+    }
+
+    /**
+     * Same as {@link #TxHandler(UTXOPool)}, but checks signatures in {@link #handleTxs} with
+     * {@code parallelism} threads. A parallelism of 1, the default, keeps everything on the
+     * calling thread.
+     */
+    public TxHandler(UTXOPool utxoPool, int parallelism) {
         pool = new UTXOPool(utxoPool);
+        setParallelism(parallelism);
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    public SignatureCache getSignatureCache() {
+        return signatureCache;
+    }
+
+    /** Use {@code signatureCache} for signature checks, or no cache at all if it is null */
+    public void setSignatureCache(SignatureCache signatureCache) {
+        this.signatureCache = signatureCache;
     }
 
     public UTXOPool getUTXOPool() {
@@ -19,14 +58,30 @@ public class TxHandler {
     };
     
     public boolean isValidTx(Transaction tx) {
+        return isValidTx(tx, null, -1);
+    }
+
+    /**
+     * Validates {@code tx}, the {@code t}-th transaction of the epoch, reusing the signature
+     * results in {@code signatures} when they were computed against the same key.
+     */
+    private boolean isValidTx(Transaction tx, ParallelSignatureVerifier.Result signatures, int t) {
+        try {
+            return checkTx(tx, signatures, t);
+        } catch (ArithmeticException e) {
+            // an amount that is not a number or overflows a long
+            return false;
+        }
+    }
+
+    private boolean checkTx(Transaction tx, ParallelSignatureVerifier.Result signatures, int t) {
         Set<UTXO> setUTXO = new HashSet<UTXO>();
-        double inputSum = 0;
-        double outputSum = 0;
+        long inputSum = 0;
+        long outputSum = 0;
         if (tx.isCoinbase()) return true;
         for (int i = 0; i < tx.numInputs(); i++) {
             Transaction.Input in = tx.getInput(i);
-            byte[] data = tx.getRawDataToSign(i);
-            
+
             UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
 
             // * (3) no UTXO is claimed multiple times by {@code tx}
@@ -42,11 +97,14 @@ public class TxHandler {
             }
 
             // * (2) the signatures on each input of {@code tx} are valid,
-            if (!Crypto.verifySignature(out.address, data, in.signature)) {
+            Boolean verified = signatures == null ? null : signatures.lookup(t, tx, i, out.address);
+            if (verified == null)
+                verified = verifySignature(out.address, tx.getRawDataToSign(i), in.signature);
+            if (!verified) {
                 return false;
             }
             // 
-            inputSum += out.value;
+            inputSum = Math.addExact(inputSum, out.getUnitsDown());
         }
 
         for (Transaction.Output out: tx.getOutputs()) {
@@ -55,7 +113,7 @@ public class TxHandler {
             if (out.value < 0) {
                 return false;
             }
-            outputSum += out.value;
+            outputSum = Math.addExact(outputSum, out.getUnitsUp());
         }
         // * (5) the sum of {@code tx}s input values is greater than or equal to the sum of its output
         if (outputSum > inputSum) {
@@ -66,17 +124,59 @@ public class TxHandler {
     }
 
 
+    private boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
+        if (signatureCache == null)
+            return Crypto.verifySignature(pubKey, message, signature);
+        return signatureCache.verifySignature(pubKey, message, signature);
+    }
+
     /**
      * Handles each epoch by receiving an unordered array of proposed transactions, checking each
      * transaction for correctness, returning a mutually valid array of accepted transactions, and
      * updating the current UTXO pool as appropriate.
+     *
+     * Transactions are checked in dependency order: a transaction spending an output of another
+     * transaction of the epoch is checked after that one, wherever it appears in
+     * {@code possibleTxs}. Among the transactions ready to be checked, the one that comes first in
+     * {@code possibleTxs} goes first. Of two transactions spending the same output, the one ready
+     * first therefore wins, and of two ready together the earlier one: a transaction still waiting
+     * for a parent of the epoch loses the output to a later one that is ready before it.
+     * Transactions that spend each other's outputs in a cycle are rejected. Accepted
+     * transactions are returned in the order they were applied, parents before children.
+     *
+     * With a parallelism above 1 all input signatures are checked up front on a fork-join pool;
+     * the ordered pass below then only does the UTXO bookkeeping.
      */
     public Transaction[] handleTxs(Transaction[] possibleTxs) {
-        Set<Transaction> txs = new HashSet<Transaction>();
-        Set<Transaction.Input> inputs = new HashSet<Transaction.Input>();
-        
-        for (Transaction tx: possibleTxs) {
-            if (!isValidTx(tx)) {
+        // a set, as the same transaction may be proposed twice
+        Set<Transaction> txs = new LinkedHashSet<Transaction>();
+
+        ParallelSignatureVerifier.Result signatures = null;
+        if (parallelism > 1)
+            signatures = ParallelSignatureVerifier.forParallelism(parallelism)
+                    .verify(possibleTxs, pool, signatureCache);
+
+        int[][] dependents = dependents(possibleTxs);
+        int[] waiting = new int[possibleTxs.length];
+        for (int[] children : dependents) {
+            for (int c : children)
+                waiting[c]++;
+        }
+        PriorityQueue<Integer> ready = new PriorityQueue<Integer>();
+        for (int t = 0; t < possibleTxs.length; t++) {
+            if (waiting[t] == 0)
+                ready.add(t);
+        }
+
+        while (!ready.isEmpty()) {
+            int t = ready.poll();
+            Transaction tx = possibleTxs[t];
+            // children of a rejected transaction are still checked, and fail on the missing outputs
+            for (int c : dependents[t]) {
+                if (--waiting[c] == 0)
+                    ready.add(c);
+            }
+            if (!isValidTx(tx, signatures, t)) {
                 continue;
             }
             
@@ -95,8 +195,44 @@ public class TxHandler {
             txs.add(tx);
         }
 
-        
         return txs.toArray(new Transaction[txs.size()]);
     }
 
+    /**
+     * @return for each transaction of {@code txs}, the positions of the transactions spending its
+     *         outputs, once per spending input. Of several transactions with the same hash only the
+     *         first one counts as a parent.
+     */
+    private static int[][] dependents(Transaction[] txs) {
+        HashMap<ByteArrayWrapper, Integer> positions = new HashMap<ByteArrayWrapper, Integer>();
+        for (int t = txs.length - 1; t >= 0; t--) {
+            if (txs[t].getHash() != null)
+                positions.put(new ByteArrayWrapper(txs[t].getHash()), t);
+        }
+
+        int[][] parents = new int[txs.length][];
+        int[] counts = new int[txs.length];
+        for (int t = 0; t < txs.length; t++) {
+            parents[t] = new int[txs[t].numInputs()];
+            for (int i = 0; i < parents[t].length; i++) {
+                byte[] prevTxHash = txs[t].getInput(i).prevTxHash;
+                Integer parent = prevTxHash == null ? null : positions.get(new ByteArrayWrapper(prevTxHash));
+                parents[t][i] = parent == null ? -1 : parent;
+                if (parent != null)
+                    counts[parent]++;
+            }
+        }
+
+        int[][] dependents = new int[txs.length][];
+        for (int t = 0; t < txs.length; t++)
+            dependents[t] = new int[counts[t]];
+        for (int t = 0; t < txs.length; t++) {
+            for (int parent : parents[t]) {
+                if (parent >= 0)
+                    dependents[parent][--counts[parent]] = t;
+            }
+        }
+        return dependents;
+    }
+
 }
@@ -1,32 +1,61 @@
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Set;
 
 public class UTXOPool {
 
     /**
-     * The current collection of UTXOs, with each one mapped to its corresponding transaction output
+     * The current collection of UTXOs, with each one mapped to its corresponding transaction output.
+     * Copies of the pool share it, see {@link PersistentUTXOMap}.
      */
-    private HashMap<UTXO, Transaction.Output> H;
+    private PersistentUTXOMap H;
+
+    /** Alternative backend used instead of {@code H} by pools created with {@link #withFlatIndex} */
+    private FlatUTXOIndex flat;
 
     /** Creates a new empty UTXOPool */
     public UTXOPool() {
-        H = new HashMap<UTXO, Transaction.Output>();
+        H = new PersistentUTXOMap();
     }
 
-    /** Creates a new UTXOPool that is a copy of {@code uPool} */
+    /**
+     * Creates a new UTXOPool that is a copy of {@code uPool}. The copy takes O(1) and shares
+     * unchanged entries with {@code uPool}; pools created with {@link #withFlatIndex} are copied
+     * in full.
+     */
     public UTXOPool(UTXOPool uPool) {
-        H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        if (uPool.flat != null)
+            flat = new FlatUTXOIndex(uPool.flat);
+        else
+            H = new PersistentUTXOMap(uPool.H);
+    }
+
+    /**
+     * Creates a new empty UTXOPool backed by a {@link FlatUTXOIndex} sized for
+     * {@code expectedSize} UTXOs. Copies of it are flat as well.
+     */
+    public static UTXOPool withFlatIndex(int expectedSize) {
+        UTXOPool pool = new UTXOPool();
+        pool.H = null;
+        pool.flat = new FlatUTXOIndex(expectedSize);
+        return pool;
     }
 
-    /** Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool */
+    /**
+     * Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool.
+     * {@code txOut} must not be null.
+     */
     public void addUTXO(UTXO utxo, Transaction.Output txOut) {
-        H.put(utxo, txOut);
+        if (flat != null)
+            flat.put(utxo.getTxHash(), utxo.getIndex(), txOut);
+        else
+            H.put(utxo, txOut);
     }
 
     /** Removes the UTXO {@code utxo} from the pool */
     public void removeUTXO(UTXO utxo) {
-        H.remove(utxo);
+        if (flat != null)
+            flat.remove(utxo.getTxHash(), utxo.getIndex());
+        else
+            H.remove(utxo);
     }
 
     /**
@@ -34,21 +63,49 @@ public class UTXOPool {
      *         not in the pool.
      */
     public Transaction.Output getTxOutput(UTXO ut) {
+        if (flat != null)
+            return flat.get(ut.getTxHash(), ut.getIndex());
         return H.get(ut);
     }
 
+    /**
+     * @return the output {@code index} of the transaction with hash {@code txHash}, or null if it is
+     *         not in the pool. Answered without allocating.
+     */
+    public Transaction.Output getTxOutput(byte[] txHash, int index) {
+        if (flat != null)
+            return flat.get(txHash, index);
+        return H.get(txHash, index);
+    }
+
     /** @return true if UTXO {@code utxo} is in the pool and false otherwise */
     public boolean contains(UTXO utxo) {
+        if (flat != null)
+            return flat.contains(utxo.getTxHash(), utxo.getIndex());
         return H.containsKey(utxo);
     }
 
+    /** @return the number of UTXOs in the pool */
+    public int size() {
+        return flat != null ? flat.size() : H.size();
+    }
+
+    /**
+     * @return the exact sum of all outputs in the pool, in {@link Transaction#UNITS_PER_COIN}
+     *         units
+     * @throws ArithmeticException if an output value is not a number or the sum overflows
+     */
+    public long getTotalUnits() {
+        long total = 0;
+        for (Transaction.Output out : flat != null ? flat.getAllOutputs() : H.values())
+            total = Math.addExact(total, out.getUnits());
+        return total;
+    }
+
     /** Returns an {@code ArrayList} of all UTXOs in the pool */
     public ArrayList<UTXO> getAllUTXO() {
-        Set<UTXO> setUTXO = H.keySet();
-        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>();
-        for (UTXO ut : setUTXO) {
-            allUTXO.add(ut);
-        }
-        return allUTXO;
+        if (flat != null)
+            return flat.getAllUTXO();
+        return H.keys();
     }
 }
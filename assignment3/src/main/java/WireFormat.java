@@ -0,0 +1,469 @@
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.RSAPublicKeySpec;
+
+/**
+ * Versioned binary format for {@link Transaction} and {@link Block}, and a decoder that reads it in
+ * place from a {@code ByteBuffer} (heap, direct or memory-mapped).
+ *
+ * All integers are big-endian. A byte string is written as its int length followed by its bytes; a
+ * length of -1 stands for null. Each input and output puts its two lengths first and its fields
+ * after them, in exactly the order {@link Transaction#getRawTx} serializes them:
+ *
+ * <pre>
+ * transaction: byte version, byte flags (1 = coinbase), int #inputs, int #outputs,
+ *              inputs, outputs
+ * input:       int prevTxHash length, int signature length,
+ *              prevTxHash, int outputIndex, signature
+ * output:      int exponent length, int modulus length,
+ *              double value, exponent, modulus
+ * block:       byte version, prevBlockHash as byte string,
+ *              int length + coinbase transaction, int #txs, (int length + transaction)*
+ * </pre>
+ *
+ * Because of that layout the raw bytes of every input and output are contiguous in the buffer, so
+ * the views hash a transaction or block straight from the buffer and get the same hash as
+ * {@link Transaction#finalize} and {@link Block#finalize}, without decoding anything.
+ *
+ * Decoding only scans the length fields, checking each against the bytes left before moving past
+ * it; inputs, outputs and block transactions are views that read their fields from the buffer when
+ * asked. A block is rejected when the length prefix of one of its transactions differs from the
+ * length of the transaction's own encoding.
+ */
+public class WireFormat {
+
+    public static final byte VERSION = 1;
+
+    private static final byte FLAG_COINBASE = 1;
+
+    private static final ThreadLocal<KeyFactory> RSA_KEYS = ThreadLocal.withInitial(() -> {
+        try {
+            return KeyFactory.getInstance("RSA");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("RSA is not available", e);
+        }
+    });
+
+    private WireFormat() {
+    }
+
+    private static int lengthOf(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putBytes(ByteBuffer b, byte[] bytes) {
+        if (bytes != null)
+            b.put(bytes);
+    }
+
+    /** @return the exact number of bytes {@link #encode(Transaction, ByteBuffer)} writes */
+    public static int encodedLength(Transaction tx) {
+        int length = 2 + 2 * Integer.BYTES;
+        for (Transaction.Input in : tx.getInputs())
+            length += 3 * Integer.BYTES + lengthOf(in.prevTxHash) + lengthOf(in.signature);
+        for (Transaction.Output op : tx.getOutputs())
+            length += 2 * Integer.BYTES + Double.BYTES + op.getEncodedAddress().length;
+        return length;
+    }
+
+    /** Writes {@code tx} at the position of {@code b} */
+    public static void encode(Transaction tx, ByteBuffer b) {
+        b.put(VERSION);
+        b.put(tx.isCoinbase() ? FLAG_COINBASE : 0);
+        b.putInt(tx.numInputs());
+        b.putInt(tx.numOutputs());
+        for (Transaction.Input in : tx.getInputs()) {
+            b.putInt(in.prevTxHash == null ? -1 : in.prevTxHash.length);
+            b.putInt(in.signature == null ? -1 : in.signature.length);
+            putBytes(b, in.prevTxHash);
+            b.putInt(in.outputIndex);
+            putBytes(b, in.signature);
+        }
+        for (Transaction.Output op : tx.getOutputs()) {
+            byte[] address = op.getEncodedAddress();
+            int exponentLength = op.getEncodedExponentLength();
+            b.putInt(exponentLength);
+            b.putInt(address.length - exponentLength);
+            b.putDouble(op.value);
+            b.put(address);
+        }
+    }
+
+    public static byte[] encode(Transaction tx) {
+        ByteBuffer b = ByteBuffer.allocate(encodedLength(tx));
+        encode(tx, b);
+        return b.array();
+    }
+
+    /** @return the exact number of bytes {@link #encode(Block, ByteBuffer)} writes */
+    public static int encodedLength(Block block) {
+        int length = 1 + Integer.BYTES + lengthOf(block.getPrevBlockHash());
+        length += Integer.BYTES + encodedLength(block.getCoinbase());
+        length += Integer.BYTES;
+        for (Transaction tx : block.getTransactions())
+            length += Integer.BYTES + encodedLength(tx);
+        return length;
+    }
+
+    /** Writes {@code block} at the position of {@code b} */
+    public static void encode(Block block, ByteBuffer b) {
+        byte[] prevBlockHash = block.getPrevBlockHash();
+        b.put(VERSION);
+        b.putInt(prevBlockHash == null ? -1 : prevBlockHash.length);
+        putBytes(b, prevBlockHash);
+        b.putInt(encodedLength(block.getCoinbase()));
+        encode(block.getCoinbase(), b);
+        b.putInt(block.getTransactions().size());
+        for (Transaction tx : block.getTransactions()) {
+            b.putInt(encodedLength(tx));
+            encode(tx, b);
+        }
+    }
+
+    public static byte[] encode(Block block) {
+        ByteBuffer b = ByteBuffer.allocate(encodedLength(block));
+        encode(block, b);
+        return b.array();
+    }
+
+    /**
+     * Decodes the transaction at the position of {@code b} and moves the position past it. The
+     * returned view reads from {@code b}'s content, which must not change while the view is used.
+     *
+     * @throws IllegalArgumentException if the bytes are not a transaction of a known version
+     */
+    public static TransactionView decodeTransaction(ByteBuffer b) {
+        try {
+            TransactionView view = new TransactionView(b.slice());
+            b.position(b.position() + view.length);
+            return view;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated transaction", e);
+        }
+    }
+
+    /**
+     * Decodes the block at the position of {@code b} and moves the position past it. The
+     * returned view reads from {@code b}'s content, which must not change while the view is used.
+     *
+     * @throws IllegalArgumentException if the bytes are not a block of a known version
+     */
+    public static BlockView decodeBlock(ByteBuffer b) {
+        try {
+            BlockView view = new BlockView(b.slice());
+            b.position(b.position() + view.length);
+            return view;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("truncated block", e);
+        }
+    }
+
+    private static void checkVersion(byte version) {
+        if (version != VERSION)
+            throw new IllegalArgumentException("unsupported wire format version " + version);
+    }
+
+    private static int checkLength(int length) {
+        if (length < -1)
+            throw new IllegalArgumentException("negative length " + length);
+        return length;
+    }
+
+    /**
+     * @return {@code offset + length}, once it is checked that {@code length} is not negative and
+     *         that as many bytes are left in {@code b} from {@code offset}, which is not past the
+     *         limit. Done one field at a time, so no sum of lengths can overflow.
+     * @throws IllegalArgumentException naming {@code what} otherwise
+     */
+    private static int skip(ByteBuffer b, int offset, int length, String what) {
+        if (length < 0 || length > b.limit() - offset)
+            throw new IllegalArgumentException("truncated " + what);
+        return offset + length;
+    }
+
+    /** @return a copy of the {@code length} bytes at {@code offset}, or null if length is -1 */
+    private static byte[] copy(ByteBuffer b, int offset, int length) {
+        if (length < 0)
+            return null;
+        skip(b, offset, length, "field");
+        byte[] bytes = new byte[length];
+        ByteBuffer d = b.duplicate();
+        d.position(offset);
+        d.get(bytes);
+        return bytes;
+    }
+
+    /** Feeds {@code length} bytes at {@code offset} into {@code md} without copying them out */
+    private static void update(MessageDigest md, ByteBuffer b, int offset, int length) {
+        ByteBuffer d = b.duplicate();
+        d.limit(offset + length);
+        d.position(offset);
+        md.update(d);
+    }
+
+    /** A transaction read in place from its wire encoding */
+    public static class TransactionView {
+        private final ByteBuffer b;
+        private final int length;
+        private final boolean coinbase;
+        /** offsets of the first length field of each input and output */
+        private final int[] inputs;
+        private final int[] outputs;
+
+        private TransactionView(ByteBuffer b) {
+            this.b = b;
+            checkVersion(b.get(0));
+            coinbase = (b.get(1) & FLAG_COINBASE) != 0;
+            int numInputs = b.getInt(2);
+            int numOutputs = b.getInt(2 + Integer.BYTES);
+            if (numInputs < 0 || numOutputs < 0)
+                throw new IllegalArgumentException("negative input or output count");
+            int offset = 2 + 2 * Integer.BYTES;
+            // the fixed-size fields alone must fit before the offset arrays are allocated
+            long fixed = (long) numInputs * 3 * Integer.BYTES
+                    + (long) numOutputs * (2 * Integer.BYTES + Double.BYTES);
+            if (fixed > b.limit() - offset)
+                throw new IllegalArgumentException("truncated transaction");
+            inputs = new int[numInputs];
+            for (int i = 0; i < numInputs; i++) {
+                inputs[i] = offset;
+                int prevTxHash = checkLength(b.getInt(offset));
+                int signature = checkLength(b.getInt(offset + Integer.BYTES));
+                offset = skip(b, offset, 3 * Integer.BYTES, "input");
+                offset = skip(b, offset, Math.max(0, prevTxHash), "input");
+                offset = skip(b, offset, Math.max(0, signature), "input");
+            }
+            outputs = new int[numOutputs];
+            for (int i = 0; i < numOutputs; i++) {
+                outputs[i] = offset;
+                int exponent = b.getInt(offset);
+                int modulus = b.getInt(offset + Integer.BYTES);
+                if (exponent < 0 || modulus < 0)
+                    throw new IllegalArgumentException("negative key length");
+                offset = skip(b, offset, 2 * Integer.BYTES + Double.BYTES, "output");
+                offset = skip(b, offset, exponent, "output");
+                offset = skip(b, offset, modulus, "output");
+            }
+            length = offset;
+        }
+
+        /** @return the number of bytes of the encoding */
+        public int getEncodedLength() {
+            return length;
+        }
+
+        public boolean isCoinbase() {
+            return coinbase;
+        }
+
+        public int numInputs() {
+            return inputs.length;
+        }
+
+        public int numOutputs() {
+            return outputs.length;
+        }
+
+        public InputView getInput(int index) {
+            return new InputView(b, inputs[index]);
+        }
+
+        public OutputView getOutput(int index) {
+            return new OutputView(b, outputs[index]);
+        }
+
+        /** Feeds the bytes of {@link Transaction#getRawTx} into {@code md} */
+        void updateDigest(MessageDigest md) {
+            for (int offset : inputs) {
+                int raw = Math.max(0, b.getInt(offset)) + Integer.BYTES
+                        + Math.max(0, b.getInt(offset + Integer.BYTES));
+                update(md, b, offset + 2 * Integer.BYTES, raw);
+            }
+            for (int offset : outputs) {
+                int raw = Double.BYTES + b.getInt(offset) + b.getInt(offset + Integer.BYTES);
+                update(md, b, offset + 2 * Integer.BYTES, raw);
+            }
+        }
+
+        /** @return the hash {@link Transaction#finalize} gives the decoded transaction */
+        public byte[] computeHash() {
+            MessageDigest md = Crypto.sha256();
+            updateDigest(md);
+            return md.digest();
+        }
+
+        /** @return a finalized {@link Transaction} with the contents of this view */
+        public Transaction toTransaction() {
+            Transaction tx;
+            if (coinbase) {
+                if (inputs.length != 0 || outputs.length != 1)
+                    throw new IllegalArgumentException("coinbase must have no inputs and one output");
+                OutputView op = getOutput(0);
+                tx = new Transaction(op.getValue(), op.getAddress());
+            } else {
+                tx = new Transaction();
+                for (int i = 0; i < inputs.length; i++) {
+                    InputView in = getInput(i);
+                    tx.addInput(in.getPrevTxHash(), in.getOutputIndex());
+                    tx.addSignature(in.getSignature(), i);
+                }
+                for (int i = 0; i < outputs.length; i++) {
+                    OutputView op = getOutput(i);
+                    tx.addOutput(op.getValue(), op.getAddress());
+                }
+                tx.finalize();
+            }
+            return tx;
+        }
+    }
+
+    /** An input of a {@link TransactionView}, read on demand */
+    public static class InputView {
+        private final ByteBuffer b;
+        private final int offset;
+
+        private InputView(ByteBuffer b, int offset) {
+            this.b = b;
+            this.offset = offset;
+        }
+
+        private int prevTxHashLength() {
+            return b.getInt(offset);
+        }
+
+        public byte[] getPrevTxHash() {
+            return copy(b, offset + 2 * Integer.BYTES, prevTxHashLength());
+        }
+
+        public int getOutputIndex() {
+            return b.getInt(offset + 2 * Integer.BYTES + Math.max(0, prevTxHashLength()));
+        }
+
+        public byte[] getSignature() {
+            return copy(b, offset + 3 * Integer.BYTES + Math.max(0, prevTxHashLength()),
+                    b.getInt(offset + Integer.BYTES));
+        }
+    }
+
+    /** An output of a {@link TransactionView}, read on demand */
+    public static class OutputView {
+        private final ByteBuffer b;
+        private final int offset;
+
+        private OutputView(ByteBuffer b, int offset) {
+            this.b = b;
+            this.offset = offset;
+        }
+
+        public double getValue() {
+            return b.getDouble(offset + 2 * Integer.BYTES);
+        }
+
+        /** @return the recipient's key, rebuilt from the encoded exponent and modulus */
+        public PublicKey getAddress() {
+            int exponentLength = b.getInt(offset);
+            int modulusLength = b.getInt(offset + Integer.BYTES);
+            int start = offset + 2 * Integer.BYTES + Double.BYTES;
+            BigInteger exponent = new BigInteger(copy(b, start, exponentLength));
+            BigInteger modulus = new BigInteger(copy(b, start + exponentLength, modulusLength));
+            try {
+                return RSA_KEYS.get().generatePublic(new RSAPublicKeySpec(modulus, exponent));
+            } catch (InvalidKeySpecException e) {
+                throw new IllegalArgumentException("malformed RSA key", e);
+            }
+        }
+    }
+
+    /** A block read in place from its wire encoding */
+    public static class BlockView {
+        private final ByteBuffer b;
+        private final int length;
+        private final TransactionView coinbase;
+        private final TransactionView[] txs;
+
+        private BlockView(ByteBuffer b) {
+            this.b = b;
+            checkVersion(b.get(0));
+            int offset = skip(b, 1, Integer.BYTES, "block");
+            offset = skip(b, offset, Math.max(0, checkLength(b.getInt(1))), "block");
+            coinbase = view(offset);
+            offset = skip(b, offset, Integer.BYTES + coinbase.length, "block");
+            int numTxs = b.getInt(offset);
+            if (numTxs < 0)
+                throw new IllegalArgumentException("negative transaction count");
+            offset = skip(b, offset, Integer.BYTES, "block");
+            // each transaction takes at least its length prefix
+            if (numTxs > (b.limit() - offset) / Integer.BYTES)
+                throw new IllegalArgumentException("truncated block");
+            txs = new TransactionView[numTxs];
+            for (int i = 0; i < numTxs; i++) {
+                txs[i] = view(offset);
+                offset = skip(b, offset, Integer.BYTES + txs[i].length, "block");
+            }
+            length = offset;
+        }
+
+        /** Decodes the transaction whose length prefix is at {@code offset} */
+        private TransactionView view(int offset) {
+            int txLength = b.getInt(offset);
+            if (txLength < 0)
+                throw new IllegalArgumentException("negative transaction length");
+            int start = skip(b, offset, Integer.BYTES, "block");
+            ByteBuffer d = b.duplicate();
+            d.limit(skip(b, start, txLength, "block"));
+            d.position(start);
+            TransactionView view = new TransactionView(d.slice());
+            if (view.length != txLength)
+                throw new IllegalArgumentException("transaction length " + txLength + " does not match its "
+                        + view.length + " encoded bytes");
+            return view;
+        }
+
+        /** @return the number of bytes of the encoding */
+        public int getEncodedLength() {
+            return length;
+        }
+
+        public byte[] getPrevBlockHash() {
+            return copy(b, 1 + Integer.BYTES, b.getInt(1));
+        }
+
+        public int numTransactions() {
+            return txs.length;
+        }
+
+        public TransactionView getCoinbase() {
+            return coinbase;
+        }
+
+        public TransactionView getTransaction(int index) {
+            return txs[index];
+        }
+
+        /** @return the hash {@link Block#finalize} gives the decoded block */
+        public byte[] computeHash() {
+            MessageDigest md = Crypto.sha256();
+            int prevLength = b.getInt(1);
+            if (prevLength > 0)
+                update(md, b, 1 + Integer.BYTES, prevLength);
+            for (TransactionView tx : txs)
+                tx.updateDigest(md);
+            return md.digest();
+        }
+
+        /** @return a finalized {@link Block} with the contents of this view */
+        public Block toBlock() {
+            Block block = new Block(getPrevBlockHash(), coinbase.toTransaction());
+            for (TransactionView tx : txs)
+                block.addTransaction(tx.toTransaction());
+            block.finalize();
+            return block;
+        }
+    }
+}
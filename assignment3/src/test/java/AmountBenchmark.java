@@ -0,0 +1,88 @@
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Effects of fixed-point amounts: how well {@link Transaction.Output#hashCode()} spreads outputs
+ * compared with the old {@code (int) value * 10000} term, and the cost of summing output values as
+ * doubles versus exact units. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes AmountBenchmark [outputs] [rounds]
+ * </pre>
+ */
+public class AmountBenchmark {
+
+	private static int legacyHashCode(Transaction.Output op) {
+		int hash = 1;
+		hash = hash * 17 + (int) op.value * 10000;
+		hash = hash * 31 + ((RSAPublicKey) op.address).getPublicExponent().hashCode();
+		hash = hash * 31 + ((RSAPublicKey) op.address).getModulus().hashCode();
+		return hash;
+	}
+
+	/** @return the length of the longest chain in a table of {@code buckets} buckets */
+	private static int longestChain(int[] hashes, int buckets) {
+		int[] chains = new int[buckets];
+		int longest = 0;
+		for (int h : hashes) {
+			int spread = h ^ (h >>> 16); // as HashMap spreads hash codes
+			longest = Math.max(longest, ++chains[spread & (buckets - 1)]);
+		}
+		return longest;
+	}
+
+	private static void distribution(String name, int[] hashes) {
+		HashSet<Integer> distinct = new HashSet<Integer>();
+		for (int h : hashes)
+			distinct.add(h);
+		int buckets = Integer.highestOneBit(hashes.length) * 2;
+		System.out.printf("%-8s %8d distinct hash codes of %d, longest chain %6d in %d buckets%n", name,
+				distinct.size(), hashes.length, longestChain(hashes, buckets), buckets);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int outputs = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+		Random random = new Random(42);
+		PublicKey[] keys = SerializationBenchmark.generateKeys(4);
+		Transaction tx = new Transaction();
+		for (int i = 0; i < outputs; i++)
+			tx.addOutputUnits(random.nextInt(5 * (int) Transaction.UNITS_PER_COIN), keys[random.nextInt(keys.length)]);
+
+		int[] legacy = new int[outputs];
+		int[] current = new int[outputs];
+		for (int i = 0; i < outputs; i++) {
+			legacy[i] = legacyHashCode(tx.getOutput(i));
+			current[i] = tx.getOutput(i).hashCode();
+		}
+		System.out.println("outputs worth up to 5 coins, 4 distinct addresses:");
+		distribution("legacy", legacy);
+		distribution("units", current);
+
+		for (int warmup = 0; warmup < 2; warmup++) {
+			double doubleSum = 0;
+			long start = System.nanoTime();
+			for (int r = 0; r < rounds; r++)
+				for (Transaction.Output op : tx.getOutputs())
+					doubleSum += op.value;
+			long doubleNanos = System.nanoTime() - start;
+
+			long unitSum = 0;
+			start = System.nanoTime();
+			for (int r = 0; r < rounds; r++)
+				for (Transaction.Output op : tx.getOutputs())
+					unitSum = Math.addExact(unitSum, op.getUnits());
+			long unitNanos = System.nanoTime() - start;
+
+			if (warmup == 1) {
+				System.out.printf("double sum: %6.2f ns/output (%.8f coins, inexact)%n",
+						(double) doubleNanos / rounds / outputs, doubleSum / rounds);
+				System.out.printf("unit sum:   %6.2f ns/output (%d units, exact)%n",
+						(double) unitNanos / rounds / outputs, unitSum / rounds);
+			}
+		}
+	}
+}
@@ -0,0 +1,83 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+
+/**
+ * Heap held by a {@link BlockChain} that keeps growing: a main chain with a side block at every
+ * height, each main block spending the previous coinbase and the previous change output into one,
+ * so that the UTXO set stays the same size. With the blocks below
+ * {@code maxHeight - CUT_OFF_AGE} pruned, the heap used should level off after a few thousand
+ * blocks instead of growing with the chain. The shared {@link SignatureCache}, bounded on its own,
+ * is kept small so that it fills up early. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes BlockChainSoakBenchmark [blocks] [reportEvery]
+ * </pre>
+ */
+public class BlockChainSoakBenchmark {
+
+	private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return MEMORY.getHeapMemoryUsage().getUsed();
+	}
+
+	private static Transaction spend(KeyPair owner, Transaction coinbase, Transaction change) throws Exception {
+		Transaction tx = new Transaction();
+		tx.addInput(coinbase.getHash(), 0);
+		double value = coinbase.getOutput(0).value;
+		if (change != null) {
+			tx.addInput(change.getHash(), 0);
+			value += change.getOutput(0).value;
+		}
+		tx.addOutput(value, owner.getPublic());
+		for (int i = 0; i < tx.numInputs(); i++) {
+			Signature sig = Signature.getInstance("SHA256withRSA");
+			sig.initSign(owner.getPrivate());
+			sig.update(tx.getRawDataToSign(i));
+			tx.addSignature(sig.sign(), i);
+		}
+		tx.finalize();
+		return tx;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+		int reportEvery = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+		KeyPair miner = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		SignatureCache.shared().setMaxSize(1000);
+
+		Block genesis = new Block(null, miner.getPublic());
+		genesis.finalize();
+		BlockChain chain = new BlockChain(genesis);
+		long baseline = usedHeap();
+
+		Block tip = genesis;
+		Transaction change = null;
+		long start = System.nanoTime();
+		for (int height = 1; height <= blocks; height++) {
+			Transaction tx = spend(miner, tip.getCoinbase(), change);
+			Block next = new Block(tip.getHash(), miner.getPublic());
+			next.addTransaction(tx);
+			next.finalize();
+			// a side block, told apart from its siblings by a coinbase-style transaction
+			Block side = new Block(tip.getHash(), miner.getPublic());
+			side.addTransaction(new Transaction(height, miner.getPublic()));
+			side.finalize();
+			if (!chain.addBlock(next) || !chain.addBlock(side))
+				throw new IllegalStateException("block rejected at height " + height);
+			tip = next;
+			change = tx;
+
+			if (height % reportEvery == 0)
+				System.out.printf("height %7d %4d blocks kept %8.2f MB %8.2f ms/block%n", height, chain.nodes.size(),
+						(usedHeap() - baseline) / 1e6, (System.nanoTime() - start) / 1e6 / reportEvery);
+			if (height % reportEvery == 0)
+				start = System.nanoTime();
+		}
+	}
+}
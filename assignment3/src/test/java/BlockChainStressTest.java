@@ -0,0 +1,238 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Stress tests for {@link BlockChain}, {@link BlockHandler} and {@link TransactionPool} used from
+ * many threads at once
+ * <p>
+ * Test Strategy:
+ * Test 1: transactions from many threads while blocks are mined all end up either mined or in the pool
+ * Test 2: the same blocks submitted from many threads are each added exactly once, leaving the chain a single thread would
+ * Test 3: readers without locks always see a tip block together with its own UTXO set, never going back down
+ */
+public class BlockChainStressTest {
+
+	private static final int THREADS = 8;
+
+	private static KeyPair scrooge;
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		scrooge = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+	}
+
+	private static Block genesis() {
+		Block genesis = new Block(null, scrooge.getPublic());
+		genesis.finalize();
+		return genesis;
+	}
+
+	/** @return a transaction of scrooge spending output {@code index} of {@code prev} into {@code values} */
+	private static Transaction spend(Transaction prev, int index, double... values) throws Exception {
+		Transaction tx = new Transaction();
+		tx.addInput(prev.getHash(), index);
+		for (double value : values)
+			tx.addOutput(value, scrooge.getPublic());
+		Signature sig = Signature.getInstance("SHA256withRSA");
+		sig.initSign(scrooge.getPrivate());
+		sig.update(tx.getRawDataToSign(0));
+		tx.addSignature(sig.sign(), 0);
+		tx.finalize();
+		return tx;
+	}
+
+	private static Block block(Block prev, Transaction... txs) {
+		Block block = new Block(prev.getHash(), scrooge.getPublic());
+		for (Transaction tx : txs)
+			block.addTransaction(tx);
+		block.finalize();
+		return block;
+	}
+
+	private static <T> List<T> runAll(List<Callable<T>> tasks) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<T> results = new ArrayList<T>();
+			for (Future<T> f : executor.invokeAll(tasks, 120, TimeUnit.SECONDS))
+				results.add(f.get());
+			return results;
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	// Test 1: transactions from many threads while blocks are mined all end up either mined or in the pool
+	@Test
+	public void testTransactionsWhileMining() throws Exception {
+		int n = 200;
+		Block genesis = genesis();
+		double[] values = new double[n];
+		Arrays.fill(values, 25.0 / n);
+		Transaction fanOut = spend(genesis.getCoinbase(), 0, values);
+		BlockChain chain = new BlockChain(genesis);
+		assertTrue(chain.addBlock(block(genesis, fanOut)));
+		final BlockHandler handler = new BlockHandler(chain);
+
+		final List<Transaction> txs = new ArrayList<Transaction>();
+		for (int i = 0; i < n; i++)
+			txs.add(spend(fanOut, i, 25.0 / n / 2));
+
+		final AtomicInteger next = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int t = 0; t < THREADS; t++) {
+			final boolean miner = t < 2;
+			tasks.add(() -> {
+				start.await();
+				int mined = 0;
+				for (int i; (i = next.getAndIncrement()) < txs.size();) {
+					handler.processTx(txs.get(i));
+					if (miner && i % 20 == 0 && handler.createBlock(scrooge.getPublic()) != null)
+						mined++;
+				}
+				return mined;
+			});
+		}
+		start.countDown();
+		int mined = 0;
+		for (int m : runAll(tasks))
+			mined += m;
+
+		UTXOPool utxos = chain.getMaxHeightUTXOPool();
+		TransactionPool pool = chain.getTransactionPool();
+		int confirmed = 0;
+		for (int i = 0; i < n; i++) {
+			Transaction tx = txs.get(i);
+			boolean inChain = utxos.contains(new UTXO(tx.getHash(), 0));
+			boolean inPool = pool.getTransaction(tx.getHash()) != null;
+			assertTrue(inChain != inPool);
+			if (inChain) {
+				confirmed++;
+				assertFalse(utxos.contains(new UTXO(fanOut.getHash(), i)));
+			} else {
+				// valued against the tip, the pool is in line with
+				assertEquals(Long.valueOf(Transaction.toUnits(25.0 / n / 2)), pool.getFeeUnits(tx.getHash()));
+			}
+		}
+		assertEquals(n, confirmed + pool.size());
+		assertTrue(mined <= chain.getTip().getHeight());
+
+		// what is left can be mined in one go
+		assertNotNull(handler.createBlock(scrooge.getPublic()));
+		assertEquals(0, pool.size());
+	}
+
+	// Test 2: the same blocks submitted from many threads are each added exactly once, leaving the chain a single thread would
+	@Test
+	public void testConcurrentSubmissions() throws Exception {
+		Block genesis = genesis();
+		final List<Block> blocks = new ArrayList<Block>();
+		Block prev = genesis;
+		for (int height = 1; height <= 3 * BlockChain.CUT_OFF_AGE; height++) {
+			Block main = block(prev);
+			blocks.add(main);
+			// a sibling told apart by a coinbase-style transaction
+			blocks.add(block(prev, new Transaction(height, scrooge.getPublic())));
+			prev = main;
+		}
+		final Block last = prev;
+
+		final BlockChain chain = new BlockChain(genesis);
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Callable<int[]>> tasks = new ArrayList<Callable<int[]>>();
+		for (int t = 0; t < THREADS; t++) {
+			tasks.add(() -> {
+				start.await();
+				int[] added = new int[blocks.size()];
+				// in order, so a parent is always there unless the chain moved past it and
+				// pruned it; whoever comes first wins
+				for (int b = 0; b < blocks.size(); b++) {
+					if (chain.submitBlock(blocks.get(b)).isValid())
+						added[b]++;
+				}
+				return added;
+			});
+		}
+		start.countDown();
+		int[] total = new int[blocks.size()];
+		for (int[] added : runAll(tasks)) {
+			for (int b = 0; b < total.length; b++)
+				total[b] += added[b];
+		}
+		for (int b = 0; b < total.length; b++)
+			assertEquals("block " + b, 1, total[b]);
+		assertSame(last, chain.getMaxHeightBlock());
+		assertEquals(2 * (BlockChain.CUT_OFF_AGE + 1), chain.nodes.size());
+	}
+
+	// Test 3: readers without locks always see a tip block together with its own UTXO set, never going back down
+	@Test
+	public void testLockFreeReaders() throws Exception {
+		Block genesis = genesis();
+		final BlockChain chain = new BlockChain(genesis);
+		final AtomicBoolean done = new AtomicBoolean();
+		final AtomicInteger reads = new AtomicInteger();
+
+		List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+		for (int t = 0; t < THREADS - 1; t++) {
+			tasks.add(() -> {
+				int lastHeight = 0;
+				while (!done.get()) {
+					BlockChain.Tip tip = chain.getTip();
+					if (tip.getHeight() < lastHeight)
+						return false;
+					lastHeight = tip.getHeight();
+					// every block but the genesis carries one transaction of its own, and all
+					// coinbases are the same
+					Block block = tip.getBlock();
+					UTXOPool pool = tip.getUTXOPool();
+					for (Transaction tx : block.getTransactions()) {
+						if (!pool.contains(new UTXO(tx.getHash(), 0)))
+							return false;
+					}
+					if (pool.size() != 1 + tip.getHeight())
+						return false;
+					reads.incrementAndGet();
+				}
+				return true;
+			});
+		}
+		tasks.add(() -> {
+			Block prev = genesis;
+			for (int height = 1; height <= 500; height++) {
+				// not a whole 25, which would make it the same as scrooge's coinbases
+				Block next = block(prev, new Transaction(height + 0.5, scrooge.getPublic()));
+				if (!chain.addBlock(next))
+					return false;
+				prev = next;
+			}
+			done.set(true);
+			return true;
+		});
+		for (boolean ok : runAll(tasks))
+			assertTrue(ok);
+		assertEquals(500, chain.getTip().getHeight());
+		assertTrue(reads.get() > 0);
+	}
+}
@@ -0,0 +1,329 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link BlockChain}
+ * <p>
+ * Test Strategy:
+ * Test 1: a block on the main chain removes its transactions and their conflicts from the pool
+ * Test 2: when a fork overtakes the main chain, the transactions of the abandoned blocks return to the pool
+ * Test 3: the block index links every block to its parent and height, and refuses unknown parents and duplicates
+ * Test 4: blocks below {@code maxHeight - CUT_OFF_AGE} are pruned as the chain grows, forks included
+ * Test 5: blocks are validated against the UTXO set of their own branch, back and forth across reorgs
+ * Test 6: the first block received at the max height stays the tip, and listeners hear of every tip change and reorg
+ * Test 7: listeners are told outside the chain's lock, in order, and may add blocks themselves
+ * Test 8: a caller holding the pool's monitor can add blocks while another thread adds one
+ */
+public class BlockChainTest {
+
+	private static KeyPair scrooge;
+	private static KeyPair alice;
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		scrooge = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		alice = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+	}
+
+	static Transaction signedTx(PrivateKey owner, Transaction prev, int index, double value, PublicKey to)
+			throws Exception {
+		Transaction tx = new Transaction();
+		tx.addInput(prev.getHash(), index);
+		tx.addOutput(value, to);
+		Signature sig = Signature.getInstance("SHA256withRSA");
+		sig.initSign(owner);
+		sig.update(tx.getRawDataToSign(0));
+		tx.addSignature(sig.sign(), 0);
+		tx.finalize();
+		return tx;
+	}
+
+	static Block block(Block prev, PublicKey miner, Transaction... txs) {
+		Block block = new Block(prev.getHash(), miner);
+		for (Transaction tx : txs)
+			block.addTransaction(tx);
+		block.finalize();
+		return block;
+	}
+
+	static Block genesis() {
+		Block genesis = new Block(null, scrooge.getPublic());
+		genesis.finalize();
+		return genesis;
+	}
+
+	// Test 1: a block on the main chain removes its transactions and their conflicts from the pool
+	@Test
+	public void testBlockClearsPool() throws Exception {
+		Block genesis = genesis();
+		BlockChain chain = new BlockChain(genesis);
+		Transaction toAlice = signedTx(scrooge.getPrivate(), genesis.getCoinbase(), 0, 25, alice.getPublic());
+		Transaction toScrooge = signedTx(scrooge.getPrivate(), genesis.getCoinbase(), 0, 20, scrooge.getPublic());
+		chain.addTransaction(toAlice);
+		chain.addTransaction(toScrooge);
+		assertEquals(2, chain.getTransactionPool().size());
+
+		assertTrue(chain.addBlock(block(genesis, alice.getPublic(), toAlice)));
+		assertEquals(0, chain.getTransactionPool().size());
+	}
+
+	// Test 2: when a fork overtakes the main chain, the transactions of the abandoned blocks return to the pool
+	@Test
+	public void testReorgReturnsTransactions() throws Exception {
+		Block genesis = genesis();
+		BlockChain chain = new BlockChain(genesis);
+		Transaction toAlice = signedTx(scrooge.getPrivate(), genesis.getCoinbase(), 0, 25, alice.getPublic());
+		Block main = block(genesis, alice.getPublic(), toAlice);
+		assertTrue(chain.addBlock(main));
+
+		Block fork1 = block(genesis, scrooge.getPublic());
+		assertTrue(chain.addBlock(fork1));
+		assertSame(main, chain.getMaxHeightBlock());
+		assertEquals(0, chain.getTransactionPool().size());
+
+		Block fork2 = block(fork1, alice.getPublic());
+		assertTrue(chain.addBlock(fork2));
+		assertSame(fork2, chain.getMaxHeightBlock());
+		assertNotNull(chain.getTransactionPool().getTransaction(toAlice.getHash()));
+
+		// and leave it again once the fork confirms them
+		Block fork3 = block(fork2, scrooge.getPublic(), toAlice);
+		assertTrue(chain.addBlock(fork3));
+		assertNull(chain.getTransactionPool().getTransaction(toAlice.getHash()));
+	}
+
+	// Test 3: the block index links every block to its parent and height, and refuses unknown parents and duplicates
+	@Test
+	public void testBlockIndex() throws Exception {
+		Block genesis = genesis();
+		BlockChain chain = new BlockChain(genesis);
+		Block b1 = block(genesis, alice.getPublic());
+		Block b2 = block(b1, alice.getPublic());
+		assertTrue(chain.addBlock(b1));
+		assertTrue(chain.addBlock(b2));
+		assertFalse(chain.addBlock(b2));
+
+		BlockChain.BlockNode node = chain.getNode(b2.getHash());
+		assertSame(b2, node.getBlock());
+		assertEquals(2, node.getHeight());
+		assertEquals(3, node.getCumulativeWork());
+		assertSame(chain.getNode(b1.getHash()), node.getParent());
+		assertNull(chain.getNode(genesis.getHash()).getParent());
+		assertTrue(chain.getMaxHeightUTXOPool().contains(new UTXO(b2.getCoinbase().getHash(), 0)));
+
+		Block orphan = new Block(new byte[32], alice.getPublic());
+		orphan.finalize();
+		assertFalse(chain.addBlock(orphan));
+		assertNull(chain.getNode(orphan.getHash()));
+	}
+
+	// Test 4: blocks below {@code maxHeight - CUT_OFF_AGE} are pruned as the chain grows, forks included
+	@Test
+	public void testPruning() throws Exception {
+		Block genesis = genesis();
+		BlockChain chain = new BlockChain(genesis);
+		Block tip = genesis;
+		Block firstFork = null;
+		int length = 5 * BlockChain.CUT_OFF_AGE;
+		for (int height = 1; height <= length; height++) {
+			// a coinbase-style transaction sets the sibling's hash apart
+			Block fork = block(tip, scrooge.getPublic(), new Transaction(height, scrooge.getPublic()));
+			if (firstFork == null)
+				firstFork = fork;
+			tip = block(tip, alice.getPublic());
+			assertTrue(chain.addBlock(tip));
+			assertTrue(chain.addBlock(fork));
+			assertTrue(chain.nodes.size() <= 2 * (BlockChain.CUT_OFF_AGE + 1));
+		}
+		assertSame(tip, chain.getMaxHeightBlock());
+		assertEquals(BlockChain.CUT_OFF_AGE + 1, chain.chain.size());
+		assertEquals(2 * (BlockChain.CUT_OFF_AGE + 1), chain.nodes.size());
+		assertNull(chain.getNode(genesis.getHash()));
+		assertNull(chain.getNode(firstFork.getHash()));
+
+		BlockChain.BlockNode oldest = chain.getNode(tip.getHash());
+		for (int i = 0; i < BlockChain.CUT_OFF_AGE; i++)
+			oldest = oldest.getParent();
+		assertEquals(length - BlockChain.CUT_OFF_AGE, oldest.getHeight());
+		assertNull(oldest.getParent());
+
+		// the oldest blocks kept can still be built on
+		assertTrue(chain.addBlock(block(oldest.getBlock(), scrooge.getPublic(),
+				new Transaction(length + 1, scrooge.getPublic()))));
+		assertSame(tip, chain.getMaxHeightBlock());
+	}
+
+	// Test 5: blocks are validated against the UTXO set of their own branch, back and forth across reorgs
+	@Test
+	public void testUTXOSetAcrossReorgs() throws Exception {
+		Block genesis = genesis();
+		BlockChain chain = new BlockChain(genesis);
+		UTXO genesisCoin = new UTXO(genesis.getCoinbase().getHash(), 0);
+		Transaction toAlice = signedTx(scrooge.getPrivate(), genesis.getCoinbase(), 0, 25, alice.getPublic());
+		Transaction toScrooge = signedTx(scrooge.getPrivate(), genesis.getCoinbase(), 0, 20, scrooge.getPublic());
+		UTXO aliceCoin = new UTXO(toAlice.getHash(), 0);
+		UTXO scroogeCoin = new UTXO(toScrooge.getHash(), 0);
+
+		Block main1 = block(genesis, alice.getPublic(), toAlice);
+		assertTrue(chain.addBlock(main1));
+		assertFalse(chain.getMaxHeightUTXOPool().contains(genesisCoin));
+		assertTrue(chain.getMaxHeightUTXOPool().contains(aliceCoin));
+		assertFalse(chain.addBlock(block(main1, alice.getPublic(), toScrooge)));
+
+		// the genesis coin is still unspent on a fork
+		Block fork1 = block(genesis, alice.getPublic(), toScrooge);
+		assertTrue(chain.addBlock(fork1));
+		assertSame(main1, chain.getMaxHeightBlock());
+		Block fork2 = block(fork1, alice.getPublic());
+		assertTrue(chain.addBlock(fork2));
+		assertSame(fork2, chain.getMaxHeightBlock());
+		UTXOPool pool = chain.getMaxHeightUTXOPool();
+		assertTrue(pool.contains(scroogeCoin));
+		assertFalse(pool.contains(aliceCoin));
+		assertFalse(pool.contains(genesisCoin));
+
+		// and back
+		Block main2 = block(main1, alice.getPublic(), signedTx(alice.getPrivate(), toAlice, 0, 10, scrooge.getPublic()));
+		assertTrue(chain.addBlock(main2));
+		Block main3 = block(main2, alice.getPublic());
+		assertTrue(chain.addBlock(main3));
+		assertSame(main3, chain.getMaxHeightBlock());
+		pool = chain.getMaxHeightUTXOPool();
+		assertFalse(pool.contains(scroogeCoin));
+		assertFalse(pool.contains(aliceCoin));
+		// alice's coinbase, recreated by every block, and the change of main2
+		assertEquals(2, pool.size());
+
+		// changing a copy does not change the chain
+		pool.addUTXO(genesisCoin, genesis.getCoinbase().getOutput(0));
+		assertFalse(chain.getMaxHeightUTXOPool().contains(genesisCoin));
+	}
+
+	// Test 6: the first block received at the max height stays the tip, and listeners hear of every tip change and reorg
+	@Test
+	public void testTipListener() throws Exception {
+		Block genesis = genesis();
+		BlockChain chain = new BlockChain(genesis);
+		final List<Block> tips = new ArrayList<Block>();
+		final List<List<Block>> reorgs = new ArrayList<List<Block>>();
+		chain.addTipListener(new BlockChain.TipListener() {
+			@Override
+			public void reorganized(List<Block> disconnected, List<Block> connected) {
+				reorgs.add(new ArrayList<Block>(disconnected));
+				reorgs.add(new ArrayList<Block>(connected));
+			}
+
+			@Override
+			public void tipChanged(Block oldTip, Block newTip) {
+				tips.add(oldTip);
+				tips.add(newTip);
+			}
+		});
+
+		Block main1 = block(genesis, alice.getPublic());
+		Block main2 = block(main1, alice.getPublic());
+		assertTrue(chain.addBlock(main1));
+		assertTrue(chain.addBlock(main2));
+		assertEquals(Arrays.asList(genesis, main1, main1, main2), tips);
+		assertTrue(reorgs.isEmpty());
+
+		Block fork1 = block(genesis, scrooge.getPublic(), new Transaction(1, scrooge.getPublic()));
+		Block fork2 = block(fork1, scrooge.getPublic());
+		Block fork3 = block(fork2, scrooge.getPublic());
+		assertTrue(chain.addBlock(fork1));
+		assertTrue(chain.addBlock(fork2));
+		assertSame(main2, chain.getMaxHeightBlock());
+		assertEquals(4, tips.size());
+
+		assertTrue(chain.addBlock(fork3));
+		assertSame(fork3, chain.getMaxHeightBlock());
+		assertEquals(Arrays.asList(main2, fork3), tips.subList(4, 6));
+		assertEquals(Arrays.asList(Arrays.asList(main2, main1), Arrays.asList(fork1, fork2, fork3)), reorgs);
+	}
+
+	// Test 7: listeners are told outside the chain's lock, in order, and may add blocks themselves
+	@Test
+	public void testListenersOutsideLock() throws Exception {
+		Block genesis = genesis();
+		final BlockChain chain = new BlockChain(genesis);
+		final Block b1 = block(genesis, alice.getPublic());
+		final Block b2 = block(b1, alice.getPublic());
+		final Block b3 = block(b2, alice.getPublic());
+		final List<Block> tips = new ArrayList<Block>();
+		final ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			chain.addTipListener(new BlockChain.TipListener() {
+				@Override
+				public void tipChanged(Block oldTip, Block newTip) {
+					tips.add(newTip);
+					try {
+						if (newTip == b1) {
+							// would wait forever if the adding thread still held the lock
+							assertTrue(other.submit(() -> chain.addBlock(b2)).get(30, TimeUnit.SECONDS));
+						} else if (newTip == b2) {
+							assertTrue(chain.addBlock(b3));
+							// told after this change is over
+							assertEquals(2, tips.size());
+						}
+					} catch (Exception e) {
+						throw new AssertionError(e);
+					}
+				}
+			});
+			assertTrue(chain.addBlock(b1));
+		} finally {
+			other.shutdownNow();
+		}
+		assertEquals(Arrays.asList(b1, b2, b3), tips);
+		assertSame(b3, chain.getMaxHeightBlock());
+	}
+
+	// Test 8: a caller holding the pool's monitor can add blocks while another thread adds one
+	@Test
+	public void testPoolMonitorHeldByCaller() throws Exception {
+		Block genesis = genesis();
+		final BlockChain chain = new BlockChain(genesis);
+		Transaction toAlice = signedTx(scrooge.getPrivate(), genesis.getCoinbase(), 0, 25, alice.getPublic());
+		chain.addTransaction(toAlice);
+		final Block b1 = block(genesis, alice.getPublic(), toAlice);
+		Block b2 = block(b1, alice.getPublic());
+		TransactionPool pool = chain.getTransactionPool();
+		ExecutorService other = Executors.newSingleThreadExecutor();
+		try {
+			Future<Boolean> added;
+			synchronized (pool) {
+				added = other.submit(() -> chain.addBlock(b1));
+				// the other thread gets this far without the monitor, then waits for it to update the pool
+				for (int i = 0; i < 3000 && chain.getMaxHeightBlock() != b1; i++)
+					Thread.sleep(10);
+				assertSame(b1, chain.getMaxHeightBlock());
+				assertTrue(chain.addBlock(b2));
+				assertEquals(0, pool.size());
+			}
+			assertTrue(added.get(30, TimeUnit.SECONDS));
+		} finally {
+			other.shutdownNow();
+		}
+		assertSame(b2, chain.getMaxHeightBlock());
+	}
+}
@@ -0,0 +1,98 @@
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Cost of adding blocks to {@link BlockChain} and of finding a block's parent in wide fork trees:
+ * {@link BlockChain#CUT_OFF_AGE} heights of {@code width} blocks each, every block built on a
+ * random block of the height below. The hash index of {@link BlockChain#getNode} is compared with
+ * the scan of every block within {@link BlockChain#CUT_OFF_AGE} that {@link BlockChain#addBlock}
+ * used to make. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes BlockIndexBenchmark [maxWidth]
+ * </pre>
+ */
+public class BlockIndexBenchmark {
+
+	/** The parent search {@link BlockChain#addBlock} used to make */
+	private static Block scan(TreeMap<Integer, ArrayList<Block>> chain, byte[] prevHash) {
+		int minHeight = Math.max(chain.lastKey() - BlockChain.CUT_OFF_AGE, 0);
+		for (Map.Entry<Integer, ArrayList<Block>> e : chain.descendingMap().entrySet()) {
+			if (e.getKey() < minHeight)
+				break;
+			for (Block b : e.getValue()) {
+				if (Arrays.equals(b.getHash(), prevHash))
+					return b;
+			}
+		}
+		return null;
+	}
+
+	private static Block block(byte[] prevHash, PublicKey miner, int serial) {
+		// the hash of a block leaves out its coinbase, a distinct (always valid) coinbase-style
+		// transaction keeps siblings apart
+		Block block = new Block(prevHash, miner);
+		block.addTransaction(new Transaction(serial / 1e8, miner));
+		block.finalize();
+		return block;
+	}
+
+	private static void measure(int width, PublicKey miner, boolean print) {
+		Random random = new Random(width);
+		Block genesis = block(null, miner, 0);
+		BlockChain chain = new BlockChain(genesis);
+		List<Block> below = new ArrayList<Block>();
+		below.add(genesis);
+		List<Block> all = new ArrayList<Block>();
+		int serial = 1;
+		long addNanos = 0;
+		for (int height = 1; height <= BlockChain.CUT_OFF_AGE; height++) {
+			List<Block> level = new ArrayList<Block>(width);
+			for (int i = 0; i < width; i++) {
+				Block b = block(below.get(random.nextInt(below.size())).getHash(), miner, serial++);
+				long start = System.nanoTime();
+				if (!chain.addBlock(b))
+					throw new IllegalStateException("block rejected");
+				addNanos += System.nanoTime() - start;
+				level.add(b);
+			}
+			all.addAll(level);
+			below = level;
+		}
+
+		int lookups = Math.max(100000 / width, 100);
+		byte[][] prevHashes = new byte[lookups][];
+		for (int i = 0; i < lookups; i++)
+			prevHashes[i] = all.get(random.nextInt(all.size())).getPrevBlockHash();
+
+		long start = System.nanoTime();
+		int found = 0;
+		for (byte[] prevHash : prevHashes)
+			found += scan(chain.chain, prevHash) != null ? 1 : 0;
+		long scanNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (byte[] prevHash : prevHashes)
+			found += chain.getNode(prevHash) != null ? 1 : 0;
+		long indexNanos = System.nanoTime() - start;
+
+		if (print)
+			System.out.printf("width %5d %6d blocks %10.1f us/addBlock %12.1f ns/scan %8.1f ns/index (%d found)%n",
+					width, all.size(), addNanos / 1e3 / all.size(), (double) scanNanos / lookups,
+					(double) indexNanos / lookups, found);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int maxWidth = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+		PublicKey miner = SerializationBenchmark.generateKeys(1)[0];
+		for (int warmup = 0; warmup < 2; warmup++) {
+			for (int width = 1; width <= maxWidth; width *= 10)
+				measure(width, miner, warmup == 1);
+		}
+	}
+}
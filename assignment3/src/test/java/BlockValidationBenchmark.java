@@ -0,0 +1,85 @@
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Random;
+
+/**
+ * Time to validate a block of {@code n} signed transactions with {@link BlockValidator} on 1, 2,
+ * 4 and 8 threads, next to {@link TxHandler#handleTxs} with one thread. A quarter of the
+ * transactions spend an output created earlier in the block. The signature cache is off, so every
+ * round does the RSA work. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes BlockValidationBenchmark [txs]
+ * </pre>
+ */
+public class BlockValidationBenchmark {
+
+	private static Transaction signed(KeyPair owner, byte[] prevTxHash, int index, double value) throws Exception {
+		Transaction tx = new Transaction();
+		tx.addInput(prevTxHash, index);
+		tx.addOutput(value, owner.getPublic());
+		Signature sig = Signature.getInstance("SHA256withRSA");
+		sig.initSign(owner.getPrivate());
+		sig.update(tx.getRawDataToSign(0));
+		tx.addSignature(sig.sign(), 0);
+		tx.finalize();
+		return tx;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		KeyPair[] keys = new KeyPair[8];
+		for (int i = 0; i < keys.length; i++)
+			keys[i] = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+
+		Random random = new Random(42);
+		Transaction funding = new Transaction();
+		for (int i = 0; i < n; i++)
+			funding.addOutput(10, keys[i % keys.length].getPublic());
+		funding.finalize();
+		UTXOPool utxoPool = new UTXOPool();
+		for (int i = 0; i < n; i++)
+			utxoPool.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+
+		Transaction[] txs = new Transaction[n];
+		KeyPair[] owners = new KeyPair[n];
+		boolean[] spent = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			int parent = i > 0 && random.nextInt(4) == 0 ? random.nextInt(i) : -1;
+			if (parent >= 0 && !spent[parent]) {
+				spent[parent] = true;
+				owners[i] = owners[parent];
+				txs[i] = signed(owners[i], txs[parent].getHash(), 0, 9);
+			} else {
+				owners[i] = keys[i % keys.length];
+				txs[i] = signed(owners[i], funding.getHash(), i, 9);
+			}
+		}
+		Block block = new Block(new byte[32], keys[0].getPublic());
+		for (Transaction tx : txs)
+			block.addTransaction(tx);
+		block.finalize();
+
+		System.out.printf("%d transactions, %d processors%n", n, Runtime.getRuntime().availableProcessors());
+		for (int warmup = 0; warmup < 3; warmup++) {
+			long start = System.nanoTime();
+			TxHandler handler = new TxHandler(utxoPool, 1);
+			handler.setSignatureCache(null);
+			int accepted = handler.handleTxs(txs).length;
+			long nanos = System.nanoTime() - start;
+			if (warmup == 2)
+				System.out.printf("TxHandler           %8.1f ms (%d accepted)%n", nanos / 1e6, accepted);
+
+			for (int threads = 1; threads <= 8; threads *= 2) {
+				BlockValidator validator = new BlockValidator(threads);
+				validator.setSignatureCache(null);
+				start = System.nanoTime();
+				BlockValidator.Result result = validator.validate(block, utxoPool);
+				nanos = System.nanoTime() - start;
+				if (warmup == 2)
+					System.out.printf("BlockValidator %2d   %8.1f ms (%s)%n", threads, nanos / 1e6, result);
+			}
+		}
+	}
+}
@@ -0,0 +1,219 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link BlockValidator}
+ * <p>
+ * Test Strategy:
+ * Test 1: a block whose transactions spend each other's outputs out of order is valid, applied parents first
+ * Test 2: the context-free checks name the transaction and input at fault
+ * Test 3: the ordered pass tells missing inputs, double spends and overspending apart
+ * Test 4: any parallelism gives the same results as the sequential validator and as TxHandler
+ * Test 5: the block chain reports why it turns blocks down
+ * Test 6: a block whose parent is pruned while it is validated is reported too old, not as an unknown parent
+ */
+public class BlockValidatorTest {
+
+	private static KeyPair scrooge;
+	private static KeyPair alice;
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		scrooge = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		alice = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+	}
+
+	/** @return a transaction of {@code owner} spending the given outputs into {@code values} */
+	private static Transaction spend(KeyPair owner, Transaction prev, int[] indexes, double... values)
+			throws Exception {
+		Transaction tx = new Transaction();
+		for (int index : indexes)
+			tx.addInput(prev.getHash(), index);
+		for (double value : values)
+			tx.addOutput(value, owner.getPublic());
+		for (int i = 0; i < tx.numInputs(); i++) {
+			Signature sig = Signature.getInstance("SHA256withRSA");
+			sig.initSign(owner.getPrivate());
+			sig.update(tx.getRawDataToSign(i));
+			tx.addSignature(sig.sign(), i);
+		}
+		tx.finalize();
+		return tx;
+	}
+
+	private static Transaction spend(KeyPair owner, Transaction prev, int index, double... values) throws Exception {
+		return spend(owner, prev, new int[] { index }, values);
+	}
+
+	private static Block block(Block prev, Transaction... txs) {
+		// not scrooge, whose coinbase would recreate the genesis one
+		Block block = new Block(prev.getHash(), alice.getPublic());
+		for (Transaction tx : txs)
+			block.addTransaction(tx);
+		block.finalize();
+		return block;
+	}
+
+	private static Block genesis() {
+		Block genesis = new Block(null, scrooge.getPublic());
+		genesis.finalize();
+		return genesis;
+	}
+
+	private static UTXOPool pool(Block genesis) {
+		return BlockChain.addCoinbaseToPool(genesis, new UTXOPool());
+	}
+
+	// Test 1: a block whose transactions spend each other's outputs out of order is valid, applied parents first
+	@Test
+	public void testDependentTransactions() throws Exception {
+		Block genesis = genesis();
+		Transaction parent = spend(scrooge, genesis.getCoinbase(), 0, 10, 15);
+		Transaction child = spend(scrooge, parent, 1, 15);
+		Transaction grandchild = spend(scrooge, child, 0, 5, 5);
+
+		UTXOPool pool = pool(genesis);
+		BlockValidator.Result result = new BlockValidator(2).validate(block(genesis, grandchild, child, parent), pool);
+		assertTrue(result.toString(), result.isValid());
+		assertArrayEquals(new Transaction[] { parent, child, grandchild }, result.getTransactions());
+		assertEquals(3, result.getUTXOPool().size());
+		assertTrue(result.getUTXOPool().contains(new UTXO(grandchild.getHash(), 1)));
+		// the set given is left alone
+		assertEquals(1, pool.size());
+	}
+
+	// Test 2: the context-free checks name the transaction and input at fault
+	@Test
+	public void testContextFreeChecks() throws Exception {
+		Block genesis = genesis();
+		UTXOPool pool = pool(genesis);
+		BlockValidator validator = new BlockValidator(2);
+		Transaction ok = spend(scrooge, genesis.getCoinbase(), 0, 25);
+
+		Transaction twice = spend(scrooge, ok, new int[] { 0, 0 }, 1);
+		BlockValidator.Result result = validator.validate(block(genesis, ok, twice), pool);
+		assertEquals(BlockValidator.Reason.DUPLICATE_INPUT, result.getReason());
+		assertEquals(1, result.getTxIndex());
+		assertEquals(1, result.getInputIndex());
+
+		Transaction negative = spend(scrooge, ok, 0, 30, -5);
+		result = validator.validate(block(genesis, ok, negative), pool);
+		assertEquals(BlockValidator.Reason.NEGATIVE_OUTPUT, result.getReason());
+		assertEquals(1, result.getTxIndex());
+
+		Transaction forged = spend(alice, genesis.getCoinbase(), 0, 25);
+		result = validator.validate(block(genesis, forged), pool);
+		assertEquals(BlockValidator.Reason.INVALID_SIGNATURE, result.getReason());
+		assertEquals(0, result.getTxIndex());
+		assertEquals(0, result.getInputIndex());
+		assertNull(result.getTransactions());
+	}
+
+	// Test 3: the ordered pass tells missing inputs, double spends and overspending apart
+	@Test
+	public void testOrderedChecks() throws Exception {
+		Block genesis = genesis();
+		UTXOPool pool = pool(genesis);
+		BlockValidator validator = new BlockValidator(1);
+		Transaction ok = spend(scrooge, genesis.getCoinbase(), 0, 25);
+
+		BlockValidator.Result result = validator.validate(block(genesis, ok, spend(scrooge, ok, 1, 1)), pool);
+		assertEquals(BlockValidator.Reason.MISSING_INPUT, result.getReason());
+		assertEquals(1, result.getTxIndex());
+
+		Transaction other = spend(scrooge, genesis.getCoinbase(), 0, 20);
+		result = validator.validate(block(genesis, ok, other), pool);
+		assertEquals(BlockValidator.Reason.DOUBLE_SPEND, result.getReason());
+		assertEquals(1, result.getTxIndex());
+		assertEquals(0, result.getInputIndex());
+
+		result = validator.validate(block(genesis, spend(scrooge, genesis.getCoinbase(), 0, 26)), pool);
+		assertEquals(BlockValidator.Reason.INSUFFICIENT_INPUTS, result.getReason());
+
+		result = validator.validate(block(genesis, ok, ok), pool);
+		assertEquals(BlockValidator.Reason.DUPLICATE_TRANSACTION, result.getReason());
+		assertEquals(1, result.getTxIndex());
+	}
+
+	// Test 4: any parallelism gives the same results as the sequential validator and as TxHandler
+	@Test
+	public void testParallelismAgrees() throws Exception {
+		Block genesis = genesis();
+		UTXOPool pool = pool(genesis);
+		Transaction fanOut = spend(scrooge, genesis.getCoinbase(), 0, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1);
+		for (int i = 0; i < fanOut.numOutputs(); i++)
+			pool.addUTXO(new UTXO(fanOut.getHash(), i), fanOut.getOutput(i));
+
+		Random random = new Random(3);
+		for (int round = 0; round < 10; round++) {
+			Transaction[] txs = new Transaction[6];
+			for (int t = 0; t < txs.length; t++) {
+				KeyPair owner = random.nextInt(8) == 0 ? alice : scrooge;
+				double value = random.nextInt(8) == 0 ? 2 : 1;
+				txs[t] = spend(owner, fanOut, random.nextInt(fanOut.numOutputs()), value);
+			}
+			Block block = block(genesis, txs);
+
+			BlockValidator.Result sequential = new BlockValidator(1).validate(block, pool);
+			for (int parallelism = 2; parallelism <= 8; parallelism *= 2) {
+				BlockValidator.Result parallel = new BlockValidator(parallelism).validate(block, pool);
+				assertEquals(sequential.toString(), parallel.toString());
+			}
+			boolean accepted = new TxHandler(pool, 1).handleTxs(txs).length == txs.length;
+			assertEquals(sequential.toString(), accepted, sequential.isValid());
+		}
+	}
+
+	// Test 5: the block chain reports why it turns blocks down
+	@Test
+	public void testSubmitBlock() throws Exception {
+		Block genesis = genesis();
+		BlockChain chain = new BlockChain(genesis);
+		Block b1 = block(genesis, spend(scrooge, genesis.getCoinbase(), 0, 25));
+		assertTrue(chain.submitBlock(b1).isValid());
+		assertEquals(BlockValidator.Reason.DUPLICATE_BLOCK, chain.submitBlock(b1).getReason());
+
+		Block orphan = new Block(new byte[32], scrooge.getPublic());
+		orphan.finalize();
+		assertEquals(BlockValidator.Reason.UNKNOWN_PARENT, chain.submitBlock(orphan).getReason());
+
+		Block spent = block(b1, spend(scrooge, genesis.getCoinbase(), 0, 20));
+		assertEquals(BlockValidator.Reason.MISSING_INPUT, chain.submitBlock(spent).getReason());
+		assertFalse(chain.addBlock(spent));
+	}
+
+	// Test 6: a block whose parent is pruned while it is validated is reported too old, not as an unknown parent
+	@Test
+	public void testParentPrunedDuringValidation() throws Exception {
+		final Block genesis = genesis();
+		final BlockChain chain = new BlockChain(genesis);
+		final Block late = block(genesis);
+		chain.setBlockValidator(new BlockValidator(1) {
+			@Override
+			public Result validate(Block block, UTXOPool utxoPool) {
+				if (block == late) {
+					// the chain grows past the cut-off, pruning the genesis block
+					Block prev = genesis;
+					for (int i = 0; i <= BlockChain.CUT_OFF_AGE + 1; i++) {
+						prev = block(prev);
+						assertTrue(chain.addBlock(prev));
+					}
+					assertNull(chain.getNode(genesis.getHash()));
+				}
+				return super.validate(block, utxoPool);
+			}
+		});
+		assertEquals(BlockValidator.Reason.TOO_OLD, chain.submitBlock(late).getReason());
+	}
+}
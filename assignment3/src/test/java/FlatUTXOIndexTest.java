@@ -0,0 +1,147 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link FlatUTXOIndex}
+ * <p>
+ * Test Strategy:
+ * Test 1: random additions and removals agree with a {@code HashMap} model, including removals in the middle of probe sequences
+ * Test 2: hashes that are not 32 bytes long are kept as well
+ * Test 3: a copy is independent of the original
+ * Test 4: a flat {@link UTXOPool} behaves like the default one
+ */
+public class FlatUTXOIndexTest {
+
+	private static Transaction.Output[] outputs;
+
+	@BeforeClass
+	public static void createOutputs() throws Exception {
+		PublicKey key = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+		Transaction tx = new Transaction();
+		for (int i = 0; i < 8; i++)
+			tx.addOutput(i + 1, key);
+		outputs = tx.getOutputs().toArray(new Transaction.Output[0]);
+	}
+
+	private static byte[] hash(Random random, int length) {
+		byte[] hash = new byte[length];
+		random.nextBytes(hash);
+		return hash;
+	}
+
+	private static void assertSameContents(HashMap<UTXO, Transaction.Output> model, FlatUTXOIndex index) {
+		assertEquals(model.size(), index.size());
+		for (UTXO ut : model.keySet())
+			assertSame(model.get(ut), index.get(ut.getTxHash(), ut.getIndex()));
+		assertEquals(model.keySet(), new HashSet<UTXO>(index.getAllUTXO()));
+	}
+
+	// Test 1: random additions and removals agree with a HashMap model
+	@Test
+	public void testAgreesWithHashMap() {
+		Random random = new Random(1);
+		// few distinct hashes and indexes so that probe sequences are long and keys come back
+		byte[][] hashes = new byte[64][];
+		for (int i = 0; i < hashes.length; i++)
+			hashes[i] = hash(random, FlatUTXOIndex.HASH_LENGTH);
+
+		FlatUTXOIndex index = new FlatUTXOIndex(0);
+		HashMap<UTXO, Transaction.Output> model = new HashMap<UTXO, Transaction.Output>();
+		for (int op = 0; op < 50000; op++) {
+			byte[] txHash = hashes[random.nextInt(hashes.length)];
+			int i = random.nextInt(16);
+			UTXO ut = new UTXO(txHash, i);
+			if (random.nextInt(3) == 0) {
+				assertSame(model.remove(ut), index.remove(txHash, i));
+			} else {
+				Transaction.Output out = outputs[random.nextInt(outputs.length)];
+				assertSame(model.put(ut, out), index.put(txHash, i, out));
+			}
+			assertEquals(model.containsKey(ut), index.contains(txHash, i));
+			if (op % 5000 == 0)
+				assertSameContents(model, index);
+		}
+		assertSameContents(model, index);
+
+		for (UTXO ut : new ArrayList<UTXO>(model.keySet()))
+			assertSame(model.remove(ut), index.remove(ut.getTxHash(), ut.getIndex()));
+		assertEquals(0, index.size());
+	}
+
+	// Test 2: hashes that are not 32 bytes long are kept as well
+	@Test
+	public void testOtherHashLengths() {
+		Random random = new Random(2);
+		FlatUTXOIndex index = new FlatUTXOIndex(4);
+		byte[] shortHash = hash(random, 20);
+		byte[] fullHash = hash(random, FlatUTXOIndex.HASH_LENGTH);
+
+		index.put(shortHash, 0, outputs[0]);
+		index.put(fullHash, 0, outputs[1]);
+		assertEquals(2, index.size());
+		assertSame(outputs[0], index.get(shortHash.clone(), 0));
+		assertSame(outputs[1], index.get(fullHash.clone(), 0));
+		assertEquals(2, index.getAllOutputs().size());
+
+		assertSame(outputs[0], index.remove(shortHash, 0));
+		assertFalse(index.contains(shortHash, 0));
+		assertEquals(1, index.size());
+	}
+
+	// Test 3: a copy is independent of the original
+	@Test
+	public void testCopy() {
+		Random random = new Random(3);
+		FlatUTXOIndex index = new FlatUTXOIndex(0);
+		byte[] txHash = hash(random, FlatUTXOIndex.HASH_LENGTH);
+		index.put(txHash, 0, outputs[0]);
+
+		FlatUTXOIndex copy = new FlatUTXOIndex(index);
+		copy.remove(txHash, 0);
+		copy.put(txHash, 1, outputs[1]);
+
+		assertSame(outputs[0], index.get(txHash, 0));
+		assertNull(index.get(txHash, 1));
+		assertNull(copy.get(txHash, 0));
+		assertSame(outputs[1], copy.get(txHash, 1));
+	}
+
+	// Test 4: a flat UTXOPool behaves like the default one
+	@Test
+	public void testFlatUTXOPool() {
+		Random random = new Random(4);
+		UTXOPool flat = UTXOPool.withFlatIndex(0);
+		UTXOPool plain = new UTXOPool();
+		for (int i = 0; i < 1000; i++) {
+			UTXO ut = new UTXO(hash(random, FlatUTXOIndex.HASH_LENGTH), random.nextInt(4));
+			flat.addUTXO(ut, outputs[i % outputs.length]);
+			plain.addUTXO(ut, outputs[i % outputs.length]);
+			if (i % 3 == 0) {
+				flat.removeUTXO(ut);
+				plain.removeUTXO(ut);
+			}
+		}
+
+		UTXOPool copy = new UTXOPool(flat);
+		assertEquals(plain.size(), copy.size());
+		assertEquals(plain.getTotalUnits(), copy.getTotalUnits());
+		for (UTXO ut : plain.getAllUTXO()) {
+			assertTrue(copy.contains(ut));
+			assertSame(plain.getTxOutput(ut), copy.getTxOutput(ut.getTxHash(), ut.getIndex()));
+		}
+		assertEquals(new HashSet<UTXO>(plain.getAllUTXO()), new HashSet<UTXO>(copy.getAllUTXO()));
+	}
+}
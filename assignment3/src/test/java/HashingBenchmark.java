@@ -0,0 +1,77 @@
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Time and memory of {@link Block#finalize()} and {@link Transaction#finalize()}, which stream
+ * into a thread-local digest, compared with hashing the fully serialized {@link Block#getRawBlock()}
+ * and {@link Transaction#getRawTx()}. Also checks that both give the same hashes. Not a unit
+ * test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes HashingBenchmark [txs per block] [rounds]
+ * </pre>
+ */
+public class HashingBenchmark {
+
+	private static byte[] sha256(byte[] data) throws Exception {
+		return MessageDigest.getInstance("SHA-256").digest(data);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int blockTxs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+		Random random = new Random(42);
+		PublicKey[] keys = SerializationBenchmark.generateKeys(8);
+		Block block = new Block(new byte[32], keys[0]);
+		for (int i = 0; i < blockTxs; i++)
+			block.addTransaction(SerializationBenchmark.randomTx(random, keys, 2, 2));
+
+		block.finalize();
+		if (!Arrays.equals(sha256(block.getRawBlock()), block.getHash()))
+			throw new AssertionError("block hashes differ");
+		for (Transaction tx : block.getTransactions()) {
+			byte[] streamed = tx.getHash();
+			if (!Arrays.equals(sha256(tx.getRawTx()), streamed))
+				throw new AssertionError("transaction hashes differ");
+		}
+
+		for (int round = 0; round < 2; round++) {
+			// the first round only warms up
+			long allocated = SerializationBenchmark.allocatedBytes();
+			long start = System.nanoTime();
+			for (int r = 0; r < rounds; r++)
+				sha256(block.getRawBlock());
+			long rawNanos = System.nanoTime() - start;
+			long rawBytes = SerializationBenchmark.allocatedBytes() - allocated;
+
+			allocated = SerializationBenchmark.allocatedBytes();
+			start = System.nanoTime();
+			for (int r = 0; r < rounds; r++)
+				block.finalize();
+			long streamNanos = System.nanoTime() - start;
+			long streamBytes = SerializationBenchmark.allocatedBytes() - allocated;
+
+			allocated = SerializationBenchmark.allocatedBytes();
+			start = System.nanoTime();
+			for (int r = 0; r < rounds; r++)
+				for (Transaction tx : block.getTransactions())
+					tx.finalize();
+			long txNanos = System.nanoTime() - start;
+			long txBytes = SerializationBenchmark.allocatedBytes() - allocated;
+
+			if (round == 1) {
+				System.out.printf("%d-tx block, raw block held in memory: %d bytes%n", blockTxs,
+						block.getRawBlock().length);
+				System.out.printf("hash getRawBlock:  %8.2f ms %12d B allocated%n", rawNanos / 1e6 / rounds,
+						rawBytes / rounds);
+				System.out.printf("Block.finalize:    %8.2f ms %12d B allocated%n", streamNanos / 1e6 / rounds,
+						streamBytes / rounds);
+				System.out.printf("all tx.finalize:   %8.2f ms %12d B allocated%n", txNanos / 1e6 / rounds,
+						txBytes / rounds);
+			}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Cost of keeping {@link TransactionPool} sorted by fee rate and of taking block templates of
+ * {@code k} transactions from it, compared with scanning and sorting all of
+ * {@link TransactionPool#getTransactions()} for every block. A quarter of the transactions spend
+ * from another pool transaction. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes MempoolBenchmark [txs] [k]
+ * </pre>
+ */
+public class MempoolBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int n = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		int k = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+		Random random = new Random(42);
+		PublicKey key = SerializationBenchmark.generateKeys(1)[0];
+		Transaction funding = new Transaction();
+		for (int i = 0; i < n; i++)
+			funding.addOutput(10, key);
+		funding.finalize();
+		UTXOPool utxoPool = new UTXOPool();
+		for (int i = 0; i < n; i++)
+			utxoPool.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+
+		List<Transaction> txs = new ArrayList<Transaction>();
+		for (int i = 0; i < n; i++) {
+			boolean child = i > 0 && random.nextInt(4) == 0;
+			Transaction tx = new Transaction();
+			tx.addInput(child ? txs.get(random.nextInt(i)).getHash() : funding.getHash(), child ? 0 : i);
+			tx.addOutputUnits(random.nextInt(9 * (int) Transaction.UNITS_PER_COIN), key);
+			tx.addSignature(new byte[256], 0);
+			tx.finalize();
+			txs.add(tx);
+		}
+
+		for (int warmup = 0; warmup < 3; warmup++) {
+			long start = System.nanoTime();
+			TransactionPool pool = new TransactionPool();
+			for (Transaction tx : txs)
+				pool.addTransaction(tx, utxoPool);
+			long addNanos = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			int picked = pool.getBlockTemplate(k).size();
+			long templateNanos = System.nanoTime() - start;
+
+			// what every block cost before: all transactions, here at least sorted by their own fee rate
+			start = System.nanoTime();
+			List<Transaction> all = pool.getTransactions();
+			final long[] fees = new long[all.size()];
+			Integer[] order = new Integer[all.size()];
+			for (int i = 0; i < all.size(); i++) {
+				fees[i] = pool.getFeeUnits(all.get(i).getHash()) * 1000 / all.get(i).getRawTx().length;
+				order[i] = i;
+			}
+			Arrays.sort(order, (a, b) -> Long.compare(fees[b], fees[a]));
+			long scanNanos = System.nanoTime() - start;
+
+			if (warmup == 2) {
+				System.out.printf("%d transactions, %d bytes%n", pool.size(), pool.getTotalBytes());
+				System.out.printf("add         %10.2f us/tx%n", addNanos / 1e3 / n);
+				System.out.printf("template    %10.2f ms for %d transactions%n", templateNanos / 1e6, picked);
+				System.out.printf("scan + sort %10.2f ms%n", scanNanos / 1e6);
+			}
+		}
+	}
+}
@@ -0,0 +1,191 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link PersistentUTXOMap}
+ * <p>
+ * Test Strategy:
+ * Test 1: random additions and removals agree with a {@code HashMap} model
+ * Test 2: changes to a copy or to its original are not seen by the other, across a chain of copies
+ * Test 3: keys with equal hash codes are kept apart and can be removed
+ * Test 4: a map that is no longer changed can be copied by several threads at once
+ */
+public class PersistentUTXOMapTest {
+
+	private static Transaction.Output[] outputs;
+
+	@BeforeClass
+	public static void createOutputs() throws Exception {
+		PublicKey key = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+		Transaction tx = new Transaction();
+		for (int i = 0; i < 8; i++)
+			tx.addOutput(i + 1, key);
+		outputs = tx.getOutputs().toArray(new Transaction.Output[0]);
+	}
+
+	private static UTXO randomUTXO(Random random, int hashes) {
+		byte[] hash = new byte[32];
+		hash[0] = (byte) random.nextInt(hashes);
+		return new UTXO(hash, random.nextInt(8));
+	}
+
+	private static void assertSameContents(HashMap<UTXO, Transaction.Output> model, PersistentUTXOMap map) {
+		assertEquals(model.size(), map.size());
+		for (UTXO ut : model.keySet())
+			assertSame(model.get(ut), map.get(ut));
+		assertEquals(model.keySet(), new HashSet<UTXO>(map.keys()));
+		assertEquals(model.size(), map.values().size());
+	}
+
+	private static void randomChange(Random random, HashMap<UTXO, Transaction.Output> model, PersistentUTXOMap map) {
+		UTXO ut = randomUTXO(random, 128);
+		if (random.nextInt(3) == 0) {
+			model.remove(ut);
+			map.remove(ut);
+		} else {
+			Transaction.Output out = outputs[random.nextInt(outputs.length)];
+			model.put(ut, out);
+			map.put(ut, out);
+		}
+		assertEquals(model.containsKey(ut), map.containsKey(ut));
+	}
+
+	// Test 1: random additions and removals agree with a HashMap model
+	@Test
+	public void testAgreesWithHashMap() {
+		Random random = new Random(1);
+		PersistentUTXOMap map = new PersistentUTXOMap();
+		HashMap<UTXO, Transaction.Output> model = new HashMap<UTXO, Transaction.Output>();
+		for (int op = 0; op < 50000; op++) {
+			randomChange(random, model, map);
+			if (op % 5000 == 0)
+				assertSameContents(model, map);
+		}
+		assertSameContents(model, map);
+
+		for (UTXO ut : new ArrayList<UTXO>(model.keySet()))
+			map.remove(ut);
+		assertEquals(0, map.size());
+		assertTrue(map.keys().isEmpty());
+	}
+
+	// Test 2: changes to a copy or to its original are not seen by the other
+	@Test
+	public void testCopiesAreIndependent() {
+		Random random = new Random(2);
+		List<PersistentUTXOMap> maps = new ArrayList<PersistentUTXOMap>();
+		List<HashMap<UTXO, Transaction.Output>> models = new ArrayList<HashMap<UTXO, Transaction.Output>>();
+		maps.add(new PersistentUTXOMap());
+		models.add(new HashMap<UTXO, Transaction.Output>());
+
+		for (int round = 0; round < 200; round++) {
+			int parent = random.nextInt(maps.size());
+			maps.add(new PersistentUTXOMap(maps.get(parent)));
+			models.add(new HashMap<UTXO, Transaction.Output>(models.get(parent)));
+			// change the parent as well as the new copy
+			for (int op = 0; op < 50; op++) {
+				randomChange(random, models.get(parent), maps.get(parent));
+				randomChange(random, models.get(models.size() - 1), maps.get(maps.size() - 1));
+			}
+		}
+		for (int i = 0; i < maps.size(); i++)
+			assertSameContents(models.get(i), maps.get(i));
+	}
+
+	// Test 3: keys with equal hash codes are kept apart and can be removed
+	@Test
+	public void testHashCollisions() {
+		// Arrays.hashCode is the same for {0, 31} and {1, 0}
+		UTXO a = new UTXO(new byte[] { 0, 31 }, 0);
+		UTXO b = new UTXO(new byte[] { 1, 0 }, 0);
+		UTXO c = new UTXO(new byte[] { 2, -31 }, 0);
+		assertEquals(a.hashCode(), b.hashCode());
+		assertEquals(a.hashCode(), c.hashCode());
+
+		PersistentUTXOMap map = new PersistentUTXOMap();
+		map.put(a, outputs[0]);
+		map.put(b, outputs[1]);
+		PersistentUTXOMap copy = new PersistentUTXOMap(map);
+		copy.put(c, outputs[2]);
+
+		assertEquals(2, map.size());
+		assertNull(map.get(c));
+		assertEquals(3, copy.size());
+		assertSame(outputs[1], copy.get(b.getTxHash(), 0));
+
+		copy.remove(a);
+		copy.remove(b);
+		assertFalse(copy.containsKey(a));
+		assertSame(outputs[2], copy.get(c));
+		assertEquals(1, copy.size());
+		assertSame(outputs[0], map.get(a));
+	}
+
+	// Test 4: a map that is no longer changed can be copied by several threads at once
+	@Test
+	public void testConcurrentCopiesOfPublishedMap() throws Exception {
+		final int threads = 4;
+		Random random = new Random(4);
+		final PersistentUTXOMap published = new PersistentUTXOMap();
+		final HashMap<UTXO, Transaction.Output> model = new HashMap<UTXO, Transaction.Output>();
+		for (int op = 0; op < 5000; op++)
+			randomChange(random, model, published);
+
+		final CountDownLatch start = new CountDownLatch(1);
+		List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		for (int t = 0; t < threads; t++) {
+			final Random own = new Random(t);
+			tasks.add(() -> {
+				start.await();
+				for (int copy = 0; copy < 50; copy++) {
+					PersistentUTXOMap map = new PersistentUTXOMap(published);
+					HashMap<UTXO, Transaction.Output> copyModel = new HashMap<UTXO, Transaction.Output>(model);
+					for (int op = 0; op < 100; op++)
+						randomChange(own, copyModel, map);
+					assertSameContents(copyModel, map);
+				}
+				return null;
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (Callable<Void> task : tasks)
+				futures.add(executor.submit(task));
+			start.countDown();
+			for (Future<Void> f : futures)
+				f.get(60, TimeUnit.SECONDS);
+		} finally {
+			executor.shutdownNow();
+		}
+		assertSameContents(model, published);
+
+		// once the copies are taken, a change to the source leaves them alone
+		PersistentUTXOMap copy = new PersistentUTXOMap(published);
+		HashMap<UTXO, Transaction.Output> copyModel = new HashMap<UTXO, Transaction.Output>(model);
+		for (int op = 0; op < 1000; op++)
+			randomChange(random, model, published);
+		assertSameContents(copyModel, copy);
+		assertSameContents(model, published);
+	}
+}
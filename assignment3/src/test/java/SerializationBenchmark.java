@@ -0,0 +1,156 @@
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Time and allocation of {@link Transaction#getRawTx()}, {@link Transaction#getRawDataToSign(int)}
+ * and {@link Block#getRawBlock()} compared with the original {@code ArrayList<Byte>} encoders,
+ * for transactions with many inputs and outputs. Also checks that both produce the same bytes.
+ * Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes SerializationBenchmark [inputs] [outputs] [txs per block]
+ * </pre>
+ */
+public class SerializationBenchmark {
+
+	private interface Encoder {
+		byte[] encode();
+	}
+
+	static Transaction randomTx(Random random, PublicKey[] keys, int inputs, int outputs) {
+		Transaction tx = new Transaction();
+		for (int i = 0; i < inputs; i++) {
+			byte[] prevHash = new byte[32];
+			random.nextBytes(prevHash);
+			tx.addInput(prevHash, random.nextInt(16));
+			byte[] signature = new byte[256];
+			random.nextBytes(signature);
+			tx.addSignature(signature, i);
+		}
+		for (int i = 0; i < outputs; i++)
+			tx.addOutput(random.nextInt(1000) / 10.0, keys[random.nextInt(keys.length)]);
+		tx.finalize();
+		return tx;
+	}
+
+	static PublicKey[] generateKeys(int n) throws Exception {
+		PublicKey[] keys = new PublicKey[n];
+		for (int i = 0; i < n; i++)
+			keys[i] = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+		return keys;
+	}
+
+	private static void addOutputs(ArrayList<Byte> data, Transaction tx) {
+		for (Transaction.Output op : tx.getOutputs()) {
+			for (byte b : ByteBuffer.allocate(Double.SIZE / 8).putDouble(op.value).array())
+				data.add(b);
+			for (byte b : ((RSAPublicKey) op.address).getPublicExponent().toByteArray())
+				data.add(b);
+			for (byte b : ((RSAPublicKey) op.address).getModulus().toByteArray())
+				data.add(b);
+		}
+	}
+
+	private static void addRawTx(ArrayList<Byte> rawTx, Transaction tx) {
+		for (Transaction.Input in : tx.getInputs()) {
+			if (in.prevTxHash != null)
+				for (byte b : in.prevTxHash)
+					rawTx.add(b);
+			for (byte b : ByteBuffer.allocate(Integer.SIZE / 8).putInt(in.outputIndex).array())
+				rawTx.add(b);
+			if (in.signature != null)
+				for (byte b : in.signature)
+					rawTx.add(b);
+		}
+		addOutputs(rawTx, tx);
+	}
+
+	private static byte[] toArray(ArrayList<Byte> data) {
+		byte[] bytes = new byte[data.size()];
+		for (int i = 0; i < bytes.length; i++)
+			bytes[i] = data.get(i);
+		return bytes;
+	}
+
+	private static byte[] legacyRawDataToSign(Transaction tx, int index) {
+		ArrayList<Byte> sigData = new ArrayList<Byte>();
+		Transaction.Input in = tx.getInput(index);
+		for (byte b : in.prevTxHash)
+			sigData.add(b);
+		for (byte b : ByteBuffer.allocate(Integer.SIZE / 8).putInt(in.outputIndex).array())
+			sigData.add(b);
+		addOutputs(sigData, tx);
+		return toArray(sigData);
+	}
+
+	private static byte[] legacyRawTx(Transaction tx) {
+		ArrayList<Byte> rawTx = new ArrayList<Byte>();
+		addRawTx(rawTx, tx);
+		return toArray(rawTx);
+	}
+
+	private static byte[] legacyRawBlock(Block block) {
+		ArrayList<Byte> rawBlock = new ArrayList<Byte>();
+		for (byte b : block.getPrevBlockHash())
+			rawBlock.add(b);
+		for (Transaction tx : block.getTransactions())
+			addRawTx(rawBlock, tx);
+		return toArray(rawBlock);
+	}
+
+	/** Current thread's allocated bytes, or -1 if the JVM cannot tell */
+	static long allocatedBytes() {
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		return -1;
+	}
+
+	private static void measure(String name, int iterations, Encoder legacy, Encoder current) {
+		if (!Arrays.equals(legacy.encode(), current.encode()))
+			throw new AssertionError(name + ": encoders disagree");
+		for (int round = 0; round < 2; round++) {
+			// the first round only warms up
+			long[] nanos = new long[2];
+			long[] bytes = new long[2];
+			Encoder[] encoders = { legacy, current };
+			for (int e = 0; e < 2; e++) {
+				long allocated = allocatedBytes();
+				long start = System.nanoTime();
+				for (int i = 0; i < iterations; i++)
+					encoders[e].encode();
+				nanos[e] = System.nanoTime() - start;
+				bytes[e] = allocatedBytes() - allocated;
+			}
+			if (round == 1)
+				System.out.printf("%-18s ArrayList: %9.1f us %12d B/op   ByteBuffer: %9.1f us %12d B/op%n", name,
+						nanos[0] / 1e3 / iterations, bytes[0] / iterations,
+						nanos[1] / 1e3 / iterations, bytes[1] / iterations);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int inputs = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+		int outputs = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+		int blockTxs = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+		Random random = new Random(42);
+		PublicKey[] keys = generateKeys(8);
+		final Transaction tx = randomTx(random, keys, inputs, outputs);
+
+		final Block block = new Block(tx.getHash(), keys[0]);
+		for (int i = 0; i < blockTxs; i++)
+			block.addTransaction(randomTx(random, keys, 2, 2));
+
+		measure("getRawTx", 200, () -> legacyRawTx(tx), tx::getRawTx);
+		measure("getRawDataToSign", 200, () -> legacyRawDataToSign(tx, inputs / 2),
+				() -> tx.getRawDataToSign(inputs / 2));
+		measure("getRawBlock", 200, () -> legacyRawBlock(block), block::getRawBlock);
+	}
+}
@@ -0,0 +1,87 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link SignatureCache}
+ * <p>
+ * Test Strategy:
+ * Test 1: a repeated successful verification is answered from the cache
+ * Test 2: failed verifications are not cached
+ * Test 3: least recently used entries are evicted beyond the configured size
+ */
+public class SignatureCacheTest {
+
+	private static KeyPair keyPair;
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		keyPair = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+	}
+
+	private static byte[] sign(byte[] message) throws Exception {
+		Signature sig = Signature.getInstance("SHA256withRSA");
+		sig.initSign(keyPair.getPrivate());
+		sig.update(message);
+		return sig.sign();
+	}
+
+	// Test 1: a repeated successful verification is answered from the cache
+	@Test
+	public void testRepeatedVerificationHits() throws Exception {
+		final SignatureCache cache = new SignatureCache(10);
+		final byte[] message = { 1, 2, 3 };
+		final byte[] signature = sign(message);
+
+		assertTrue(cache.verifySignature(keyPair.getPublic(), message, signature));
+		assertTrue(cache.verifySignature(keyPair.getPublic(), message, signature));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.size());
+	}
+
+	// Test 2: failed verifications are not cached
+	@Test
+	public void testFailedVerificationIsNotCached() throws Exception {
+		final SignatureCache cache = new SignatureCache(10);
+		final byte[] signature = sign(new byte[] { 1, 2, 3 });
+
+		assertFalse(cache.verifySignature(keyPair.getPublic(), new byte[] { 1, 2, 4 }, signature));
+		assertFalse(cache.verifySignature(keyPair.getPublic(), new byte[] { 1, 2, 4 }, signature));
+		assertEquals(0, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(0, cache.size());
+	}
+
+	// Test 3: least recently used entries are evicted beyond the configured size
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Exception {
+		final SignatureCache cache = new SignatureCache(2);
+		final byte[][] messages = { { 1 }, { 2 }, { 3 } };
+		final byte[][] signatures = { sign(messages[0]), sign(messages[1]), sign(messages[2]) };
+
+		cache.verifySignature(keyPair.getPublic(), messages[0], signatures[0]);
+		cache.verifySignature(keyPair.getPublic(), messages[1], signatures[1]);
+		// touch the first entry so that the second one is the eldest
+		cache.verifySignature(keyPair.getPublic(), messages[0], signatures[0]);
+		cache.verifySignature(keyPair.getPublic(), messages[2], signatures[2]);
+		assertEquals(2, cache.size());
+
+		final long hits = cache.getHits();
+		cache.verifySignature(keyPair.getPublic(), messages[0], signatures[0]);
+		assertEquals(hits + 1, cache.getHits());
+		final long misses = cache.getMisses();
+		cache.verifySignature(keyPair.getPublic(), messages[1], signatures[1]);
+		assertEquals(misses + 1, cache.getMisses());
+
+		cache.setMaxSize(1);
+		assertEquals(1, cache.size());
+	}
+}
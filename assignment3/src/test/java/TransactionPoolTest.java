@@ -0,0 +1,220 @@
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link TransactionPool}
+ * <p>
+ * Test Strategy:
+ * Test 1: block templates take the best fee rates first and stop at the limit
+ * Test 2: a child with a high fee pulls its parent in ahead of better single transactions
+ * Test 3: of conflicting transactions only the best one makes it into a template
+ * Test 4: a child added before its parent is valued and ordered once the parent arrives
+ * Test 5: over the size cap the worst package goes, descendants included
+ * Test 6: random pools give templates that are ordered, free of conflicts and as large as the pool allows
+ * Test 7: a block removes the transactions it confirms and those conflicting with them, with their descendants
+ * Test 8: a transaction already drawn for the template is not listed again once a package pulled it in
+ */
+public class TransactionPoolTest {
+
+	private static PublicKey key;
+	private static Transaction funding;
+	private static UTXOPool utxoPool;
+
+	@BeforeClass
+	public static void createFunding() throws Exception {
+		key = KeyPairGenerator.getInstance("RSA").generateKeyPair().getPublic();
+		funding = new Transaction();
+		for (int i = 0; i < 64; i++)
+			funding.addOutput(10, key);
+		funding.finalize();
+		utxoPool = new UTXOPool();
+		for (int i = 0; i < funding.numOutputs(); i++)
+			utxoPool.addUTXO(new UTXO(funding.getHash(), i), funding.getOutput(i));
+	}
+
+	/** @return a transaction spending output {@code index} of {@code prev} and paying {@code value} */
+	private static Transaction spend(Transaction prev, int index, double value) {
+		Transaction tx = new Transaction();
+		tx.addInput(prev.getHash(), index);
+		tx.addOutput(value, key);
+		tx.addSignature(new byte[] { 1 }, 0); // never checked by the pool
+		tx.finalize();
+		return tx;
+	}
+
+	// Test 1: block templates take the best fee rates first and stop at the limit
+	@Test
+	public void testBestFeeRatesFirst() {
+		TransactionPool pool = new TransactionPool();
+		Transaction low = spend(funding, 0, 9);
+		Transaction high = spend(funding, 1, 5);
+		Transaction middle = spend(funding, 2, 7);
+		for (Transaction tx : Arrays.asList(low, high, middle))
+			pool.addTransaction(tx, utxoPool);
+
+		assertEquals(Arrays.asList(high, middle, low), pool.getBlockTemplate());
+		assertEquals(Arrays.asList(high, middle), pool.getBlockTemplate(2));
+		assertEquals(Long.valueOf(5 * Transaction.UNITS_PER_COIN), pool.getFeeUnits(high.getHash()));
+	}
+
+	// Test 2: a child with a high fee pulls its parent in ahead of better single transactions
+	@Test
+	public void testChildPaysForParent() {
+		TransactionPool pool = new TransactionPool();
+		Transaction parent = spend(funding, 3, 10); // fee 0
+		Transaction child = spend(parent, 0, 1); // fee 9
+		Transaction single = spend(funding, 4, 5); // fee 5, better than 9 over two
+		Transaction other = spend(funding, 5, 8); // fee 2, worse
+
+		for (Transaction tx : Arrays.asList(other, child, single, parent))
+			pool.addTransaction(tx, utxoPool);
+		assertEquals(Arrays.asList(single, parent, child, other), pool.getBlockTemplate());
+	}
+
+	// Test 3: of conflicting transactions only the best one makes it into a template
+	@Test
+	public void testConflictsLeftOut() {
+		TransactionPool pool = new TransactionPool();
+		Transaction worse = spend(funding, 6, 9);
+		Transaction better = spend(funding, 6, 2);
+		pool.addTransaction(worse, utxoPool);
+		pool.addTransaction(better, utxoPool);
+
+		assertEquals(2, pool.size());
+		assertEquals(new HashSet<>(Arrays.asList(worse, better)),
+				new HashSet<>(pool.getSpenders(new UTXO(funding.getHash(), 6))));
+		assertEquals(Arrays.asList(better), pool.getBlockTemplate());
+	}
+
+	// Test 4: a child added before its parent is valued and ordered once the parent arrives
+	@Test
+	public void testChildBeforeParent() {
+		TransactionPool pool = new TransactionPool();
+		Transaction parent = spend(funding, 7, 9);
+		Transaction child = spend(parent, 0, 4);
+		pool.addTransaction(child, utxoPool);
+		assertEquals(Long.valueOf(-4 * Transaction.UNITS_PER_COIN), pool.getFeeUnits(child.getHash()));
+
+		pool.addTransaction(parent, utxoPool);
+		assertEquals(Long.valueOf(5 * Transaction.UNITS_PER_COIN), pool.getFeeUnits(child.getHash()));
+		assertEquals(Arrays.asList(parent, child), pool.getBlockTemplate());
+	}
+
+	// Test 5: over the size cap the worst package goes, descendants included
+	@Test
+	public void testEvictsWorstPackage() {
+		TransactionPool pool = new TransactionPool();
+		Transaction parent = spend(funding, 8, 10); // fee 0
+		Transaction child = spend(parent, 0, 9.5); // fee 0.5, 0.25 with its parent
+		Transaction good = spend(funding, 9, 5);
+		Transaction fine = spend(funding, 10, 8);
+		for (Transaction tx : Arrays.asList(parent, child, good, fine))
+			pool.addTransaction(tx, utxoPool);
+
+		pool.setMaxBytes(pool.getTotalBytes() - 1);
+		assertEquals(2, pool.size());
+		assertNull(pool.getTransaction(parent.getHash()));
+		assertNull(pool.getTransaction(child.getHash()));
+		assertEquals(Arrays.asList(good, fine), pool.getBlockTemplate());
+
+		TransactionPool copy = new TransactionPool(pool);
+		copy.setMaxBytes(copy.getTotalBytes() - 1);
+		assertEquals(Arrays.asList(good), copy.getBlockTemplate());
+		assertEquals(2, pool.size());
+	}
+
+	// Test 6: random pools give templates that are ordered, free of conflicts and as large as the pool allows
+	@Test
+	public void testRandomTemplates() {
+		Random random = new Random(6);
+		for (int round = 0; round < 20; round++) {
+			TransactionPool pool = new TransactionPool();
+			List<Transaction> txs = new ArrayList<Transaction>();
+			for (int i = 0; i < 60; i++) {
+				Transaction prev = txs.isEmpty() || random.nextBoolean() ? funding : txs.get(random.nextInt(txs.size()));
+				Transaction tx = spend(prev, prev == funding ? random.nextInt(funding.numOutputs()) : 0,
+						random.nextInt(10));
+				txs.add(tx);
+				pool.addTransaction(tx, utxoPool);
+				if (random.nextInt(10) == 0)
+					pool.removeTransaction(txs.get(random.nextInt(txs.size())).getHash());
+			}
+
+			List<Transaction> template = pool.getBlockTemplate();
+			HashSet<UTXO> spent = new HashSet<UTXO>();
+			HashSet<Transaction> seen = new HashSet<Transaction>();
+			for (Transaction tx : template) {
+				Transaction.Input in = tx.getInput(0);
+				assertTrue(spent.add(new UTXO(in.prevTxHash, in.outputIndex)));
+				Transaction parent = pool.getTransaction(in.prevTxHash);
+				assertTrue(parent == null || seen.contains(parent));
+				seen.add(tx);
+			}
+			// every transaction left out conflicts with the template or descends from one that does
+			for (Transaction tx : pool.getTransactions()) {
+				if (seen.contains(tx))
+					continue;
+				Transaction.Input in = tx.getInput(0);
+				Transaction parent = pool.getTransaction(in.prevTxHash);
+				assertTrue(spent.contains(new UTXO(in.prevTxHash, in.outputIndex))
+						|| (parent != null && !seen.contains(parent)));
+			}
+		}
+	}
+
+	// Test 7: a block removes the transactions it confirms and those conflicting with them, with their descendants
+	@Test
+	public void testRemoveConfirmed() {
+		TransactionPool pool = new TransactionPool();
+		Transaction confirmed = spend(funding, 11, 9);
+		Transaction child = spend(confirmed, 0, 8);
+		Transaction conflict = spend(funding, 12, 9);
+		Transaction conflictChild = spend(conflict, 0, 8);
+		Transaction unrelated = spend(funding, 13, 9);
+		for (Transaction tx : Arrays.asList(confirmed, child, conflict, conflictChild, unrelated))
+			pool.addTransaction(tx, utxoPool);
+
+		Block block = new Block(new byte[32], key);
+		block.addTransaction(confirmed);
+		block.addTransaction(spend(funding, 12, 5));
+		block.finalize();
+		pool.removeConfirmed(block);
+
+		assertEquals(Arrays.asList(child, unrelated), pool.getBlockTemplate());
+		assertEquals(Long.valueOf(Transaction.UNITS_PER_COIN), pool.getFeeUnits(child.getHash()));
+		assertTrue(pool.getSpenders(new UTXO(funding.getHash(), 12)).isEmpty());
+	}
+
+	// Test 8: a transaction already drawn for the template is not listed again once a package pulled it in
+	@Test
+	public void testDrawnTransactionPulledIn() {
+		TransactionPool pool = new TransactionPool();
+		Transaction parent = spend(funding, 14, 5); // fee 5
+		Transaction free = new Transaction(); // no inputs, fee 0
+		free.addOutput(0, key);
+		free.finalize();
+		Transaction child = new Transaction();
+		child.addInput(parent.getHash(), 0);
+		child.addInput(free.getHash(), 0);
+		child.addOutput(1, key);
+		child.addSignature(new byte[] { 1 }, 0);
+		child.addSignature(new byte[] { 1 }, 1);
+		child.finalize();
+		for (Transaction tx : Arrays.asList(parent, free, child))
+			pool.addTransaction(tx, utxoPool);
+
+		assertEquals(Arrays.asList(parent, free, child), pool.getBlockTemplate());
+	}
+}
@@ -0,0 +1,88 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.HashMap;
+import java.util.Random;
+
+/**
+ * Memory footprint and lookup cost of {@link FlatUTXOIndex} compared with the
+ * {@code HashMap<UTXO, Transaction.Output>} behind the default {@link UTXOPool}. All entries share
+ * one output so that only the index itself is measured. Not a unit test, run it by hand with a
+ * large enough heap:
+ *
+ * <pre>
+ * java -Xmx2g -cp target/classes:target/test-classes UTXOIndexBenchmark [entries] [lookups]
+ * </pre>
+ */
+public class UTXOIndexBenchmark {
+
+	private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return MEMORY.getHeapMemoryUsage().getUsed();
+	}
+
+	public static void main(String[] args) throws Exception {
+		int entries = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int lookups = args.length > 1 ? Integer.parseInt(args[1]) : 5000000;
+
+		Transaction coinbase = new Transaction(25, SerializationBenchmark.generateKeys(1)[0]);
+		Transaction.Output out = coinbase.getOutput(0);
+
+		// the hashes stay alive for both measurements, so they cancel out
+		Random random = new Random(42);
+		byte[][] hashes = new byte[entries][FlatUTXOIndex.HASH_LENGTH];
+		for (byte[] hash : hashes)
+			random.nextBytes(hash);
+		UTXO[] probes = new UTXO[entries];
+		for (int i = 0; i < entries; i++)
+			probes[i] = new UTXO(hashes[i], i & 3);
+
+		long before = usedHeap();
+		HashMap<UTXO, Transaction.Output> map = new HashMap<UTXO, Transaction.Output>();
+		for (int i = 0; i < entries; i++)
+			map.put(new UTXO(hashes[i], i & 3), out);
+		long mapBytes = usedHeap() - before;
+
+		before = usedHeap();
+		FlatUTXOIndex flat = new FlatUTXOIndex(entries);
+		for (int i = 0; i < entries; i++)
+			flat.put(hashes[i], i & 3, out);
+		long flatBytes = usedHeap() - before;
+
+		System.out.printf("%d entries%n", entries);
+		System.out.printf("%-8s %8.1f bytes/entry%n", "HashMap", (double) mapBytes / entries);
+		System.out.printf("%-8s %8.1f bytes/entry%n", "flat", (double) flatBytes / entries);
+
+		for (int warmup = 0; warmup < 3; warmup++) {
+			int[] order = new int[lookups];
+			for (int i = 0; i < lookups; i++)
+				order[i] = random.nextInt(entries);
+
+			int found = 0;
+			long allocated = SerializationBenchmark.allocatedBytes();
+			long start = System.nanoTime();
+			for (int i : order)
+				found += map.get(probes[i]) != null ? 1 : 0;
+			long mapNanos = System.nanoTime() - start;
+			long mapAllocated = SerializationBenchmark.allocatedBytes() - allocated;
+
+			allocated = SerializationBenchmark.allocatedBytes();
+			start = System.nanoTime();
+			for (int i : order)
+				found += flat.get(hashes[i], i & 3) != null ? 1 : 0;
+			long flatNanos = System.nanoTime() - start;
+			long flatAllocated = SerializationBenchmark.allocatedBytes() - allocated;
+
+			if (warmup == 2) {
+				System.out.printf("%-8s %8.1f ns/lookup %8.1f bytes/lookup%n", "HashMap",
+						(double) mapNanos / lookups, (double) mapAllocated / lookups);
+				System.out.printf("%-8s %8.1f ns/lookup %8.1f bytes/lookup%n", "flat",
+						(double) flatNanos / lookups, (double) flatAllocated / lookups);
+				if (found != 2 * lookups)
+					throw new AssertionError("missing entries");
+			}
+		}
+	}
+}
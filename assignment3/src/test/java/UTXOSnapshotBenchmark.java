@@ -0,0 +1,167 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Memory kept by the per-block UTXO pools of {@link BlockChain}: {@link BlockChain#CUT_OFF_AGE}
+ * generations of forks, each block deriving its pool from its parent's and spending and creating
+ * a few outputs. Full {@code HashMap} copies, as {@link UTXOPool} used to make, are compared with
+ * the shared copies of {@link PersistentUTXOMap}. Not a unit test, run it by hand:
+ *
+ * <pre>
+ * java -Xmx4g -cp target/classes:target/test-classes UTXOSnapshotBenchmark [utxos] [forks] [changes]
+ * </pre>
+ */
+public class UTXOSnapshotBenchmark {
+
+	private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return MEMORY.getHeapMemoryUsage().getUsed();
+	}
+
+	private interface Pool {
+		Pool copy();
+
+		void add(UTXO ut, Transaction.Output out);
+
+		void remove(UTXO ut);
+
+		Transaction.Output get(UTXO ut);
+	}
+
+	private static class MapPool implements Pool {
+		final HashMap<UTXO, Transaction.Output> map;
+
+		MapPool(HashMap<UTXO, Transaction.Output> map) {
+			this.map = map;
+		}
+
+		public Pool copy() {
+			return new MapPool(new HashMap<UTXO, Transaction.Output>(map));
+		}
+
+		public void add(UTXO ut, Transaction.Output out) {
+			map.put(ut, out);
+		}
+
+		public void remove(UTXO ut) {
+			map.remove(ut);
+		}
+
+		public Transaction.Output get(UTXO ut) {
+			return map.get(ut);
+		}
+	}
+
+	private static class PersistentPool implements Pool {
+		final PersistentUTXOMap map;
+
+		PersistentPool(PersistentUTXOMap map) {
+			this.map = map;
+		}
+
+		public Pool copy() {
+			return new PersistentPool(new PersistentUTXOMap(map));
+		}
+
+		public void add(UTXO ut, Transaction.Output out) {
+			map.put(ut, out);
+		}
+
+		public void remove(UTXO ut) {
+			map.remove(ut);
+		}
+
+		public Transaction.Output get(UTXO ut) {
+			return map.get(ut);
+		}
+	}
+
+	/**
+	 * Grows {@code forks} chains of {@link BlockChain#CUT_OFF_AGE} blocks on top of {@code genesis}.
+	 * Every block spends {@code changes} outputs of {@code utxos} and creates as many new ones.
+	 *
+	 * @return the pools of all blocks, genesis included
+	 */
+	private static List<Pool> grow(Pool genesis, UTXO[] utxos, UTXO[] created, int forks, int changes,
+			Transaction.Output out) {
+		Random random = new Random(7);
+		List<Pool> pools = new ArrayList<Pool>();
+		pools.add(genesis);
+		int next = 0;
+		for (int f = 0; f < forks; f++) {
+			Pool pool = genesis;
+			for (int height = 0; height < BlockChain.CUT_OFF_AGE; height++) {
+				pool = pool.copy();
+				for (int c = 0; c < changes; c++) {
+					pool.remove(utxos[random.nextInt(utxos.length)]);
+					pool.add(created[next++ % created.length], out);
+				}
+				pools.add(pool);
+			}
+		}
+		return pools;
+	}
+
+	private static void measure(String name, Pool genesis, UTXO[] utxos, UTXO[] created, int forks, int changes,
+			Transaction.Output out, boolean print) {
+		long before = usedHeap();
+		long start = System.nanoTime();
+		List<Pool> pools = grow(genesis, utxos, created, forks, changes, out);
+		long nanos = System.nanoTime() - start;
+		long bytes = usedHeap() - before;
+
+		Random random = new Random(11);
+		int lookups = 1000000;
+		int found = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < lookups; i++)
+			found += pools.get(pools.size() - 1).get(utxos[random.nextInt(utxos.length)]) != null ? 1 : 0;
+		long lookupNanos = System.nanoTime() - start;
+
+		if (print)
+			System.out.printf("%-10s %4d pools %10.1f MB %8.2f ms/block %8.1f ns/lookup (%d found)%n", name,
+					pools.size(), bytes / 1e6, nanos / 1e6 / (pools.size() - 1), (double) lookupNanos / lookups, found);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int size = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		int forks = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int changes = args.length > 2 ? Integer.parseInt(args[2]) : 100;
+
+		Transaction.Output out = new Transaction(25, SerializationBenchmark.generateKeys(1)[0]).getOutput(0);
+		Random random = new Random(42);
+		UTXO[] utxos = new UTXO[size];
+		for (int i = 0; i < size; i++) {
+			byte[] hash = new byte[32];
+			random.nextBytes(hash);
+			utxos[i] = new UTXO(hash, i & 3);
+		}
+		UTXO[] created = new UTXO[forks * BlockChain.CUT_OFF_AGE * changes];
+		for (int i = 0; i < created.length; i++) {
+			byte[] hash = new byte[32];
+			random.nextBytes(hash);
+			created[i] = new UTXO(hash, 0);
+		}
+
+		HashMap<UTXO, Transaction.Output> map = new HashMap<UTXO, Transaction.Output>();
+		PersistentUTXOMap persistent = new PersistentUTXOMap();
+		for (UTXO ut : utxos) {
+			map.put(ut, out);
+			persistent.put(ut, out);
+		}
+
+		System.out.printf("%d UTXOs, %d forks of %d blocks, %d outputs spent and created per block%n", size, forks,
+				BlockChain.CUT_OFF_AGE, changes);
+		for (int warmup = 0; warmup < 2; warmup++) {
+			measure("HashMap", new MapPool(map), utxos, created, forks, changes, out, warmup == 1);
+			measure("persistent", new PersistentPool(persistent), utxos, created, forks, changes, out, warmup == 1);
+		}
+	}
+}
@@ -0,0 +1,63 @@
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.Random;
+
+/**
+ * Encoding and decoding throughput of {@link WireFormat} for a large block: encoding, decoding the
+ * views only, hashing from the views, and fully materializing a {@link Block}. Not a unit test,
+ * run it by hand:
+ *
+ * <pre>
+ * java -cp target/classes:target/test-classes WireFormatBenchmark [txs per block] [rounds]
+ * </pre>
+ */
+public class WireFormatBenchmark {
+
+	private interface Step {
+		void run();
+	}
+
+	private static void measure(String name, int rounds, long bytes, Step step) {
+		for (int warmup = 0; warmup < rounds; warmup++)
+			step.run();
+		long start = System.nanoTime();
+		for (int r = 0; r < rounds; r++)
+			step.run();
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-12s %9.2f ms %9.1f MB/s%n", name, seconds * 1e3 / rounds,
+				bytes * rounds / seconds / 1e6);
+	}
+
+	public static void main(String[] args) throws Exception {
+		int blockTxs = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+		int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+		Random random = new Random(42);
+		PublicKey[] keys = SerializationBenchmark.generateKeys(8);
+		final Block block = new Block(new byte[32], keys[0]);
+		for (int i = 0; i < blockTxs; i++)
+			block.addTransaction(SerializationBenchmark.randomTx(random, keys, 2, 2));
+		block.finalize();
+
+		final ByteBuffer buffer = ByteBuffer.allocateDirect(WireFormat.encodedLength(block));
+		final long bytes = buffer.capacity();
+		System.out.printf("%d-tx block, %d bytes encoded%n", blockTxs, bytes);
+
+		measure("encode", rounds, bytes, () -> {
+			buffer.clear();
+			WireFormat.encode(block, buffer);
+		});
+		measure("decode", rounds, bytes, () -> {
+			buffer.rewind();
+			WireFormat.decodeBlock(buffer);
+		});
+		measure("hash", rounds, bytes, () -> {
+			buffer.rewind();
+			WireFormat.decodeBlock(buffer).computeHash();
+		});
+		measure("materialize", 1, bytes, () -> {
+			buffer.rewind();
+			WireFormat.decodeBlock(buffer).toBlock();
+		});
+	}
+}
@@ -0,0 +1,195 @@
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Unit tests for {@link WireFormat}
+ * <p>
+ * Test Strategy:
+ * Test 1: a transaction survives a round trip and keeps its hash
+ * Test 2: a block survives a round trip through a memory-mapped file and keeps its hash
+ * Test 3: truncated input and unknown versions are rejected
+ * Test 4: negative lengths and lengths or counts beyond the bytes left are rejected
+ * Test 5: lengths whose sum overflows an int are rejected instead of wrapping around
+ * Test 6: a block transaction whose length prefix differs from its encoding is rejected
+ */
+public class WireFormatTest {
+
+	private static KeyPair scrooge;
+	private static KeyPair alice;
+
+	@BeforeClass
+	public static void generateKeys() throws Exception {
+		scrooge = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+		alice = KeyPairGenerator.getInstance("RSA").generateKeyPair();
+	}
+
+	private static Transaction signedTx(byte[] prevHash) throws Exception {
+		Main.Tx tx = new Main.Tx();
+		tx.addInput(prevHash, 0);
+		tx.addInput(prevHash, 1);
+		tx.addOutput(5, alice.getPublic());
+		tx.addOutput(2.5, scrooge.getPublic());
+		tx.signTx(scrooge.getPrivate(), 0);
+		tx.signTx(scrooge.getPrivate(), 1);
+		return tx;
+	}
+
+	private static void assertRejected(String what, byte[] bytes, boolean block) {
+		try {
+			if (block)
+				WireFormat.decodeBlock(ByteBuffer.wrap(bytes));
+			else
+				WireFormat.decodeTransaction(ByteBuffer.wrap(bytes));
+		} catch (IllegalArgumentException expected) {
+			return;
+		}
+		throw new AssertionError(what + " accepted");
+	}
+
+	/** A transaction header for {@code numInputs} inputs and no outputs, followed by {@code ints} */
+	private static byte[] transaction(int numInputs, int... ints) {
+		final ByteBuffer b = ByteBuffer.allocate(2 + 2 * Integer.BYTES + ints.length * Integer.BYTES);
+		b.put(WireFormat.VERSION).put((byte) 0).putInt(numInputs).putInt(0);
+		for (int i : ints)
+			b.putInt(i);
+		return b.array();
+	}
+
+	// Test 1: a transaction survives a round trip and keeps its hash
+	@Test
+	public void testTransactionRoundTrip() throws Exception {
+		final Transaction tx = signedTx(new byte[] { 1, 2, 3 });
+		final byte[] encoded = WireFormat.encode(tx);
+		assertEquals(WireFormat.encodedLength(tx), encoded.length);
+
+		final ByteBuffer b = ByteBuffer.wrap(encoded);
+		final WireFormat.TransactionView view = WireFormat.decodeTransaction(b);
+		assertEquals(encoded.length, b.position());
+		assertEquals(2, view.numInputs());
+		assertEquals(2.5, view.getOutput(1).getValue(), 0);
+		assertArrayEquals(tx.getHash(), view.computeHash());
+
+		final Transaction decoded = view.toTransaction();
+		assertArrayEquals(tx.getHash(), decoded.getHash());
+		assertArrayEquals(encoded, WireFormat.encode(decoded));
+	}
+
+	// Test 2: a block survives a round trip through a memory-mapped file and keeps its hash
+	@Test
+	public void testBlockRoundTripThroughMappedFile() throws Exception {
+		final Block genesis = new Block(null, scrooge.getPublic());
+		genesis.finalize();
+		final Block block = new Block(genesis.getHash(), alice.getPublic());
+		block.addTransaction(signedTx(genesis.getCoinbase().getHash()));
+		block.addTransaction(signedTx(new byte[] { 4, 5, 6 }));
+		block.finalize();
+
+		final File file = File.createTempFile("block", ".bin");
+		file.deleteOnExit();
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+			final int length = WireFormat.encodedLength(genesis) + WireFormat.encodedLength(block);
+			final MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+			WireFormat.encode(genesis, mapped);
+			WireFormat.encode(block, mapped);
+			mapped.flip();
+
+			final WireFormat.BlockView genesisView = WireFormat.decodeBlock(mapped);
+			final WireFormat.BlockView view = WireFormat.decodeBlock(mapped);
+			assertEquals(length, mapped.position());
+
+			assertArrayEquals(genesis.getHash(), genesisView.computeHash());
+			assertTrue(genesisView.getCoinbase().isCoinbase());
+			assertArrayEquals(block.getHash(), view.computeHash());
+			assertEquals(2, view.numTransactions());
+
+			final Block decoded = view.toBlock();
+			assertArrayEquals(block.getHash(), decoded.getHash());
+			assertArrayEquals(block.getPrevBlockHash(), decoded.getPrevBlockHash());
+			assertEquals(block.getCoinbase(), decoded.getCoinbase());
+			assertArrayEquals(block.getCoinbase().getHash(), decoded.getCoinbase().getHash());
+			for (int i = 0; i < block.getTransactions().size(); i++)
+				assertArrayEquals(WireFormat.encode(block.getTransaction(i)),
+						WireFormat.encode(decoded.getTransaction(i)));
+		}
+	}
+
+	// Test 3: truncated input and unknown versions are rejected
+	@Test
+	public void testMalformedInputIsRejected() throws Exception {
+		final byte[] encoded = WireFormat.encode(signedTx(new byte[] { 1 }));
+		try {
+			WireFormat.decodeTransaction(ByteBuffer.wrap(encoded, 0, encoded.length - 1));
+			throw new AssertionError("truncated transaction accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+		encoded[0] = WireFormat.VERSION + 1;
+		try {
+			WireFormat.decodeTransaction(ByteBuffer.wrap(encoded));
+			throw new AssertionError("unknown version accepted");
+		} catch (IllegalArgumentException expected) {
+		}
+	}
+
+	// Test 4: negative lengths and lengths or counts beyond the bytes left are rejected
+	@Test
+	public void testBadLengthsAreRejected() throws Exception {
+		assertRejected("negative hash length", transaction(1, -2, 0, 0), false);
+		assertRejected("hash length past the end", transaction(1, 1000000, 0, 0), false);
+		assertRejected("huge input count", transaction(Integer.MAX_VALUE, 0, 0, 0), false);
+
+		final Block genesis = new Block(null, scrooge.getPublic());
+		genesis.finalize();
+		final byte[] block = WireFormat.encode(genesis);
+		final int numTxs = block.length - Integer.BYTES;
+		ByteBuffer.wrap(block).putInt(numTxs, Integer.MAX_VALUE);
+		assertRejected("huge transaction count", block, true);
+		ByteBuffer.wrap(block).putInt(numTxs, 0);
+		ByteBuffer.wrap(block).putInt(1, 1000000);
+		assertRejected("previous hash past the end", block, true);
+		assertRejected("truncated block", Arrays.copyOf(WireFormat.encode(genesis), block.length - 1), true);
+	}
+
+	// Test 5: lengths whose sum overflows an int are rejected instead of wrapping around
+	@Test
+	public void testOverflowingLengthsAreRejected() throws Exception {
+		// the two lengths add up to -2, which once took the offset back to 20
+		assertRejected("overflowing input lengths", transaction(1, Integer.MAX_VALUE, Integer.MAX_VALUE, 0), false);
+		final ByteBuffer output = ByteBuffer.allocate(2 + 4 * Integer.BYTES + Double.BYTES + 8);
+		output.put(WireFormat.VERSION).put((byte) 0).putInt(0).putInt(1);
+		output.putInt(Integer.MAX_VALUE).putInt(Integer.MAX_VALUE).putDouble(1);
+		assertRejected("overflowing key lengths", output.array(), false);
+	}
+
+	// Test 6: a block transaction whose length prefix differs from its encoding is rejected
+	@Test
+	public void testTransactionLengthMismatchIsRejected() throws Exception {
+		final Block genesis = new Block(null, scrooge.getPublic());
+		genesis.finalize();
+		final Block block = new Block(genesis.getHash(), alice.getPublic());
+		final Transaction tx = signedTx(genesis.getCoinbase().getHash());
+		block.addTransaction(tx);
+		block.finalize();
+
+		final byte[] encoded = WireFormat.encode(block);
+		// one spare byte after the block, claimed by a prefix one too long
+		final byte[] padded = Arrays.copyOf(encoded, encoded.length + 1);
+		final int prefix = encoded.length - WireFormat.encodedLength(tx) - Integer.BYTES;
+		assertEquals(WireFormat.encodedLength(tx), ByteBuffer.wrap(padded).getInt(prefix));
+		WireFormat.decodeBlock(ByteBuffer.wrap(padded));
+		ByteBuffer.wrap(padded).putInt(prefix, WireFormat.encodedLength(tx) + 1);
+		assertRejected("transaction length prefix one too long", padded, true);
+	}
+}